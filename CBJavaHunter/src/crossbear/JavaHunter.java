@@ -377,9 +377,8 @@ public class JavaHunter {
 	logger.info("Received a certificate chain from target.");
 	
 	// Try to complete the chain
-	// TODO: when the maxPermutations is removed in makeCertChainValid(), remove it here, too
 	logger.info("Trying to complete chain.");
-	LinkedList<X509Certificate> completedChain = cm.makeCertChainValid(targetCertChain, 50, true);
+	LinkedList<X509Certificate> completedChain = cm.makeCertChainValid(targetCertChain, true);
 	if(completedChain != null) {
 	    logger.info("Chain could not be completed.");
 	    targetCertChain = completedChain.toArray(new X509Certificate[]{});
@@ -40,6 +40,10 @@ Crossbear.CBHTLProcessor = function (cbFrontend) {
 	this.publicIPv6;
 	this.publicIPv4;
 	
+	// The AES-key that the Crossbear server uses to protect the per-client part of the HuntingTaskList and its RSA-encrypted version (in form of a CBMessagePublicIPNotifRequest)
+	this.replyKey = null;
+	this.replyKeyRequest = null;
+	
 	// "this" does not always point to THIS object (especially in callback functions). Therefore I use the "self" variable to hold a handle on THIS object
 	var self = this;
 
@@ -49,10 +53,60 @@ Crossbear.CBHTLProcessor = function (cbFrontend) {
 		
 		/**
 		 * Request the current HuntingTaskList from the Crossbear server using parseHuntingTaskList as callback-function (i.e. parseHuntingTaskList will parse the HuntingTaskList after it is received)
+		 * 
+		 * Only the HuntingTasks of the server's reply are signed. The per-client part (PublicIP and server time) is protected with an AES-key of this client (cf. CBHunter.requestPublicIP). That key is
+		 * generated and RSA-encrypted only once so the server only needs to decrypt it once. A fresh nonce is sent along with each request to make sure that an old reply can't be replayed.
 		 */
 		Crossbear.CBHTLProcessor.prototype.requestHuntingTaskList = function requestHuntingTaskList() {
 			cbFrontend.displayInformation("Pulling Hunting Tasks from CrossbearServer");
-			cbFrontend.cbnet.retrieveBinaryFromUrl("https://" + cbFrontend.cbServerName + "/getHuntingTaskList.jsp", cbFrontend.cbServerName + ":443", self.parseHuntingTaskList,null);
+			
+			// Generate the AES-key and encrypt it with RSA/OAEP-padding using the Crossbear server's public key (if not already done)
+			if (self.replyKeyRequest == null) {
+				self.replyKey = Crossbear.generate256BitAESKey();
+				var paddedReplyKey = Crossbear.RSA.OAEP.padBlock(self.replyKey, 0, self.replyKey.length);
+				self.replyKeyRequest = Crossbear.jsArrayToUint8Array(new Crossbear.CBMessagePublicIPNotifRequest(Crossbear.RSA.RSAencrypt(self.cbFrontend.ServerRSAKeyPair, paddedReplyKey)).getBytes());
+			}
+			
+			// Generate a random nonce. The callback-function needs to know it in order to verify the reply. Therefore it is passed within the callBackParams-object
+			var nonce = Crossbear.generate256BitAESKey();
+			
+			cbFrontend.cbnet.postBinaryRetrieveBinaryFromUrl("https://" + cbFrontend.cbServerName + "/getHuntingTaskList.jsp?signature=split&nonce=" + Crypto.util.bytesToHex(nonce), cbFrontend.cbServerName + ":443", self.replyKeyRequest, self.parseHuntingTaskList, { nonce : nonce });
+		};
+		
+		/**
+		 * Decrypt the per-client part of a HuntingTaskList and verify its integrity using the hash and the nonce that are sent along with it (cf. CBHunter.receivePublicIP).
+		 * 
+		 * @param encryptedPart The AES-encrypted per-client part of the server's reply
+		 * @param nonce The nonce that was sent along with the request
+		 * @returns The CBMessage[] contained in the per-client part or null if its verification failed
+		 */
+		Crossbear.CBHTLProcessor.prototype.decryptPerClientPart = function decryptPerClientPart(encryptedPart, nonce) {
+			
+			// Decrypt the per-client part using the AES key
+			var plaintext = Crypto.AES.decrypt(Crossbear.uint8ArrayToJSArray(encryptedPart), self.replyKey, {
+				mode : new Crypto.mode.CBC(Crypto.pad.pkcs7),
+				asBytes : true
+			});
+			
+			// Check the decrypted plaintext for validity using the Hash that was sent along with it and check that it is the reply to THIS request
+			var supposedHash = plaintext.splice(plaintext.length - 32, 32);
+			var actualHash = Crypto.SHA256(plaintext, {
+				asBytes : true
+			});
+			var receivedNonce = plaintext.splice(0, nonce.length);
+			
+			// If somebody tampered with the data: Warn the user!
+			if (!Crossbear.arrayCompare(supposedHash, actualHash) || !Crossbear.arrayCompare(receivedNonce, nonce)) {
+				var tamperWarningXML = document.createDocumentFragment();
+				var tamperWarning = document.createTextNode("Your system is under attack! Somebody modified the datatransfer between the Crossbear server and your system.");
+				tamperWarningXML.appendChild(tamperWarning);
+				cbFrontend.warnUserAboutBeingUnderAttack(tamperWarningXML,5);
+				cbFrontend.displayTechnicalFailure("CBHTLProcessor:decryptPerClientPart: received invalid input!", true);
+				return null;
+			}
+			
+			// If the verification was successful cast the plaintext into a CBMessage-array
+			return Crossbear.messageBuilder(Crossbear.jsArrayToUint8Array(plaintext),cbFrontend);
 		};
 		
 
@@ -81,10 +135,52 @@ Crossbear.CBHTLProcessor = function (cbFrontend) {
 					self.publicIPv6 = '';
 					self.publicIPv4 = '';
 					
-					// Try to Decode the server's reply as an array of CBMessages
-					var serverMessages = Crossbear.messageBuilder(new Uint8Array(output),cbFrontend);
+					// Find the end of the signature message: Everything in front of it is covered by the signature. Everything after it is the AES-protected per-client part.
+					var data = new Uint8Array(output);
+					var signatureEnd = -1;
+					var readPos = 0;
+					while (readPos + 3 <= data.length) {
+						var messageLength = Crossbear.bytesToShort([ data[readPos + 1], data[readPos + 2] ]);
+						if (messageLength < 3) {
+							break;
+						}
+						readPos += messageLength;
+						if (data[readPos - messageLength] == Crossbear.CBMessageTypes.SIGNATURE) {
+							signatureEnd = readPos;
+							break;
+						}
+					}
+					if (signatureEnd == -1 || signatureEnd > data.length) {
+						cbFrontend.displayTechnicalFailure("CBHTLProcessor:parseHuntingTaskList: received a Hunting Task List without signature.", true);
+						return;
+					}
+					
+					// Try to Decode the signed part of the server's reply as an array of CBMessages and verify its signature (which is its last message)
+					var serverMessages = Crossbear.messageBuilder(data.subarray(0, signatureEnd),cbFrontend);
+					var sigmessage = serverMessages.pop();
+					if (!Crossbear.verifySHA256withRSA(data.subarray(0, sigmessage.getOffset()), self.cbFrontend.ServerRSAKeyPair, sigmessage.getSignature())) {
+						cbFrontend.displayTechnicalFailure("CBHTLProcessor:parseHuntingTaskList: Verification of HTL failed.", true);
+						return;
+					}
 					
-					// Read the messages and store their content at the appropriate places
+					// Decrypt and verify the per-client part (servers that don't support "signature=split" send the PublicIP and the server time in front of the signature and nothing after it)
+					if (signatureEnd < data.length) {
+						var perClientMessages = self.decryptPerClientPart(data.subarray(signatureEnd), this.cbCallBackParams.nonce);
+						if (perClientMessages == null) {
+							return;
+						}
+						
+						// Hunting tasks that are not covered by the signature are rejected
+						for(var i = 0;i<perClientMessages.length;i++){
+							if(perClientMessages[i].messageType  == "CBMessageHuntingTask"){
+								cbFrontend.displayTechnicalFailure("CBHTLProcessor:parseHuntingTaskList: received a Hunting Task that is not covered by the signature.", true);
+								return;
+							}
+							serverMessages.push(perClientMessages[i]);
+						}
+					}
+					
+					// Read the (verified) messages and store their content at the appropriate places
 					for(var i = 0;i<serverMessages.length;i++){
 						
 						// Hunting tasks will be stored locally (will be checked later and depending on that forwarded to the CBHunter(WorkerThread) )
@@ -105,18 +201,6 @@ Crossbear.CBHTLProcessor = function (cbFrontend) {
 							}
 							cbFrontend.cbhunter.addPublicIP(serverMessages[i]);
 							
-						} else if (serverMessages[i].messageType == "CBMessageSignature") {
-							var sigmessage = serverMessages[i];
-							// Unsplice signature message from output data
-							var data = new Uint8Array(output);
-							var firstslice = data.subarray(0, sigmessage.getOffset());
-							var secondslice = data.subarray(sigmessage.getOffset() + sigmessage.getMessageLength(), data.length);
-							var spliced = new Uint8Array(firstslice.length + secondslice.length);
-							spliced.set(firstslice);
-							spliced.set(secondslice, firstslice.length);
-							if (!Crossbear.verifySHA256withRSA(spliced, self.cbFrontend.ServerRSAKeyPair, serverMessages[i].getSignature())) {
-								cbFrontend.displayTechnicalFailure("CBHTLProcessor:parseHuntingTaskList: Verification of HTL failed.", true);
-							}
 						} else {
 							cbFrontend.displayTechnicalFailure("CBHTLProcessor:parseHuntingTaskList: received unknown message from server.", true);
 						}
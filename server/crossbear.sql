@@ -8,6 +8,15 @@
 --DROP ALL TABLES: SELECT 'DROP TABLE '||c.relname ||' CASCADE;' FROM pg_catalog.pg_class c JOIN pg_catalog.pg_roles r ON r.oid = c.relowner LEFT JOIN pg_catalog.pg_namespace n ON n.oid = c.relnamespace WHERE c.relkind IN ('r','') AND n.nspname NOT IN ('pg_catalog', 'pg_toast') AND pg_catalog.pg_table_is_visible(c.oid) ORDER BY 1;
  
 
+--Crossbear requires PostgreSQL 9.5 or newer (it stores its data using "INSERT ... ON CONFLICT").
+--UPGRADING AN EXISTING DATABASE (created with the previous version of this file):
+--  1. CREATE UNIQUE INDEX SCSHA256NoChain ON ServerCerts (SHA256DERHash) WHERE CertChainMD5 IS NULL;
+--  2. DELETE FROM HuntingTaskListCache WHERE Id <> 1;
+--  3. Create CertObservationSummary, LastCertObservations, UpdateCertObservationSummary, CertObservationSummaryTrigger and RebuildCertObservationSummary exactly as defined below
+--  4. SELECT RebuildCertObservationSummary();
+--  5. DELETE FROM CertVerifyResultCache; ALTER TABLE CertVerifyResultCache ADD COLUMN CreateHuntingTask BOOLEAN;
+--(The index can only be created if ServerCerts doesn't contain duplicate certificates without CertChainMD5. Remove them first in case there are any.)
+
 CREATE DATABASE crossbear;
 
 CREATE USER crossbear WITH PASSWORD '???';
@@ -15,11 +24,14 @@ GRANT ALL ON DATABASE crossbear TO crossbear;
 
 CREATE TABLE CertCache (HostPort VARCHAR(2048), Certificate BYTEA, ValidUntil TIMESTAMP, PRIMARY KEY (HostPort));
 
-CREATE TABLE CertVerifyResultCache (Hash CHAR(64), Bytes BYTEA, ValidUntil TIMESTAMP, PRIMARY KEY (Hash));
+--CertVerifyResultCache is keyed by the hash of the CertVerifyRequest without the client's IP (cf. CertVerifyRequest.getJudgmentHash). Bytes contains only the (unsigned) CertVerifyResult.
+CREATE TABLE CertVerifyResultCache (Hash CHAR(64), Bytes BYTEA, CreateHuntingTask BOOLEAN, ValidUntil TIMESTAMP, PRIMARY KEY (Hash));
 
 CREATE TABLE ServerCerts (Id BIGSERIAL, SHA256DERHash CHAR(64), SHA1DERHash CHAR(40), DERRaw BYTEA, MD5PEMHash CHAR(32), PEMRaw TEXT, CertChainMD5 TEXT, SHA256ChainHash CHAR(64), PRIMARY KEY (Id), UNIQUE(SHA256DERHash,CertChainMD5));
 CREATE INDEX SCMd5h ON ServerCerts (MD5PEMHash);
 CREATE INDEX SCSHA1h ON ServerCerts (SHA1DERHash);
+--UNIQUE(SHA256DERHash,CertChainMD5) doesn't prevent duplicates if CertChainMD5 is NULL:
+CREATE UNIQUE INDEX SCSHA256NoChain ON ServerCerts (SHA256DERHash) WHERE CertChainMD5 IS NULL;
 
 CREATE TABLE ChainCerts (Id BIGSERIAL, SHA256DERHash CHAR(64),  SHA1DERHash CHAR(40), DERRaw BYTEA, MD5PEMHash CHAR(32), PEMRaw TEXT, PRIMARY KEY (Id), UNIQUE(SHA256DERHash));
 CREATE INDEX CCMd5h ON ChainCerts (MD5PEMHash);
@@ -29,6 +41,71 @@ CREATE TABLE CertObservations (Id BIGSERIAL, CertID BIGINT REFERENCES ServerCert
 CREATE INDEX Cohash ON CertObservations (CertID);
 CREATE INDEX Cohost ON CertObservations (ServerHostPort);
 
+--Summary of the observations of each certificate for each server (maintained by the trigger below). PeriodBegin is the begin of the certificate's last continuous observation period (i.e. its first
+--observation after the last observation of a different certificate). Observations are assumed to be inserted in chronological order.
+CREATE TABLE CertObservationSummary (ServerHostPort VARCHAR(2048), SHA256DERHash CHAR(64), ObserverType VARCHAR(20), FirstObservation TIMESTAMP, LastObservation TIMESTAMP, PeriodBegin TIMESTAMP, NumOfObservations BIGINT, PRIMARY KEY (ServerHostPort, SHA256DERHash, ObserverType));
+
+--The certificate that has been observed last for each server (maintained by the trigger below). If it is not the certificate of a summary, LastObservation is the time of the last observation of a
+--different certificate for that summary. Its rows are locked by the trigger (until the end of the transaction): BulkIngest therefore inserts observations sorted by ServerHostPort.
+CREATE TABLE LastCertObservations (ServerHostPort VARCHAR(2048), ObserverType VARCHAR(20), LastSHA256DERHash CHAR(64), LastObservation TIMESTAMP, PRIMARY KEY (ServerHostPort, ObserverType));
+
+CREATE OR REPLACE FUNCTION UpdateCertObservationSummary() RETURNS TRIGGER AS $$
+DECLARE
+	CertHash CHAR(64);
+	PreviousHash CHAR(64);
+	PreviousObservation TIMESTAMP;
+BEGIN
+	SELECT SHA256DERHash INTO CertHash FROM ServerCerts WHERE Id = NEW.CertID;
+	IF CertHash IS NULL OR NEW.ServerHostPort IS NULL OR NEW.ObserverType IS NULL THEN
+		RETURN NULL;
+	END IF;
+
+	--Get the certificate that has been observed last for the server (locking its row serializes the updates for the same server) ...
+	INSERT INTO LastCertObservations (ServerHostPort, ObserverType) VALUES (NEW.ServerHostPort, NEW.ObserverType) ON CONFLICT DO NOTHING;
+	SELECT LastSHA256DERHash, LastObservation INTO PreviousHash, PreviousObservation FROM LastCertObservations WHERE ServerHostPort = NEW.ServerHostPort AND ObserverType = NEW.ObserverType FOR UPDATE;
+
+	--... replace it by the observed certificate ...
+	IF PreviousObservation IS NULL OR PreviousObservation <= NEW.TimeOfObservation THEN
+		UPDATE LastCertObservations SET LastSHA256DERHash = CertHash, LastObservation = NEW.TimeOfObservation WHERE ServerHostPort = NEW.ServerHostPort AND ObserverType = NEW.ObserverType;
+	END IF;
+
+	--... and update the summary of the observed certificate. A new observation period begins unless the certificate was also the one observed last.
+	INSERT INTO CertObservationSummary AS s (ServerHostPort, SHA256DERHash, ObserverType, FirstObservation, LastObservation, PeriodBegin, NumOfObservations)
+		VALUES (NEW.ServerHostPort, CertHash, NEW.ObserverType, NEW.TimeOfObservation, NEW.TimeOfObservation, NEW.TimeOfObservation, 1)
+		ON CONFLICT (ServerHostPort, SHA256DERHash, ObserverType) DO UPDATE SET
+			FirstObservation = LEAST(s.FirstObservation, EXCLUDED.FirstObservation),
+			LastObservation = GREATEST(s.LastObservation, EXCLUDED.LastObservation),
+			PeriodBegin = CASE WHEN PreviousHash IS DISTINCT FROM CertHash AND (PreviousObservation IS NULL OR PreviousObservation <= NEW.TimeOfObservation) THEN EXCLUDED.PeriodBegin ELSE s.PeriodBegin END,
+			NumOfObservations = s.NumOfObservations + 1;
+
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER CertObservationSummaryTrigger AFTER INSERT ON CertObservations FOR EACH ROW EXECUTE PROCEDURE UpdateCertObservationSummary();
+
+--Rebuild CertObservationSummary and LastCertObservations from the content of CertObservations (required once when upgrading an existing database: SELECT RebuildCertObservationSummary();)
+CREATE OR REPLACE FUNCTION RebuildCertObservationSummary() RETURNS VOID AS $$
+BEGIN
+	LOCK TABLE CertObservations IN SHARE MODE;
+	DELETE FROM CertObservationSummary;
+	DELETE FROM LastCertObservations;
+
+	CREATE TEMPORARY TABLE Obs ON COMMIT DROP AS SELECT co.ServerHostPort, sc.SHA256DERHash, co.ObserverType, co.TimeOfObservation FROM CertObservations co JOIN ServerCerts sc ON sc.Id = co.CertID WHERE co.ServerHostPort IS NOT NULL AND co.ObserverType IS NOT NULL;
+	CREATE INDEX ObsHost ON Obs (ServerHostPort, ObserverType, TimeOfObservation);
+	ANALYZE Obs;
+
+	INSERT INTO LastCertObservations (ServerHostPort, ObserverType, LastSHA256DERHash, LastObservation)
+		SELECT DISTINCT ON (ServerHostPort, ObserverType) ServerHostPort, ObserverType, SHA256DERHash, TimeOfObservation FROM Obs ORDER BY ServerHostPort, ObserverType, TimeOfObservation DESC;
+
+	INSERT INTO CertObservationSummary (ServerHostPort, SHA256DERHash, ObserverType, FirstObservation, LastObservation, NumOfObservations)
+		SELECT ServerHostPort, SHA256DERHash, ObserverType, MIN(TimeOfObservation), MAX(TimeOfObservation), COUNT(*) FROM Obs GROUP BY ServerHostPort, SHA256DERHash, ObserverType;
+
+	UPDATE CertObservationSummary s SET PeriodBegin = (SELECT MIN(o.TimeOfObservation) FROM Obs o WHERE o.ServerHostPort = s.ServerHostPort AND o.ObserverType = s.ObserverType AND o.SHA256DERHash = s.SHA256DERHash AND o.TimeOfObservation > coalesce(
+		(SELECT MAX(p.TimeOfObservation) FROM Obs p WHERE p.ServerHostPort = s.ServerHostPort AND p.ObserverType = s.ObserverType AND p.SHA256DERHash <> s.SHA256DERHash AND p.TimeOfObservation < s.LastObservation), TIMESTAMP '1900-01-01 00:00'));
+END;
+$$ LANGUAGE plpgsql;
+
 CREATE TABLE HuntingTasks (Id SERIAL, TargetHostName VARCHAR(2042), TargetIP VARCHAR(40), TargetPort SMALLINT, TimeOfCreation TIMESTAMP, Active BOOLEAN, PRIMARY KEY (Id));
 
 CREATE TABLE HuntingTaskResults (Id BIGSERIAL, HuntingTaskID INTEGER  REFERENCES HuntingTasks, Trace TEXT, Observation BIGINT REFERENCES CertObservations, PRIMARY KEY (Id));
@@ -80,7 +80,7 @@
 		
 		
 		// Open a database connection
-		db = new Database(properties.getProperty("database.url"),properties.getProperty("database.user"),properties.getProperty("database.password"));
+		db = new Database(properties);
 		
 		// Decrypt the AES-key, generate a PublicIPNotification-message and encrypt it with the AES-key
 		byte[] reply = pipnp.generateEncryptedPublicIPNotif(pipnr,db);
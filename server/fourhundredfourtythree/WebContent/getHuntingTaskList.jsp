@@ -24,6 +24,8 @@
 	/*
 	* getHuntingTaskList.jsp doesn't take any input parameters and returns a list of all currently active Hunting Tasks
 	* (Sequence of HuntingTask-messages) combined with a PublicIPNotification-message and a CurrentServerTime-message
+	*
+	* In "signature=split"-mode it expects a PublicIPNotifRequest-message as POST data and a hex-encoded "nonce"-parameter
 	*/
 
 	/*
@@ -41,6 +43,12 @@
 	// Properties and settings of the Crossbear server
 	private Properties properties;
 
+	// The SigningService holding the server's private key (loaded once in jspInit)
+	private SigningService signer;
+
+	// Protects the per-client part of replies in "signature=split"-mode (uses the server's private key to decrypt the keys of the clients)
+	private PerClientReplyProtector protector;
+
 	//Constructor-like functionality: Only performed the first time the page is loaded
 	public void jspInit() {
 		ServletContext sc = getServletContext();
@@ -58,7 +66,10 @@
 		
 			// Load the porperties and settings from the config file
 			properties = new Properties(contextPath.concat("../../crossbear.properties"));
-	
+
+			// Load the server's private key that is used to sign the replies
+			signer = SigningService.getInstance(properties);
+			protector = new PerClientReplyProtector(signer);
 
 		} catch (Exception e) {
 
@@ -72,7 +83,7 @@
 		// Crossbear works on binary messages. To send these from the server to the client they need to be written into response.getOutputStream()
 		OutputStream outStream = response.getOutputStream();
 
-		db = new Database(properties.getProperty("database.url"),properties.getProperty("database.user"),properties.getProperty("database.password"));
+		db = new Database(properties);
 
 		/*
 		* The hunting task list consists of three parts:
@@ -84,18 +95,39 @@
 		*/
 		InetAddress remoteIP = InetAddress.getByName(request.getRemoteAddr());
 		MessageList reply = MessageList.getCurrentHuntingTaskList(remoteIP, cacheValidity, db);
-		reply.add(new PublicIPNotification(remoteIP, db));
-		reply.add(new CurrentServerTime());
-
-
-		SignatureMessage sigm = new SignatureMessage(reply.getBytes(),
-							     properties.getProperty("pkey.keyStoreFile"),
-							     properties.getProperty("pkey.keyStorePassword"),
-							     properties.getProperty("pkey.alias"),
-							     properties.getProperty("pkey.password"));
-		reply.add(sigm);
-		//Send the Hunting Task List to the client
-		outStream.write(reply.getBytes());
+
+		if("split".equals(request.getParameter("signature"))){
+			/*
+			* Clients that request "signature=split" get a reply in which only the actual hunting task list is signed. Its signature
+			* is calculated once per refresh of the HuntingTaskListCache and reused for all requests in between. The signature message
+			* directly follows the hunting task list. The per-client part comes afterwards. It is not covered by the signature but
+			* encrypted and integrity protected with the AES key that the client POSTed (RSA-encrypted, in form of a
+			* PublicIPNotifRequest-message). The nonce that the client sent along with the request is included in the protected part
+			* so old replies can't be replayed (cf. PerClientReplyProtector).
+			*/
+			byte[] rsaEncryptedKey = PerClientReplyProtector.readEncryptedKey(request.getInputStream());
+			byte[] nonce = Message.hexStringToByteArray(request.getParameter("nonce"));
+
+			byte[] htlBytes = reply.getBytes();
+
+			MessageList perClient = new MessageList();
+			perClient.add(new PublicIPNotification(remoteIP, db));
+			perClient.add(new CurrentServerTime());
+
+			//Send the Hunting Task List, its signature and the protected per-client part to the client
+			outStream.write(htlBytes);
+			outStream.write(MessageList.getHTLSignature(htlBytes, signer).getBytes());
+			outStream.write(protector.protect(rsaEncryptedKey, nonce, perClient.getBytes()));
+
+		} else {
+			reply.add(new PublicIPNotification(remoteIP, db));
+			reply.add(new CurrentServerTime());
+
+			SignatureMessage sigm = new SignatureMessage(reply.getBytes(), signer);
+			reply.add(sigm);
+			//Send the Hunting Task List to the client
+			outStream.write(reply.getBytes());
+		}
 		
 		// Finally: Sent the reply to the client
 		response.flushBuffer();
@@ -65,10 +65,10 @@
 			* certificates need to be put in the database also. This requires a database object.
 			*
 			* Since Crossbear uses Transactions there is no such thing as a global Database object. That again is
-			* the reason why a new database connection is created to insert the certificates and closed afterwards.
+			* the reason why a database connection is borrowed from the pool to insert the certificates and returned afterwards.
 			*/
-			Database db = new Database(properties.getProperty("database.url"),properties.getProperty("database.user"),properties.getProperty("database.password"));
-			cm = new CertificateManager(db, 0, properties.getProperty("keystore.password"));
+			Database db = new Database(properties);
+			cm = new CertificateManager(db, 0, properties.getProperty("keystore.password"), properties.getProperty("logging.dir"));
 			db.close();
 
 
@@ -85,7 +85,7 @@
 	try {
 
 		//Processing the Hunting Task Result is quite lenghty. Therefore i moved this functionality to the "Hunting Task Result Processor " (HTRProcessor)
-		db = new Database(properties.getProperty("database.url"),properties.getProperty("database.user"),properties.getProperty("database.password"));
+		db = new Database(properties);
 		HTRProcessor htrp = new HTRProcessor(request.getInputStream(), cm, db);
 		
 
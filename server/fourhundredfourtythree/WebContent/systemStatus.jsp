@@ -57,7 +57,7 @@ Database db = null;
 
 try {
 	// open a database connection
-	db = new Database(properties.getProperty("database.url"),properties.getProperty("database.user"),properties.getProperty("database.password"));
+	db = new Database(properties);
 	// get the status of the crossbear system and display its HTML encoded representation
 	out.println(SystemStatus.getStatusHTML(db));
 
@@ -24,9 +24,9 @@
 	%><%!
 	
 	/*
-	* verifyCert.jsp takes as input a CertVerifyRequest-message. If the request is valid a check is performed if it has been
-	* issued for the first time. If that is the case it is processed and the result is then stored in a cache. If not the 
-	* reply is read from cache and sent to the client. Processing roughly consists of the following steps:
+	* verifyCert.jsp takes as input a CertVerifyRequest-message. If the request is valid a check is performed if the same certificate
+	* has recently been verified for the same host (by any client). If that is not the case it is processed and the result is then stored in a cache. If it is the 
+	* result is read from cache. In both cases the reply is completed by the client-specific messages, signed and sent to the client. Processing roughly consists of the following steps:
 	* - store the certificate's observation
 	* - query the server for it's certificate chain and store it's observation
 	* - compare the two certificates
@@ -45,7 +45,7 @@
 	/*
 	* The Crossbear server uses several caches to speed up requests processing:
 	* - CertificateCache (contains the certificates that were recently observed by the server)
-	* - CertVerifyResultCache (contains the results that were generated by this page in case they are requested multiple times)
+	* - CertVerifyResultCache (contains the results that were generated by this page in case the same certificate is verified for the same host again)
 	* - HuntingTaskListCache (contains the current list of hunting tasks)
 	*
 	* cacheValidity is the time in milliseconds that an entry stays valid in one of those caches
@@ -56,6 +56,16 @@
 	
 	// Properties and settings of the Crossbear server
 	private Properties properties;
+
+	// The SigningService holding the server's private key (loaded once in jspInit)
+	private SigningService signer;
+	
+	/*
+	* The time in milliseconds within which a request should be answered (verifyCert.deadlineMillis, default 4000; 0 disables the deadline).
+	* If the server's certificate is not known by then, a partial CertVerifyResult is sent and the complete one is calculated in the background (cf. CVRProcessor.process).
+	* The database statements of the request get the remaining time as query timeout.
+	*/
+	private int deadlineMillis = 4000;
 	
 	/*
 	* Old entries schould be removed from the caches. This is done once every thousand page loads.
@@ -91,11 +101,23 @@
 			* certificates need to be put in the database also. This requires a database object.
 			*
 			* Since Crossbear uses Transactions there is no such thing as a global Database object. That again is
-			* the reason why a new database connection is created to insert the certificates and closed afterwards.
+			* the reason why a database connection is borrowed from the pool to insert the certificates and returned afterwards.
+			*
+			* The reply to a CertVerifyRequest doesn't depend on the observations that are made while processing it.
+			* Therefore they are stored in the background (unless this is disabled in the config file).
+			*
+			* The CertificateManager is shared with verifyCertBatch.jsp so all of this is done only once (cf. CertificateManager.getSharedInstance).
 			*/
-			Database db = new Database(properties.getProperty("database.url"),properties.getProperty("database.user"),properties.getProperty("database.password"));
-			cm = new CertificateManager(db,cacheValidity, properties.getProperty("keystore.password"));
-			db.close();
+			cm = CertificateManager.getSharedInstance(properties, cacheValidity);
+
+			// Load the server's private key that is used to sign the replies
+			signer = SigningService.getInstance(properties);
+			
+			deadlineMillis = properties.getIntProperty("verifyCert.deadlineMillis", deadlineMillis);
+			
+			// Start the fallback variants of the TLS-handshake if the preferred one didn't deliver the server's certificate within this time (cf. TLSChainFetcher.getCertChain)
+			TLSChainFetcher.setHedgeDelayMillis(properties.getIntProperty("certFetch.hedgeDelayMillis", 500));
+			TLSChainFetcher.setLogDir(properties.getProperty("logging.dir"));
 
 		} catch (Exception e) {
 
@@ -104,9 +126,22 @@
 		}
 
 	}
+	
+	// Destructor-like functionality: Performed when the page is unloaded
+	public void jspDestroy() {
+		
+		// Stop using the shared CertificateManager (the last page that does so makes sure that all observations that have not yet been stored are written to the database)
+		if(cm != null){
+			CertificateManager.releaseSharedInstance();
+			cm = null;
+		}
+	}
 	%><%
 	Database db = null;
 	
+	// The deadline starts as soon as the request arrives
+	Deadline deadline = (deadlineMillis > 0) ? new Deadline(deadlineMillis) : null;
+	
 	try {
 		// Crossbear works on binary messages. To send these from the server to the client they need to be written into response.getOutputStream()
 		OutputStream outStream = response.getOutputStream();
@@ -115,35 +150,19 @@
 		CertVerifyRequest cvr = CertVerifyRequest.readFromStream(request.getInputStream(), request.getRemoteAddr(), request.getLocalAddr());
 
 		//If the decoding succedded open a database connection and create a CVRProcessor
-		db = new Database(properties.getProperty("database.url"),properties.getProperty("database.user"),properties.getProperty("database.password"));
-		CVRProcessor cvrp = new CVRProcessor(cvr, cm, db);
+		db = new Database(properties);
+		db.setDeadline(deadline);
+		CVRProcessor cvrp = new CVRProcessor(cvr, cm, db, properties, deadline);
 		
 		/*
-		* Under certain circumstances the Crossbear Firefox Plug-in sends duplicate requests. 
+		* Many clients verify the same certificates (and the Crossbear Firefox Plug-in occasionally sends duplicate requests). 
 		* Processing these multiple times has two disadvantages:
 		* 1) Higher server load
 		* 2) Duplicates in Certobservations table.
-		* Since it is beneficial to avoid both all generated CertVerifyResults are cached and resent if requested more than once.
-		*
-		* First: try to get the CertVerifyResult from cache
+		* To avoid both, the CertVerifyResults are cached independently of the client and the observations of duplicate requests are not stored again.
+		* The client-specific messages and the signature are added to each reply (cf. CVRProcessor.process(long)).
 		*/
-		byte[] reply = cvrp.getCachedCertVerifyResult();
-		
-		if(reply == null){
-			// Can we also cache the signature of the Message? Should be okay, since the message doesn't change much.
-			MessageList ml = cvrp.process();
-			SignatureMessage sigm = new SignatureMessage(ml.getBytes(),
-								     properties.getProperty("pkey.keyStoreFile"),
-								     properties.getProperty("pkey.keyStorePassword"),
-								     properties.getProperty("pkey.alias"),
-								     properties.getProperty("pkey.password"));
-			ml.add(sigm);
-			// If that failed calculate the reply ...
-			reply = ml.getBytes();
-			
-			//... and store it in the database
-			cvrp.storeCertVerifyResultInCache(reply,cacheValidity);
-		}
+		byte[] reply = cvrp.getSignedReply(signer, cacheValidity);
 
 		// Send the reply to the client
 		outStream.write(reply);
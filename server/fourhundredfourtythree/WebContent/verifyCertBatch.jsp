@@ -0,0 +1,131 @@
+<%@ page trimDirectiveWhitespaces="true" %>
+<%--
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+
+    Original authors: Thomas Riedmaier, Ralph Holz (TU Muenchen, Germany)
+*/
+--%><%@ page import="crossbear.*,org.bouncycastle.jce.provider.BouncyCastleProvider,java.security.*,java.io.OutputStream,java.io.File"
+	 language="java"
+	contentType="application/octet-stream"
+	%><%!
+	
+	/*
+	* verifyCertBatch.jsp takes as input a Sequence of CertVerifyRequest-messages (e.g. sent by bulk scanners that verify the certificates
+	* of many URLs at once). All of them are processed in parallel just like verifyCert.jsp processes a single one. The replies are sent to the client as a
+	* single MessageList in the order of the requests. It is signed by a single SignatureMessage at its end.
+	*/
+	
+	/* 
+	* The CertificateManager loads all certificates from the local keystore in order to be able to calculate as many
+	* certificate chains as possible. Doing so takes some time and is therefore only done once in jspInit. To use the loaded
+	* keys every time verifyCertBatch.jsp is loaded a global CertificateManager object is created.
+	*/
+	private CertificateManager cm;
+
+	// The time in milliseconds that an entry stays valid in the CertificateCache or the CertVerifyResultCache (cf. verifyCert.jsp)
+	private int cacheValidity = 5 * 60 * 1000;
+	
+	// Properties and settings of the Crossbear server
+	private Properties properties;
+
+	// The SigningService holding the server's private key (loaded once in jspInit)
+	private SigningService signer;
+	
+	/*
+	* The time in milliseconds within which a batch should be answered (verifyCertBatch.deadlineMillis, default 10000; 0 disables the deadline).
+	* Requests whose server's certificate is not known by then are answered with a partial CertVerifyResult (cf. CVRProcessor.process).
+	*/
+	private int deadlineMillis = 10000;
+
+	// Constructor-like functionality: Only performed the first time the page is loaded
+	public void jspInit() {
+
+		try {
+			ServletContext sc = getServletContext();
+			String contextPath = sc.getRealPath(File.separator);
+
+
+			/*
+			* Adding the bouncy castle Security Provider is required for the use of 
+			* - "SHA256"-HMAC
+			* - "AES/CBC/PKCS7Padding"-Symmetric Encryption
+			* - "RSA/None/OAEPWithSHA1AndMGF1Padding"-Asymmetric Encryption
+			* all of these are used in Crossbear.
+			*/
+			Security.addProvider(new BouncyCastleProvider());
+					
+			// Load the porperties and settings from the config file
+			properties = new Properties(contextPath.concat("../../crossbear.properties"));
+
+			// Use the same CertificateManager as verifyCert.jsp (the local keystore is loaded only once and there is only one ObservationWriter)
+			cm = CertificateManager.getSharedInstance(properties, cacheValidity);
+
+			// Load the server's private key that is used to sign the replies
+			signer = SigningService.getInstance(properties);
+			
+			deadlineMillis = properties.getIntProperty("verifyCertBatch.deadlineMillis", deadlineMillis);
+			
+			// Start the fallback variants of the TLS-handshake if the preferred one didn't deliver the server's certificate within this time (cf. TLSChainFetcher.getCertChain)
+			TLSChainFetcher.setHedgeDelayMillis(properties.getIntProperty("certFetch.hedgeDelayMillis", 500));
+			TLSChainFetcher.setLogDir(properties.getProperty("logging.dir"));
+
+		} catch (Exception e) {
+
+			Logger.dumpExceptionToFile("/tmp/fourhundredfourtythree.verifyCertBatch.init.error", e);
+
+		}
+
+	}
+	
+	// Destructor-like functionality: Performed when the page is unloaded
+	public void jspDestroy() {
+		
+		// Stop using the shared CertificateManager (the last page that does so makes sure that all observations that have not yet been stored are written to the database)
+		if(cm != null){
+			CertificateManager.releaseSharedInstance();
+			cm = null;
+		}
+	}
+	%><%
+	// The deadline starts as soon as the request arrives
+	Deadline deadline = (deadlineMillis > 0) ? new Deadline(deadlineMillis) : null;
+	
+	try {
+		// Crossbear works on binary messages. To send these from the server to the client they need to be written into response.getOutputStream()
+		OutputStream outStream = response.getOutputStream();
+		
+		// First of all try to decode the CertVerifyRequests sent by the client (each of them gets a database connection of its own while it is processed)
+		CVRBatchProcessor cvrbp = new CVRBatchProcessor(request.getInputStream(), request.getRemoteAddr(), request.getLocalAddr(), cm, properties, deadline);
+		
+		// Process them, sign the replies and send them to the client
+		outStream.write(cvrbp.getSignedReply(signer, cacheValidity));
+		
+		// Finally: Sent the reply to the client (flush the out buffer)
+		response.flushBuffer();
+
+
+	} catch (Exception e) {
+		/*
+		* None of the calls above catches exceptions. Whenever something went wrong (e.g. with decoding the client's request)
+		* A exception is thrown and cought here. Since it's not very smart to tell attackers what went wrong a dummy reply is sent to them.
+		*/
+
+		// For debugging reasons: Log what went wrong
+		Logger.dumpExceptionToFile(properties.getProperty("logging.dir")+"/fourhundredfourtythree.verifyCertBatch.processing.error", e);
+
+	}
+%>
\ No newline at end of file
@@ -0,0 +1,183 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package crossbear;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A BoundedCache is a thread-safe in-memory cache with
+ * - an upper bound of entries (if it is full, the least recently used entry is evicted)
+ * - a time-to-live for each entry (expired entries are never returned)
+ * - counters for hits, misses, evictions and expirations
+ *
+ * It is used to keep data that would otherwise be read from one of the cache tables of the Crossbear database in the memory of the server.
+ *
+ * @author Thomas Riedmaier
+ *
+ * @param <K> The type of the KEYs of the cache
+ * @param <V> The type of the values of the cache
+ */
+public class BoundedCache<K, V> {
+
+	/**
+	 * A value of the cache together with the time at which it expires
+	 */
+	private static class CacheEntry<V> {
+		private final V value;
+		private final long validUntil;
+
+		private CacheEntry(V value, long validUntil) {
+			this.value = value;
+			this.validUntil = validUntil;
+		}
+	}
+
+	// The name of the cache (used for status reports)
+	private final String name;
+
+	// The cached entries in least-recently-used order
+	private final LinkedHashMap<K, CacheEntry<V>> entries;
+
+	// Statistics
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	private long expirations = 0;
+
+	/**
+	 * Create a new BoundedCache
+	 *
+	 * @param name The name of the cache (used for status reports)
+	 * @param maxSize The maximal number of entries
+	 */
+	public BoundedCache(String name, final int maxSize) {
+		this.name = name;
+		this.entries = new LinkedHashMap<K, CacheEntry<V>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, CacheEntry<V>> eldest) {
+				if (size() <= maxSize) {
+					return false;
+				}
+
+				evictions++;
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Get a value from the cache
+	 *
+	 * @param key The KEY of the value
+	 * @return The value if there is an entry for key that has not yet expired else null
+	 */
+	public synchronized V get(K key) {
+
+		CacheEntry<V> entry = entries.get(key);
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+
+		// Expired entries are removed when they are accessed
+		if (entry.validUntil < System.currentTimeMillis()) {
+			entries.remove(key);
+			expirations++;
+			misses++;
+			return null;
+		}
+
+		hits++;
+		return entry.value;
+	}
+
+	/**
+	 * Add a value to the cache. If there already is an entry for key it is replaced.
+	 *
+	 * @param key The KEY of the value
+	 * @param value The value to add
+	 * @param validity The time in milliseconds that the entry should stay valid
+	 */
+	public synchronized void put(K key, V value, long validity) {
+		entries.put(key, new CacheEntry<V>(value, System.currentTimeMillis() + validity));
+	}
+
+	/**
+	 * Remove the entry for a KEY from the cache (if there is one)
+	 *
+	 * @param key The KEY of the entry to remove
+	 */
+	public synchronized void remove(K key) {
+		entries.remove(key);
+	}
+
+	/**
+	 * Remove all entries from the cache
+	 */
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * @return The number of entries in the cache (including expired ones that have not yet been accessed)
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return The number of get-calls that returned a value
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return The number of get-calls that returned null
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return The number of entries that have been removed because the cache was full
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * @return The number of entries that have been removed because they expired
+	 */
+	public synchronized long getExpirations() {
+		return expirations;
+	}
+
+	/**
+	 * Get the current status of the cache
+	 *
+	 * @return A status text containing the size of the cache and its statistics
+	 */
+	public synchronized String getStatus() {
+		return name + ": " + entries.size() + " entries, " + hits + " hits, " + misses + " misses, " + evictions + " evictions, " + expirations + " expirations";
+	}
+
+}
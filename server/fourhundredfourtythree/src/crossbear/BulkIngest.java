@@ -0,0 +1,370 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package crossbear;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.InetAddress;
+import java.security.InvalidParameterException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Vector;
+
+import crossbear.messaging.Message;
+
+/**
+ * BulkIngest inserts large numbers of rows into the CertObservations- and the HuntingTaskResults-table. These tables grow with every request and are by far the largest ones of the Crossbear
+ * database.
+ *
+ * If the database connection supports it, the rows are streamed to the database using PostgreSQL's "COPY ... FROM STDIN"-command in text format. Since COPY does not return generated keys, the IDs
+ * of the new rows are allocated from the table's sequence beforehand (one query for all of them). If COPY is not available or if there are only a few rows, multi-row INSERT-statements are used
+ * instead (cf. Database.executeBatchInsert). These are split into chunks so that the number of parameters per statement stays bounded.
+ *
+ * Please note: COPY is executed as a single statement. If any of the rows is invalid (e.g. because it references a certificate that doesn't exist) none of them is inserted.
+ *
+ * @author Thomas Riedmaier
+ *
+ */
+public class BulkIngest {
+
+	// The minimal number of rows for which COPY is used (for fewer rows the additional round trip for allocating the IDs is not worth it)
+	private static final int copyThreshold = 50;
+
+	// The maximal number of rows per multi-row INSERT-statement
+	private static final int maxRowsPerInsert = 500;
+
+	/**
+	 * A Reader that converts rows into PostgreSQL's COPY text format on the fly. This way the rows don't have to be converted into one big String before they are sent to the database.
+	 */
+	private static class CopyTextReader extends Reader {
+
+		// The rows that still need to be converted
+		private final Iterator<Object[]> rows;
+
+		// The current row in text format and the number of its characters that have already been read
+		private String currentLine = "";
+		private int currentPos = 0;
+
+		/**
+		 * Create a new CopyTextReader
+		 *
+		 * @param rows The rows to convert
+		 */
+		private CopyTextReader(List<Object[]> rows) {
+			this.rows = rows.iterator();
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.io.Reader#read(char[], int, int)
+		 */
+		@Override
+		public int read(char[] cbuf, int off, int len) throws IOException {
+
+			// If the current line has been read completely: Convert the next row
+			if (currentPos == currentLine.length()) {
+				if (!rows.hasNext()) {
+					return -1;
+				}
+
+				try {
+					currentLine = toCopyText(rows.next());
+				} catch (InvalidParameterException e) {
+					throw new IOException(e);
+				}
+				currentPos = 0;
+			}
+
+			// Return as many characters of the current line as possible
+			int num = Math.min(len, currentLine.length() - currentPos);
+			currentLine.getChars(currentPos, currentPos + num, cbuf, off);
+			currentPos += num;
+
+			return num;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.io.Reader#close()
+		 */
+		@Override
+		public void close() {
+		}
+	}
+
+	/**
+	 * Insert rows into the CertObservations-table.
+	 *
+	 * @param observations The observations to insert. Each of them is given as the parameters of CertificateManager.rememberCertObservation in the same order (i.e. certID, serverHostPort,
+	 *            serverIP, serverTimeOfExecution, observerType, observerIP)
+	 * @param db The database connection to use
+	 * @return The values of the Id-column of the new rows (in the same order as "observations")
+	 * @throws InvalidParameterException
+	 * @throws SQLException
+	 */
+	public static Long[] insertCertObservations(final Vector<Object[]> observations, Database db) throws InvalidParameterException, SQLException {
+
+		/*
+		 * The trigger that maintains the CertObservationSummary-table locks the LastCertObservations-row of each observation's server and observer type until the transaction ends (cf. crossbear.sql).
+		 * Inserting the observations sorted by these columns makes all transactions take these locks in the same order so they can't deadlock each other.
+		 */
+		Integer[] order = new Integer[observations.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				int re = compareNullable((String) observations.get(a)[1], (String) observations.get(b)[1]);
+				return (re != 0) ? re : compareNullable((String) observations.get(a)[4], (String) observations.get(b)[4]);
+			}
+		});
+
+		Vector<Object[]> sortedObservations = new Vector<Object[]>(observations.size());
+		for (int i = 0; i < order.length; i++) {
+			sortedObservations.add(observations.get(order[i]));
+		}
+
+		// Insert them and return the IDs in the original order
+		Long[] sortedIDs = insert("CertObservations", new String[] { "CertID", "ServerHostPort", "ServerIP", "TimeOfObservation", "ObserverType", "ObserverIP" }, sortedObservations, db);
+		Long[] re = new Long[sortedIDs.length];
+		for (int i = 0; i < order.length; i++) {
+			re[order[i]] = sortedIDs[i];
+		}
+		return re;
+	}
+
+	/**
+	 * Compare two Strings that might be null (null is smaller than any other String)
+	 *
+	 * @param a The first String
+	 * @param b The second String
+	 * @return A negative integer, zero, or a positive integer as a is less than, equal to, or greater than b
+	 */
+	private static int compareNullable(String a, String b) {
+		if (a == null || b == null) {
+			return (a == null) ? ((b == null) ? 0 : -1) : 1;
+		}
+		return a.compareTo(b);
+	}
+
+	/**
+	 * Insert rows into the HuntingTaskResults-table.
+	 *
+	 * @param results The results to insert. Each of them is given as the parameters of CertificateManager.storeHuntingTaskResult in the same order (i.e. taskID, trace, observID)
+	 * @param db The database connection to use
+	 * @return The values of the Id-column of the new rows (in the same order as "results")
+	 * @throws InvalidParameterException
+	 * @throws SQLException
+	 */
+	public static Long[] insertHuntingTaskResults(Vector<Object[]> results, Database db) throws InvalidParameterException, SQLException {
+		return insert("HuntingTaskResults", new String[] { "HuntingTaskID", "Trace", "Observation" }, results, db);
+	}
+
+	/**
+	 * Insert rows into a table whose Id-column is a SERIAL or BIGSERIAL. Depending on the number of rows and on the database connection either COPY or multi-row INSERT-statements are used.
+	 *
+	 * @param table The name of the table
+	 * @param columns The names of the columns to insert (without the Id-column)
+	 * @param rows The values for each row in the order of "columns"
+	 * @param db The database connection to use
+	 * @return The values of the Id-column of the new rows (in the same order as "rows")
+	 * @throws InvalidParameterException
+	 * @throws SQLException
+	 */
+	private static Long[] insert(String table, String[] columns, Vector<Object[]> rows, Database db) throws InvalidParameterException, SQLException {
+
+		if (rows.size() >= copyThreshold && db.isCopySupported()) {
+			return copy(table, columns, rows, db);
+		}
+
+		return insertBatched(table, columns, rows, db);
+	}
+
+	/**
+	 * Insert rows into a table using PostgreSQL's "COPY ... FROM STDIN"-command. The IDs of the new rows are taken from the sequence of the table's Id-column before the COPY is executed.
+	 *
+	 * @param table The name of the table
+	 * @param columns The names of the columns to insert (without the Id-column)
+	 * @param rows The values for each row in the order of "columns"
+	 * @param db The database connection to use
+	 * @return The values of the Id-column of the new rows (in the same order as "rows")
+	 * @throws InvalidParameterException
+	 * @throws SQLException
+	 */
+	private static Long[] copy(String table, String[] columns, Vector<Object[]> rows, Database db) throws InvalidParameterException, SQLException {
+
+		// Allocate one ID for each row
+		Object[] params = { table.toLowerCase(), rows.size() };
+		Vector<Long> ids = db.executeQuery("SELECT nextval(pg_get_serial_sequence(?, 'id')) AS Id FROM generate_series(1, ?)", params, new Database.RowMapper<Long>() {
+			@Override
+			public Long mapRow(ResultSet rs) throws SQLException {
+				return rs.getLong("Id");
+			}
+		});
+
+		// Prepend the IDs to the rows
+		Vector<Object[]> rowsWithID = new Vector<Object[]>(rows.size());
+		for (int i = 0; i < rows.size(); i++) {
+			Object[] row = new Object[columns.length + 1];
+			row[0] = ids.get(i);
+			System.arraycopy(rows.get(i), 0, row, 1, columns.length);
+			rowsWithID.add(row);
+		}
+
+		// Stream the rows to the database
+		try {
+			db.copyIn("COPY " + table + " (Id, " + join(columns) + ") FROM STDIN", new CopyTextReader(rowsWithID));
+		} catch (IOException e) {
+			throw new SQLException("Streaming the rows to the database failed", e);
+		}
+
+		return ids.toArray(new Long[ids.size()]);
+	}
+
+	/**
+	 * Insert rows into a table using multi-row INSERT-statements (each of them containing at most maxRowsPerInsert rows)
+	 *
+	 * @param table The name of the table
+	 * @param columns The names of the columns to insert (without the Id-column)
+	 * @param rows The values for each row in the order of "columns"
+	 * @param db The database connection to use
+	 * @return The values of the Id-column of the new rows (in the same order as "rows")
+	 * @throws InvalidParameterException
+	 * @throws SQLException
+	 */
+	private static Long[] insertBatched(String table, String[] columns, Vector<Object[]> rows, Database db) throws InvalidParameterException, SQLException {
+
+		// Create the statement for a single row
+		StringBuilder sqlstmt = new StringBuilder("INSERT INTO ").append(table).append(" (").append(join(columns)).append(") VALUES (");
+		for (int i = 0; i < columns.length; i++) {
+			sqlstmt.append(i == 0 ? "?" : ",?");
+		}
+		sqlstmt.append(")");
+
+		// Insert the rows chunk by chunk
+		Long[] re = new Long[rows.size()];
+		for (int start = 0; start < rows.size(); start += maxRowsPerInsert) {
+			int end = Math.min(start + maxRowsPerInsert, rows.size());
+
+			String[] keys = db.executeBatchInsert(sqlstmt.toString(), new Vector<Object[]>(rows.subList(start, end)));
+			for (int i = 0; i < keys.length; i++) {
+				re[start + i] = Long.valueOf(keys[i]);
+			}
+		}
+
+		return re;
+	}
+
+	/**
+	 * Convert a row into a line of PostgreSQL's COPY text format (tab-separated columns, "\N" for NULL and backslash-escaping of special characters)
+	 *
+	 * @param row The values of the row
+	 * @return The row in COPY text format (including the terminating newline)
+	 * @throws InvalidParameterException
+	 */
+	private static String toCopyText(Object[] row) throws InvalidParameterException {
+
+		StringBuilder re = new StringBuilder();
+
+		for (int i = 0; i < row.length; i++) {
+			if (i > 0) {
+				re.append('\t');
+			}
+
+			Object value = row[i];
+			if (value == null) {
+				re.append("\\N");
+
+			} else if (value instanceof Boolean) {
+				re.append(((Boolean) value) ? 't' : 'f');
+
+			} else if (value instanceof Byte || value instanceof Integer || value instanceof Long) {
+				re.append(value.toString());
+
+			} else if (value instanceof byte[]) {
+				// bytea in hex format ("\x..."), the backslash itself needs to be escaped
+				re.append("\\\\x").append(Message.byteArrayToHexString((byte[]) value));
+
+			} else if (value instanceof String) {
+				appendEscaped(re, (String) value);
+
+			} else if (value instanceof Timestamp) {
+				re.append(value.toString());
+
+			} else if (value instanceof InetAddress) {
+				re.append(((InetAddress) value).getHostAddress());
+
+			} else {
+				throw new InvalidParameterException("Unsupported type: " + value.getClass().getName());
+			}
+		}
+
+		return re.append('\n').toString();
+	}
+
+	/**
+	 * Append a String to a StringBuilder after escaping all characters that have a special meaning in PostgreSQL's COPY text format
+	 *
+	 * @param sb The StringBuilder to append to
+	 * @param value The String to escape and append
+	 */
+	private static void appendEscaped(StringBuilder sb, String value) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			default:
+				sb.append(c);
+			}
+		}
+	}
+
+	/**
+	 * Join column names into a comma-separated list
+	 *
+	 * @param columns The column names
+	 * @return The comma-separated list
+	 */
+	private static String join(String[] columns) {
+		StringBuilder re = new StringBuilder();
+		for (int i = 0; i < columns.length; i++) {
+			re.append(i == 0 ? "" : ", ").append(columns[i]);
+		}
+		return re.toString();
+	}
+
+}
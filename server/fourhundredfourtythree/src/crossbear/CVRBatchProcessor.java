@@ -0,0 +1,253 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package crossbear;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.SignatureException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import crossbear.messaging.CertVerifyRequest;
+import crossbear.messaging.CertVerifyResult;
+import crossbear.messaging.Message;
+import crossbear.messaging.MessageList;
+import crossbear.messaging.MessageSerializationException;
+import crossbear.messaging.SignatureMessage;
+
+/**
+ * The CVRBatchProcessor takes as input a InputStream whose content is supposed to be an array of CertVerifyRequest-messages (as sent to verifyCertBatch.jsp by bulk scanners like the OONIBear
+ * Verifier or PyBear). All requests are processed in parallel by CVRProcessors and their replies are concatenated into a single MessageList which is covered by a single SignatureMessage. Compared to
+ * sending one request per certificate this saves a TLS handshake, a HTTP request, a database connection and a RSA-signature per certificate.
+ *
+ * The CertVerifyResults are taken from (and stored in) the CertVerifyResultCache like those of verifyCert.jsp, since they don't depend on the client.
+ *
+ * The replies are in the same order as the requests. The reply to each request consists of its CertVerifyResult and - if the result is worth creating a hunting task - the messages that follow it
+ * (cf. CVRProcessor.process). If a request could not be processed its CertVerifyResult contains a single "ERROR"-judgment so the replies and requests can still be matched.
+ *
+ * The requests are processed by threads of their own (verifyCertBatch.threads, default 8) rather than by the PipelineExecutor. Their CVRProcessors wait for stages that run on the
+ * PipelineExecutor, so running them there as well could make all of its threads wait for stages that are queued behind them.
+ *
+ * @author Thomas Riedmaier
+ *
+ */
+public class CVRBatchProcessor {
+
+	// The executor that processes the requests of all batches (created on first use)
+	private static ThreadPoolExecutor executor = null;
+
+	/**
+	 * Get the executor that processes the requests of all batches. It is created on the first call using the settings verifyCertBatch.threads and verifyCertBatch.queueSize. If it is saturated,
+	 * requests are processed by the thread that submits them.
+	 *
+	 * @param properties The Properties and settings of the Crossbear server
+	 * @return The executor
+	 */
+	private static synchronized ThreadPoolExecutor getExecutor(Properties properties) {
+		if (executor == null) {
+			final AtomicInteger threadCount = new AtomicInteger(0);
+			ThreadFactory threadFactory = new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "crossbear-batch-" + threadCount.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			};
+
+			int threads = properties.getIntProperty("verifyCertBatch.threads", 8);
+			executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(properties.getIntProperty("verifyCertBatch.queueSize", 256)),
+					threadFactory, new ThreadPoolExecutor.CallerRunsPolicy());
+			executor.allowCoreThreadTimeOut(true);
+		}
+		return executor;
+	}
+
+	/**
+	 * Get the current status of the executor that processes the requests of all batches
+	 *
+	 * @return A status text containing the number of threads and of waiting and processed requests
+	 */
+	public static synchronized String getStatusOfExecutor() {
+		if (executor == null) {
+			return "Batch verification: not used yet";
+		}
+		return "Batch verification: " + executor.getActiveCount() + " of " + executor.getPoolSize() + " threads active, " + executor.getQueue().size() + " requests waiting, "
+				+ executor.getCompletedTaskCount() + " requests processed";
+	}
+
+	// The CertVerifyRequests of the batch in the order in which they were sent
+	private final Vector<CertVerifyRequest> requests = new Vector<CertVerifyRequest>();
+
+	// The CertificateManager that will be used for processing or storing certificates
+	private final CertificateManager cm;
+
+	// The Properties and settings of the Crossbear server
+	private final Properties properties;
+
+	// The Deadline by which the batch should have been answered (null if it should be answered only after all servers' certificates are known)
+	private final Deadline deadline;
+
+	/**
+	 * Try to decode an InputStream as array of CertVerifyRequest-messages
+	 *
+	 * @param in The InputStream to decode
+	 * @param remoteAddr The IP that sent the requests
+	 * @param localAddr The IP that received the requests
+	 * @param cm The CertificateManager that will be used for processing or storing certificates
+	 * @param properties The Properties and settings of the Crossbear server (verifyCertBatch.maxRequests limits the number of requests per batch, default 100)
+	 * @param deadline The Deadline by which the batch should have been answered (null if it should be answered only after all servers' certificates are known)
+	 * @throws IOException
+	 * @throws CertificateException
+	 */
+	public CVRBatchProcessor(InputStream in, String remoteAddr, String localAddr, CertificateManager cm, Properties properties, Deadline deadline) throws IOException, CertificateException {
+		this.cm = cm;
+		this.properties = properties;
+		this.deadline = deadline;
+
+		int maxRequests = properties.getIntProperty("verifyCertBatch.maxRequests", 100);
+
+		// Try to read an array of crossbear.Message from the InputStream
+		while (true) {
+
+			// The first byte of each crossbear.Message is its type
+			int messageType = in.read();
+
+			// In case the last message has been read in.read() returned "-1" -> we are done
+			if (messageType == -1) {
+				break;
+			}
+
+			// Verify message type: It has to be MESSAGE_TYPE_CERT_VERIFY_REQUEST
+			if (messageType != Message.MESSAGE_TYPE_CERT_VERIFY_REQUEST) {
+				throw new IllegalArgumentException("The provided messageType " + messageType + " was not expected");
+			}
+
+			if (requests.size() >= maxRequests) {
+				throw new IllegalArgumentException("The batch contains more than " + maxRequests + " requests");
+			}
+
+			// Read the message's length field (which are bytes 2 & 3 of each crossbear.Message) and the message's remainder
+			byte[] messageLengthB = Message.readNBytesFromStream(in, 2);
+			int messageLength = Message.byteArrayToInt(messageLengthB);
+			byte[] raw = Message.readNBytesFromStream(in, messageLength - 3);
+
+			// Decode the message (validation is performed by CertVerifyRequest.readFromStream which expects the complete message)
+			byte[] message = new byte[messageLength];
+			message[0] = (byte) messageType;
+			System.arraycopy(messageLengthB, 0, message, 1, 2);
+			System.arraycopy(raw, 0, message, 3, raw.length);
+			requests.add(CertVerifyRequest.readFromStream(new ByteArrayInputStream(message), remoteAddr, localAddr));
+		}
+	}
+
+	/**
+	 * @return The number of CertVerifyRequests in the batch
+	 */
+	public int getNumberOfRequests() {
+		return requests.size();
+	}
+
+	/**
+	 * Process all requests of the batch in parallel, concatenate their replies and sign them with a single SignatureMessage
+	 *
+	 * @param signer The SigningService holding the server's private key
+	 * @param cacheValidity The time in milliseconds that newly calculated CertVerifyResults should stay in the CertVerifyResultCache (0 if the cache should not be used)
+	 * @return The bytes of the signed reply
+	 * @throws InvalidKeyException
+	 * @throws NoSuchAlgorithmException
+	 * @throws NoSuchProviderException
+	 * @throws CertificateEncodingException
+	 * @throws IOException
+	 * @throws SignatureException
+	 * @throws MessageSerializationException
+	 */
+	public byte[] getSignedReply(SigningService signer, final long cacheValidity) throws InvalidKeyException, NoSuchAlgorithmException, NoSuchProviderException, CertificateEncodingException, IOException,
+			SignatureException, MessageSerializationException {
+
+		// Start processing all requests ...
+		Vector<Future<byte[]>> replies = new Vector<Future<byte[]>>();
+		for (final CertVerifyRequest cvr : requests) {
+			replies.add(getExecutor(properties).submit(new Callable<byte[]>() {
+				@Override
+				public byte[] call() throws Exception {
+					Database db = new Database(properties);
+					try {
+						db.setDeadline(deadline);
+						return new CVRProcessor(cvr, cm, db, properties, deadline).process(cacheValidity).getBytes();
+					} finally {
+						db.close();
+					}
+				}
+			}));
+		}
+
+		// ... and concatenate their replies in the order of the requests
+		MessageList ml = new MessageList();
+		for (Future<byte[]> reply : replies) {
+			byte[] replyBytes = waitForReply(reply);
+			if (replyBytes != null) {
+				ml.addAlreadyEncodedMessages(replyBytes);
+			} else {
+				CertVerifyResult error = new CertVerifyResult();
+				error.addJudgment(new CertJudgment("<crit>ERROR: THE REQUEST COULD NOT BE PROCESSED</crit>", 0));
+				ml.addAlreadyEncodedMessages(error.getBytes());
+			}
+		}
+
+		// Sign all replies at once (the SignatureMessage is the last message of the reply)
+		byte[] repliesBytes = ml.getBytes();
+		ml.addAlreadyEncodedMessages(new SignatureMessage(repliesBytes, signer).getBytes());
+		return ml.getBytes();
+	}
+
+	/**
+	 * Wait for the reply to a single request of the batch
+	 *
+	 * @param reply The Future of the reply
+	 * @return The bytes of the (unsigned) reply or null if the request could not be processed
+	 */
+	private byte[] waitForReply(Future<byte[]> reply) {
+		try {
+			return reply.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+
+			// For debugging reasons: Log what went wrong
+			Throwable cause = e.getCause();
+			Logger.dumpExceptionToFile(properties.getProperty("logging.dir") + "/fourhundredfourtythree.verifyCertBatch.request.error", (cause instanceof Exception) ? (Exception) cause : e);
+			return null;
+		}
+	}
+
+}
@@ -26,6 +26,7 @@ import java.security.KeyManagementException;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
+import java.security.SignatureException;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateParsingException;
@@ -37,8 +38,20 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -58,6 +71,7 @@ import crossbear.messaging.HuntingTask;
 import crossbear.messaging.Message;
 import crossbear.messaging.MessageList;
 import crossbear.messaging.PublicIPNotification;
+import crossbear.messaging.SignatureMessage;
 import crossbear.messaging.MessageSerializationException;
 
 /**
@@ -112,13 +126,14 @@ public class CVRProcessor {
 	 * @param requestCert The certificate of the server observed by a Crossbear client
 	 * @return A CertJudgment reflecting the equality of the two certificates
 	 * @throws CertificateEncodingException
+	 * @throws NoSuchAlgorithmException
 	 */
-	private static CertJudgment getJudgmentOfCertEquality(X509Certificate serverCert, X509Certificate requestCert) throws CertificateEncodingException {
+	private static CertJudgment getJudgmentOfCertEquality(X509Certificate serverCert, X509Certificate requestCert) throws CertificateEncodingException, NoSuchAlgorithmException {
 
 		if (serverCert == null) {
 			return new CertJudgment("<crit>CERTCOMPARE: NO CERT RECEIVED</crit>", -100);
 			
-		} else if (Arrays.equals(serverCert.getEncoded(), requestCert.getEncoded())) {
+		} else if (Arrays.equals(CertFingerprints.of(serverCert).getDER(), CertFingerprints.of(requestCert).getDER())) {
 			return new CertJudgment("CERTCOMPARE: same", 80);
 			
 		} else {
@@ -160,15 +175,16 @@ public class CVRProcessor {
 	 * @return A CertJudgment stating if a certificate is valid vor a host.
 	 * @throws CertificateEncodingException
 	 * @throws CertificateParsingException
+	 * @throws NoSuchAlgorithmException
 	 */
-	private static CertJudgment getJudgmentOfDomainMatch(X509Certificate cert, String host) throws CertificateEncodingException, CertificateParsingException {
+	private static CertJudgment getJudgmentOfDomainMatch(X509Certificate cert, String host) throws CertificateEncodingException, CertificateParsingException, NoSuchAlgorithmException {
 
 		// Search the certificate for all of it's Common Names
 		boolean couldExtractCN = false;
 		Vector<byte[]> cnBytes = new Vector<byte[]>();
 		try {
-			// Cast the certificate into a DERSequence ... 
-			DERSequence seq = (DERSequence) DERSequence.fromByteArray(cert.getEncoded());
+			// Cast the certificate into a DERSequence (its encoding is shared with all other users of the certificate's fingerprints, cf. CertFingerprints) ... 
+			DERSequence seq = (DERSequence) DERSequence.fromByteArray(CertFingerprints.of(cert).getDER());
 
 			// ... and search it for Common Names
 			searchSequenceForCNs(seq, cnBytes);
@@ -257,55 +273,32 @@ public class CVRProcessor {
 	 * - The period is not yet over (might even be 0 days since the certificate might never have been observed)
 	 * - The period ended sometime in the past
 	 * 
-	 * @param cert The certificate for which the period should be determined
-	 * @param hostPort The Hostname and port of the server from which it has been observed by the client e.g. encrypted.google.com:443 
-	 * @param db The database connection to use
+	 * @param summary The summary of the certificate's previous observations for the host from which it has been observed by the client
+	 * @param observedByServer Has the server observed the same certificate for the host while processing the request? Since the server's certificate is fetched concurrently, that observation is
+	 *            not necessarily part of the summary.
 	 * @return A CertificateJudgment stating when was the last continuous observation period of the certificate
-	 * @throws CertificateEncodingException
-	 * @throws NoSuchAlgorithmException
-	 * @throws InvalidParameterException
-	 * @throws SQLException
 	 */
-	private static CertJudgment getJudgmentOfLastObservationPeriod(X509Certificate cert, String hostPort, Database db) throws CertificateEncodingException, NoSuchAlgorithmException, InvalidParameterException, SQLException {
+	private static CertJudgment getJudgmentOfLastObservationPeriod(ObservationSummary summary, boolean observedByServer) {
 		
-		// Calculate the certificate's SHA256-Hash
-		byte[] certHash = CertificateManager.SHA256(cert.getEncoded());
-		
-		// Get all certificate ID's that share that hash
-		String IDs = CertificateManager.getCertIDs(certHash,db);
-
-		// Get the Timestamp of the last observation of the certificate for the host or the current time if it has never been observed (which would result in a LCOP of 0 days)
-		Object[] params = { hostPort };
-		    // WARNING (Ralph): you're interpolating a string
-		    // it's probably OK because you're pulling IDs from the DB where it's guaranteed to be a hash value, but still...
-		    // And you're using prepared statements, of course
-		ResultSet rs = db.executeQuery("SELECT coalesce(MAX(Timeofobservation), 'NOW') AS Time FROM CertObservations WHERE ServerHostPort = ? AND CertID IN ("+IDs+") AND ObserverType = 'CrossbearServer'", params);
-
-		if (!rs.next()) {
-			throw new SQLException("Query returned invalid result.");
+		// If the certificate has never been observed for the host, its observation period begins and ends now (which would result in a LCOP of 0 days)
+		Timestamp now = new Timestamp(System.currentTimeMillis());
+		Timestamp endOfObservationPeriod = (summary.getLastObservation() != null) ? summary.getLastObservation() : now;
+		Timestamp beginOfObservationPeriod = (summary.getPeriodBegin() != null) ? summary.getPeriodBegin() : now;
+
+		// Get the observations that are newer than the stored ones (i.e. those that have not yet been stored and the server's current observation)
+		Vector<Timestamp> newerObservations = summary.getPendingObservations();
+		if (observedByServer) {
+			newerObservations.add(now);
 		}
 
-		// Remember that Timestamp as endOfObservationPeriod
-		Timestamp endOfObservationPeriod = rs.getTimestamp("Time");
-
-		
-		Object[] params2 = { hostPort, hostPort, endOfObservationPeriod };
-		// Get the newest Timestamp of any certificate observation for the host that was not on the current certificate but is older than endOfObservationPeriod (or alternatively a very old dummy timestamp if there is none).
-		String sqlSubQuery = "SELECT coalesce(MAX(TimeOfObservation), TIMESTAMP '1900-01-01 00:00') as Time FROM CertObservations WHERE ServerHostPort = ? AND CertID NOT IN ("+IDs+") AND ObserverType = 'CrossbearServer' and TimeOfObservation < ?";
-		
-		// Get the oldest Timestamp of any observation of the current certificate that is still newer than the Timestamp of the sub-querry
-		    // WARNING (Ralph): you're interpolating a string
-		    // it's probably OK because you're pulling IDs from the DB where it's guaranteed to be a hash value, but still...
-		    // And you're using prepared statements, of course
-		rs = db.executeQuery("SELECT coalesce(MIN(TimeOfObservation), 'NOW') as Time FROM CertObservations WHERE ServerHostPort = ? AND CertID IN ("+IDs+")  AND ObserverType = 'CrossbearServer' AND TimeOfObservation > (" + sqlSubQuery + ")", params2);
-
-		if (!rs.next()) {
-			throw new SQLException("Query returned invalid result.");
+		// If there is a newer observation, it ends the observation period. If a different certificate has been observed in between, it also begins a new one.
+		if (!newerObservations.isEmpty() && Collections.max(newerObservations).after(endOfObservationPeriod)) {
+			if (summary.getLastOtherObservation() != null && summary.getLastOtherObservation().after(endOfObservationPeriod)) {
+				beginOfObservationPeriod = Collections.min(newerObservations);
+			}
+			endOfObservationPeriod = Collections.max(newerObservations);
 		}
 
-		// Remember that Timestamp as beginOfObservationPeriod
-		Timestamp beginOfObservationPeriod = rs.getTimestamp("Time");
-
 		// Calculate how many days are between beginOfObservationPeriod and endOfObservationPeriod
 		int observationdays = (int) ((endOfObservationPeriod.getTime() - beginOfObservationPeriod.getTime()) / (24 * 60 * 60 * 1000));
 		
@@ -328,36 +321,15 @@ public class CVRProcessor {
 	/**
 	 * Judge the total number of observations of a certificate for a host. There only possible outcome is the number of observations.
 	 * 
-	 * @param cert The certificate for which the total number of observations should be determined
-	 * @param hostPort The Hostname and port of the server from which it has been observed by the client e.g. encrypted.google.com:443
-	 * @param db The database connection to use
+	 * @param summary The summary of the certificate's previous observations for the host from which it has been observed by the client
+	 * @param newlyObservedByServer True if the server has just observed the certificate for the host (that observation is not part of the summary)
 	 * @return A CertificateJudgment stating how often a certificate has already been observed for a host
-	 * @throws CertificateEncodingException
-	 * @throws NoSuchAlgorithmException
-	 * @throws InvalidParameterException
-	 * @throws SQLException
 	 */
-	private static CertJudgment getJudgmentOfTotalNumberOfObservation(X509Certificate cert, String hostPort, Database db) throws CertificateEncodingException, NoSuchAlgorithmException, InvalidParameterException, SQLException {
+	private static CertJudgment getJudgmentOfTotalNumberOfObservation(ObservationSummary summary, boolean newlyObservedByServer) {
 
-		// Calculate the certificate's SHA256-Hash
-		byte[] certHash = CertificateManager.SHA256(cert.getEncoded());
-		
-		// Get all certificate ID's that share that hash
-		String IDs = CertificateManager.getCertIDs(certHash,db);
-		
-		// Get the total number of how often cert has been observed for hostPort by the CrossbearServer
-		Object[] params = { hostPort };
-		    // WARNING (Ralph): you're interpolating a string
-		    // it's probably OK because you're pulling IDs from the DB where it's guaranteed to be a hash value, but still...
-		    // And you're using prepared statements, of course
-		ResultSet rs = db.executeQuery("SELECT COUNT(Id) as Num FROM CertObservations WHERE ServerHostPort = ? AND CertID IN ("+IDs+") AND ObserverType = 'CrossbearServer'", params);
-		
-		if (!rs.next()) {
-			throw new SQLException("Query returned invalid result.");
-		}
-		
-		// Remember the number and derive a rating from it
-		long nomOfObservations = rs.getLong("Num");
+		// Get the total number of how often cert has been observed for hostPort by the CrossbearServer (including the observations that have not yet been stored and the server's current one) and
+		// derive a rating from it
+		long nomOfObservations = summary.getNumOfObservations() + summary.getPendingObservations().size() + (newlyObservedByServer ? 1 : 0);
 		int rating = (int)(nomOfObservations/30);
 		
 		// Convert the number into its textual representation taking into account that the number might be very big and should be shortened
@@ -615,6 +587,236 @@ public class CVRProcessor {
 		cnBytes.add(subseq.getObjectAt(1).getDERObject().getEncoded());
 	}
 	
+	/**
+	 * Get the Judges that are built into Crossbear (in the order in which their judgments appear in the CertVerifyResult by default). The JudgeRegistry decides which of them are actually used.
+	 * 
+	 * Currently these are
+	 * - certEquality: Is the certificate that was observed by the client equal to the one that was observed by the server?
+	 * - lastObservationPeriod: What was the last period of continuous observation for the certificate?
+	 * - numberOfObservations: How often has the certificate already been observed?
+	 * - domainMatch: Is the certificate valid for the domain on which it was observed?
+	 * - currentValidity: Is the certificate currently valid?
+	 * - usedAlgorithms: Are the used encryption algorithms deprecated?
+	 * - keyLength: Is the keylength long enough?
+	 * 
+	 * Additionally there is the convergence-Judge (What is the period during which Convergence observed the certificate?) which is not used unless it is configured explicitly.
+	 * 
+	 * @return The built-in Judges
+	 */
+	static Vector<Judge> getBuiltInJudges() {
+		Vector<Judge> re = new Vector<Judge>();
+
+		// Did the server get the same certificate as the client?
+		re.add(new Judge() {
+			@Override
+			public String getName() {
+				return "certEquality";
+			}
+
+			@Override
+			public boolean requiresServerCert() {
+				return true;
+			}
+
+			@Override
+			public CertJudgment judge(JudgmentInput input) throws Exception {
+				return getJudgmentOfCertEquality(input.getServerCert(), input.getRequestCert());
+			}
+		});
+
+		// What was the last interval the server observed this certificate?
+		re.add(new Judge() {
+			@Override
+			public String getName() {
+				return "lastObservationPeriod";
+			}
+
+			@Override
+			public boolean requiresServerCert() {
+				return true;
+			}
+
+			@Override
+			public CertJudgment judge(JudgmentInput input) throws Exception {
+				return getJudgmentOfLastObservationPeriod(input.getObservationSummary(), input.isObservedByServer());
+			}
+		});
+
+		// How often has the server already observed this certificate?
+		re.add(new Judge() {
+			@Override
+			public String getName() {
+				return "numberOfObservations";
+			}
+
+			@Override
+			public boolean requiresServerCert() {
+				return true;
+			}
+
+			@Override
+			public CertJudgment judge(JudgmentInput input) throws Exception {
+				return getJudgmentOfTotalNumberOfObservation(input.getObservationSummary(), input.isNewlyObservedByServer());
+			}
+		});
+
+		// Has the certificate been issued for the requesting domain?
+		re.add(new Judge() {
+			@Override
+			public String getName() {
+				return "domainMatch";
+			}
+
+			@Override
+			public boolean requiresServerCert() {
+				return false;
+			}
+
+			@Override
+			public CertJudgment judge(JudgmentInput input) throws Exception {
+				return getJudgmentOfDomainMatch(input.getRequestCert(), input.getRequest().getHostName());
+			}
+		});
+
+		// Is the certificate currently valid?
+		re.add(new Judge() {
+			@Override
+			public String getName() {
+				return "currentValidity";
+			}
+
+			@Override
+			public boolean requiresServerCert() {
+				return false;
+			}
+
+			@Override
+			public CertJudgment judge(JudgmentInput input) throws Exception {
+				return getJudgmentOfCurrentValidity(input.getRequestCert());
+			}
+		});
+
+		// What are the used encryption/hash algorithms? Are they safe? (some algorithms like e.g. md2 and md5 are not considered safe anymore)
+		re.add(new Judge() {
+			@Override
+			public String getName() {
+				return "usedAlgorithms";
+			}
+
+			@Override
+			public boolean requiresServerCert() {
+				return false;
+			}
+
+			@Override
+			public CertJudgment judge(JudgmentInput input) throws Exception {
+				return getJudgmentOfUsedAlgorithms(input.getRequestCert());
+			}
+		});
+
+		// What is the length of the key? (NIST suggests at least 2048 until 2030: http://csrc.nist.gov/groups/ST/toolkit/documents/SP800-57Part1-Revision3_May2011.pdf)
+		re.add(new Judge() {
+			@Override
+			public String getName() {
+				return "keyLength";
+			}
+
+			@Override
+			public boolean requiresServerCert() {
+				return false;
+			}
+
+			@Override
+			public CertJudgment judge(JudgmentInput input) throws Exception {
+				return getJudgmentOfKeyLength(input.getRequestCert());
+			}
+		});
+
+		// What is the period during which Convergence observed the certificate? (not used by default since contacting the Convergence Notaries is slow)
+		re.add(new Judge() {
+			@Override
+			public String getName() {
+				return "convergence";
+			}
+
+			@Override
+			public boolean requiresServerCert() {
+				return false;
+			}
+
+			@Override
+			public CertJudgment judge(JudgmentInput input) throws Exception {
+				Database judgeDb = input.openDatabase();
+				try {
+					return new ConvergenceConnector(judgeDb, 1000*60*60*6).getJudgmentOfObservationPeriod(input.getRequestCert(), input.getHostPort());
+				} finally {
+					judgeDb.close();
+				}
+			}
+		});
+
+		return re;
+	}
+
+	// The built-in Judges without time budget (used by CVRProcessors that have been created without the server's Properties)
+	private static final JudgeRegistry defaultJudges = new JudgeRegistry(null);
+
+	// The hashes of the requests (including the client's IP, cf. CertVerifyRequest.getHash) that have recently been answered. Their observations are not stored again if they are sent again.
+	private static final BoundedCache<String, Boolean> recentRequests = new BoundedCache<String, Boolean>("Recent CertVerifyRequests", 100000);
+
+	// The number of requests whose CertVerifyResult was (not) found in the CertVerifyResultCache
+	private static final AtomicLong resultCacheHits = new AtomicLong(0);
+	private static final AtomicLong resultCacheMisses = new AtomicLong(0);
+
+	/**
+	 * Get the current status of the caches that are used by the CVRProcessors
+	 * 
+	 * @return A status text containing the hit rate of the CertVerifyResultCache and the status of the cache of recently answered requests
+	 */
+	public static String getCacheStatus() {
+		long hits = resultCacheHits.get();
+		long misses = resultCacheMisses.get();
+		return "CertVerifyResultCache: " + hits + " hits, " + misses + " misses" + ((hits + misses > 0) ? ", hit rate " + (100 * hits / (hits + misses)) + "%" : "") + "<br>\r\n"
+				+ recentRequests.getStatus();
+	}
+
+	// States of fetching the server's certificate: still running, finished before the request has been answered or finished after a partial result had been sent
+	private static final int FETCH_PENDING = 0;
+	private static final int FETCH_DONE = 1;
+	private static final int FETCH_ABANDONED = 2;
+
+	/**
+	 * A LateServerCertListener completes the processing of a request that has been answered with a partial CertVerifyResult (cf. process) once the server's certificate has been fetched.
+	 */
+	private interface LateServerCertListener {
+
+		/**
+		 * Complete the processing of the request
+		 * 
+		 * @param serverCert The server's certificate or null if it could not be obtained
+		 * @param db The database connection of the thread that fetched the server's certificate
+		 * @throws Exception
+		 */
+		public void serverCertFetched(X509Certificate serverCert, Database db) throws Exception;
+	}
+
+	/**
+	 * Container class for an entry of the CertVerifyResultCache
+	 */
+	private static class CachedResult {
+
+		// The bytes of the CertVerifyResult-message
+		private final byte[] resultBytes;
+
+		// Is the CertVerifyResult worth creating a hunting task?
+		private final boolean createHuntingTask;
+
+		private CachedResult(byte[] resultBytes, boolean createHuntingTask) {
+			this.resultBytes = resultBytes;
+			this.createHuntingTask = createHuntingTask;
+		}
+	}
+
 	// The CertVerifyRequest that should be processed by this processor
 	private CertVerifyRequest cvr;
 	
@@ -624,34 +826,81 @@ public class CVRProcessor {
 	// The Database connection to use
 	private Database db;
 
+	// The Properties and settings of the Crossbear server (null if the server's certificate should not be fetched concurrently)
+	private Properties properties;
+
+	// The Deadline by which the request should have been answered (null if it should be answered only after the server's certificate is known)
+	private Deadline deadline;
+
+	// The state of fetching the server's certificate (FETCH_PENDING, FETCH_DONE or FETCH_ABANDONED)
+	private final AtomicInteger fetchState = new AtomicInteger(FETCH_PENDING);
+
+	// Completes the processing once the server's certificate is known if the request has been answered with a partial CertVerifyResult (set before fetchState becomes FETCH_ABANDONED)
+	private volatile LateServerCertListener lateServerCertListener = null;
+
+	// Has the request been answered with a partial CertVerifyResult?
+	private boolean partial = false;
+
+	// Has the fetch of the server's certificate downloaded it from the server (i.e. recorded a new observation of it)?
+	private final AtomicBoolean serverCertNewlyObserved = new AtomicBoolean(false);
+
 	/**
-	 * Create a new CVRProcessor
+	 * Create a new CVRProcessor that processes the request sequentially
 	 * 
 	 * @param cvr The CertVerifyRequest that it will process
 	 * @param cm The CertificateManager that it will use for processing or storing certificates
 	 * @param db The Database connection that it will use
 	 */
 	public CVRProcessor(CertVerifyRequest cvr, CertificateManager cm, Database db) {
+		this(cvr, cm, db, null);
+	}
+
+	/**
+	 * Create a new CVRProcessor that fetches the server's certificate concurrently to the rest of the processing (cf. process)
+	 * 
+	 * @param cvr The CertVerifyRequest that it will process
+	 * @param cm The CertificateManager that it will use for processing or storing certificates
+	 * @param db The Database connection that it will use
+	 * @param properties The Properties and settings of the Crossbear server (used to get the PipelineExecutor and another database connection for fetching the server's certificate)
+	 */
+	public CVRProcessor(CertVerifyRequest cvr, CertificateManager cm, Database db, Properties properties) {
+		this(cvr, cm, db, properties, null);
+	}
+
+	/**
+	 * Create a new CVRProcessor that fetches the server's certificate concurrently to the rest of the processing and that answers with a partial CertVerifyResult if the server's certificate is not
+	 * known by the time the deadline expires (cf. process)
+	 * 
+	 * @param cvr The CertVerifyRequest that it will process
+	 * @param cm The CertificateManager that it will use for processing or storing certificates
+	 * @param db The Database connection that it will use
+	 * @param properties The Properties and settings of the Crossbear server (used to get the PipelineExecutor and another database connection for fetching the server's certificate)
+	 * @param deadline The Deadline by which the request should have been answered (null if it should be answered only after the server's certificate is known)
+	 */
+	public CVRProcessor(CertVerifyRequest cvr, CertificateManager cm, Database db, Properties properties, Deadline deadline) {
 		this.cvr = cvr;
 		this.cm = cm;
 		this.db = db;
+		this.properties = properties;
+		this.deadline = deadline;
 	}
 
 	/**
-	 * Try to retrieve a CertVerifyResult from the local cache i.e. the CertVerifyResultCache-table
+	 * Try to retrieve the CertVerifyResult for the request from the local cache i.e. the CertVerifyResultCache-table
 	 * 
-	 * A match will only be found if the CertVerifyRequest of this CVRProcessor is a duplicate.
+	 * The judgments about a certificate don't depend on the client that sent it. Therefore the cache is keyed by a hash of the request that doesn't contain the client's IP (cf.
+	 * CertVerifyRequest.getJudgmentHash) and a match will be found if any client sent the same certificate chain for the same host recently.
 	 * 
-	 * @return The bytes of the CertVerifyResult
+	 * @return The cached CertVerifyResult or null if there is no valid one in cache
 	 * @throws InvalidParameterException
 	 * @throws SQLException
 	 * @throws NoSuchAlgorithmException
 	 * @throws IOException
+	 * @throws MessageSerializationException
 	 */
-    public byte[] getCachedCertVerifyResult() throws InvalidParameterException, SQLException, IOException, NoSuchAlgorithmException, MessageSerializationException {
+	private CachedResult getCachedResult() throws InvalidParameterException, SQLException, IOException, NoSuchAlgorithmException, MessageSerializationException {
 
-		// The KEY of the CertVerifyResultCache-table is a hash of the corresponding CertVerifyRequest.
-		Object[] params = { Message.byteArrayToHexString(cvr.getHash()) };
+		Object[] params = { Message.byteArrayToHexString(cvr.getJudgmentHash()) };
 		ResultSet rs = db.executeQuery("SELECT * FROM CertVerifyResultCache WHERE Hash = ? LIMIT 1", params);
 
 		// If the result is empty then there is no cache entry to return
@@ -664,8 +913,8 @@ public class CVRProcessor {
 		if (validUntil.before(new Timestamp(System.currentTimeMillis())))
 			return null;
 
-		// If there is a cache entry that is currently valid: return its bytes.
-		return rs.getBytes("Bytes");
+		// If there is a cache entry that is currently valid: return it.
+		return new CachedResult(rs.getBytes("Bytes"), rs.getBoolean("CreateHuntingTask"));
 
 	}
 	
@@ -673,15 +922,18 @@ public class CVRProcessor {
 	 * The process takes as input a CertVerifyRequest and judges its certificate based on various criteria. It returns a MessageList consisting of a CertVerifyResult and optionally a
 	 * CurrentServerTime-message a PublicIPNotification-message and a HuntingTask-message if the CertVerifyResult is worth creating a hunting task.
 	 * 
-	 * Currently the Judgments that are made are
-	 * - Is the certificate that was observed by the client equal to the one that was observed by the server?
-	 * - What was the last period of continuous observation for the certificate?
-	 * - How often has the certificate already been observed?
-	 * - What is the period during which Convergence observed the certificate?
-	 * - Is the certificate valid for the domain on which it was observed?
-	 * - Is the certificate currently valid?
-	 * - Are the used encryption algorithms deprecated?
-	 * - Is the keylength long enough?
+	 * The Judgments that are made are determined by the JudgeRegistry (cf. getBuiltInJudges). Judgments that don't depend on the server's certificate are started right away, all others as soon
+	 * as the server's certificate is known.
+	 * 
+	 * Getting the server's certificate might require contacting the server which takes much longer than anything else. Therefore (if the CVRProcessor has been created with the server's Properties)
+	 * it is done by the PipelineExecutor while the certificate that the client sent is stored and judged. The overall processing time is thus roughly the time of the slower of the two.
+	 * 
+	 * If the CVRProcessor has been created with a Deadline and the server's certificate is still not known when it expires, the request is answered with a partial CertVerifyResult: It contains
+	 * only the judgments that don't depend on the server's certificate and is marked as partial by a "PARTIAL RESULT"-judgment right below the top line. Getting the server's certificate is not
+	 * aborted though. It is stored in the CertCache as usual. The Deadline only depends on the time the request thread waits for the server's certificate, not on the thread that gets it: A fetch that
+	 * the PipelineExecutor rejected counts as pending and a fetch that waits for another request's fetch of the same server's certificate gives up after a while (cf. CertificateManager.getCertForHost).
+	 * 
+	 * This function neither reads nor writes the CertVerifyResultCache (cf. process(long)).
 	 * 
 	 * @return The message list described above
 	 * @throws InvalidParameterException
@@ -694,60 +946,413 @@ public class CVRProcessor {
 	 * @throws NoSuchProviderException
 	 * @throws IOException
 	 * @throws InvalidKeyException 
+	 * @throws MessageSerializationException
 	 */
-	public MessageList process() throws InvalidParameterException, NoSuchAlgorithmException, SQLException, KeyManagementException, InvalidAlgorithmParameterException, KeyStoreException, CertificateException, NoSuchProviderException, IOException, InvalidKeyException {
+	public MessageList process() throws InvalidParameterException, NoSuchAlgorithmException, SQLException, KeyManagementException, InvalidAlgorithmParameterException, KeyStoreException, CertificateException, NoSuchProviderException, IOException, InvalidKeyException, MessageSerializationException {
+		return process(0);
+	}
 
-		// Get the certificate that the client sent
-		X509Certificate requestCert = cm.getCertFromRequest(cvr, db);
+	/**
+	 * Process the CertVerifyRequest (cf. process()) using the CertVerifyResultCache.
+	 * 
+	 * Only the CertVerifyResult is cached, since it doesn't depend on the client (cf. getCachedResult). The messages that depend on the client (CurrentServerTime, PublicIPNotification and
+	 * HuntingTask) are created for each request. If the CertVerifyResult is found in the cache, the client's observation of the certificate is stored nevertheless - unless the same client sent the
+	 * same request recently (the Crossbear Firefox Plug-in occasionally sends duplicate requests).
+	 * 
+	 * Partial CertVerifyResults are not cached. Instead the complete CertVerifyResult is calculated in the background once the server's certificate is known and then stored in the cache.
+	 * 
+	 * @param cacheValidity The time in milliseconds that a newly calculated CertVerifyResult should stay in the CertVerifyResultCache (0 if the cache should not be used)
+	 * @return The message list described in process()
+	 * @throws InvalidParameterException
+	 * @throws NoSuchAlgorithmException
+	 * @throws SQLException
+	 * @throws KeyManagementException
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws KeyStoreException
+	 * @throws CertificateException
+	 * @throws NoSuchProviderException
+	 * @throws IOException
+	 * @throws InvalidKeyException
+	 * @throws MessageSerializationException
+	 */
+	public MessageList process(long cacheValidity) throws InvalidParameterException, NoSuchAlgorithmException, SQLException, KeyManagementException, InvalidAlgorithmParameterException,
+			KeyStoreException, CertificateException, NoSuchProviderException, IOException, InvalidKeyException, MessageSerializationException {
+
+		if (cacheValidity <= 0) {
+			return judge(0);
+		}
 
-		// Try to get the server's real certificate ...
-		 X509Certificate serverCert = cm.getCertForHost(cvr, db);
+		// Remember that the client sent the request
+		String requestHash = Message.byteArrayToHexString(cvr.getHash());
+		boolean duplicate = recentRequests.get(requestHash) != null;
+		recentRequests.put(requestHash, Boolean.TRUE, cacheValidity);
+
+		CachedResult cached = getCachedResult();
+		if (cached == null) {
+			resultCacheMisses.incrementAndGet();
+			return judge(cacheValidity);
+		}
+		resultCacheHits.incrementAndGet();
+
+		// Store the client's observation (cf. cm.getCertFromRequest) unless it has already been stored
+		if (!duplicate) {
+			cm.getCertFromRequest(cvr, db);
+		}
+
+		return createMessageList(cached.resultBytes, cached.createHuntingTask, db);
+	}
+
+	/**
+	 * Process the CertVerifyRequest (cf. process(long)), sign the reply and append the signature to it
+	 * 
+	 * @param signer The SigningService that is used to sign the reply
+	 * @param cacheValidity The time in milliseconds that a newly calculated CertVerifyResult should stay in the CertVerifyResultCache (0 if the cache should not be used)
+	 * @return The bytes of the signed reply
+	 * @throws InvalidParameterException
+	 * @throws NoSuchAlgorithmException
+	 * @throws SQLException
+	 * @throws KeyManagementException
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws KeyStoreException
+	 * @throws CertificateException
+	 * @throws NoSuchProviderException
+	 * @throws IOException
+	 * @throws InvalidKeyException
+	 * @throws SignatureException
+	 * @throws MessageSerializationException
+	 */
+	public byte[] getSignedReply(SigningService signer, long cacheValidity) throws InvalidParameterException, NoSuchAlgorithmException, SQLException, KeyManagementException,
+			InvalidAlgorithmParameterException, KeyStoreException, CertificateException, NoSuchProviderException, IOException, InvalidKeyException, SignatureException, MessageSerializationException {
+		return sign(process(cacheValidity), signer);
+	}
+
+	/**
+	 * @return True if the request has been answered with a partial CertVerifyResult (cf. process) else false
+	 */
+	public boolean isPartial() {
+		return partial;
+	}
+
+	/**
+	 * Judge the certificate of the CertVerifyRequest (cf. process) and store the CertVerifyResult in the CertVerifyResultCache
+	 * 
+	 * @param cacheValidity The time in milliseconds that the CertVerifyResult should stay in the CertVerifyResultCache (0 if it should not be cached)
+	 * @return The message list described in process
+	 * @throws InvalidParameterException
+	 * @throws NoSuchAlgorithmException
+	 * @throws SQLException
+	 * @throws KeyManagementException
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws KeyStoreException
+	 * @throws CertificateException
+	 * @throws NoSuchProviderException
+	 * @throws IOException
+	 * @throws InvalidKeyException
+	 * @throws MessageSerializationException
+	 */
+	private MessageList judge(final long cacheValidity) throws InvalidParameterException, NoSuchAlgorithmException, SQLException, KeyManagementException,
+			InvalidAlgorithmParameterException, KeyStoreException, CertificateException, NoSuchProviderException, IOException, InvalidKeyException, MessageSerializationException {
+
+		// Start getting the server's real certificate ...
+		Future<X509Certificate> serverCertFetch = fetchServerCert();
+
+		// ... and meanwhile get the certificate that the client sent
+		X509Certificate requestCert = cm.getCertFromRequest(cvr, db);
 
 		//concatenate hostname and hostport to hostport. Hostport is the host's identifier in the database
 		String hostPort = cvr.getHostName()+":"+String.valueOf(cvr.isUserUsingProxy()?443:cvr.getHostPort());
-		
-		MessageList ml = new MessageList();
 
-		CertVerifyResult result = new CertVerifyResult();
+		// Get the summary of the server's previous observations of that certificate
+		final JudgmentInput input = new JudgmentInput(cvr, requestCert, hostPort, ObservationSummary.load(requestCert, hostPort, cm, db), cm, properties);
+
+		// Start all judgments that don't depend on the server's certificate and wait for them
+		final JudgeRegistry registry = (properties == null) ? defaultJudges : JudgeRegistry.getInstance(properties);
+		final Vector<JudgeRegistry.ConfiguredJudge> judges = registry.getJudges();
+		final ExecutorService executor = (properties == null) ? null : PipelineExecutor.getInstance(properties).getExecutor();
+		final CertJudgment[] results = new CertJudgment[judges.size()];
+		makeJudgments(judges, false, input, executor, registry.getLogDir(), results);
 
 		// Top line: which is the name for which the certificate was issued
-		result.addJudgment(new CertJudgment("DOMAIN: " + getURLFromDN(requestCert.getSubjectDN().getName()), 0));
+		final CertJudgment domainJudgment = new CertJudgment("DOMAIN: " + getURLFromDN(requestCert.getSubjectDN().getName()), 0);
 
-		// Did the server get the same certificate as the client?
-		result.addJudgment(getJudgmentOfCertEquality(serverCert, requestCert));
+		// Wait for the server's certificate (at most until the deadline expires)
+		X509Certificate serverCert;
+		try {
+			serverCert = waitForServerCert(serverCertFetch, deadline);
 
-		// What was the last interval the server observed this certificate?
-		result.addJudgment(getJudgmentOfLastObservationPeriod(requestCert, hostPort, db));
+		} catch (TimeoutException e) {
 
-		// How often has the server already observed this certificate?
-		result.addJudgment(getJudgmentOfTotalNumberOfObservation(requestCert, hostPort, db));
-		
-		// What is the period during which Convergence observed the certificate?
-		//result.addJudgment(new ConvergenceConnector(db, 1000*60*60*6).getJudgmentOfObservationPeriod(requestCert, hostPort));
+			// Prepare the completion of the processing in the background (working on a copy of the judgments so the partial result is not affected)
+			final CertJudgment[] completeResults = results.clone();
+			lateServerCertListener = new LateServerCertListener() {
+				@Override
+				public void serverCertFetched(X509Certificate lateServerCert, Database fetchDb) throws Exception {
+					input.setServerCert(lateServerCert, serverCertNewlyObserved.get());
+					makeJudgments(judges, true, input, executor, registry.getLogDir(), completeResults);
 
-		// Has the certificate been issued for the requesting domain?
-		result.addJudgment(getJudgmentOfDomainMatch(requestCert, cvr.getHostName()));
+					if (cacheValidity > 0) {
+						CertVerifyResult result = createCertVerifyResult(domainJudgment, null, completeResults);
+						storeResultInCache(result.getBytes(), huntingTaskShouldBeCreated(cvr, result), cacheValidity, fetchDb);
+					}
+				}
+			};
 
-		// Is the certificate currently valid?
-		result.addJudgment(getJudgmentOfCurrentValidity(requestCert));
+			// Answer with a partial result unless the server's certificate has been fetched in the meantime (partial results are never worth creating a hunting task)
+			if (fetchState.compareAndSet(FETCH_PENDING, FETCH_ABANDONED)) {
+				partial = true;
+				CertVerifyResult result = createCertVerifyResult(domainJudgment, new CertJudgment("<crit>PARTIAL RESULT: SERVER'S CERTIFICATE NOT YET RECEIVED</crit>", 0), results);
+				return createMessageList(result.getBytes(), false, db);
+			}
+			serverCert = waitForServerCert(serverCertFetch);
+		}
 
-		// What are the used encryption/hash algorithms? Are they safe? (some algorithms like e.g. md2 and md5 are not considered safe anymore)
-		result.addJudgment(getJudgmentOfUsedAlgorithms(requestCert));
+		// Make the remaining judgments
+		input.setServerCert(serverCert, serverCertNewlyObserved.get());
+		makeJudgments(judges, true, input, executor, registry.getLogDir(), results);
 
-		// What is the length of the key? (NIST suggests at least 2048 until 2030: http://csrc.nist.gov/groups/ST/toolkit/documents/SP800-57Part1-Revision3_May2011.pdf)
-		result.addJudgment(getJudgmentOfKeyLength(requestCert));
+		CertVerifyResult result = createCertVerifyResult(domainJudgment, null, results);
+		byte[] resultBytes = result.getBytes();
+		boolean createHuntingTask = huntingTaskShouldBeCreated(cvr, result);
+
+		if (cacheValidity > 0) {
+			storeResultInCache(resultBytes, createHuntingTask, cacheValidity, db);
+		}
 
-		ml.add(result);
+		return createMessageList(resultBytes, createHuntingTask, db);
+
+	}
+
+	/**
+	 * Make the judgments of all Judges that do (or don't) depend on the server's certificate. They are started at once and their results are collected afterwards.
+	 * 
+	 * @param judges The Judges that are currently used
+	 * @param requiringServerCert Make the judgments of the Judges that depend on the server's certificate (true) or of those that don't (false)?
+	 * @param input The CertVerifyRequest, its certificate and everything else that is known about it
+	 * @param executor The executor that runs Judges that have a time budget (null if all Judges should be run right away)
+	 * @param logDir The directory to write exceptions to
+	 * @param results The array in which the judgments are stored (at the index of their Judge; Judges that failed or exceeded their time budget leave a null-entry)
+	 */
+	private static void makeJudgments(Vector<JudgeRegistry.ConfiguredJudge> judges, boolean requiringServerCert, JudgmentInput input, ExecutorService executor, String logDir, CertJudgment[] results) {
+
+		JudgeRegistry.RunningJudgment[] judgments = new JudgeRegistry.RunningJudgment[judges.size()];
+		for (int i = 0; i < judgments.length; i++) {
+			if (judges.get(i).getJudge().requiresServerCert() == requiringServerCert) {
+				judgments[i] = judges.get(i).start(input, executor);
+			}
+		}
+
+		for (int i = 0; i < judgments.length; i++) {
+			if (judgments[i] != null) {
+				results[i] = judgments[i].getResult(logDir);
+			}
+		}
+	}
+
+	/**
+	 * Create the CertVerifyResult from the judgments
+	 * 
+	 * @param domainJudgment The top line of the CertVerifyResult
+	 * @param partialJudgment The judgment that marks the CertVerifyResult as partial (null if it is complete)
+	 * @param results The judgments in the configured order (null-entries are left out)
+	 * @return The CertVerifyResult
+	 */
+	private static CertVerifyResult createCertVerifyResult(CertJudgment domainJudgment, CertJudgment partialJudgment, CertJudgment[] results) {
+
+		CertVerifyResult result = new CertVerifyResult();
+		result.addJudgment(domainJudgment);
+		if (partialJudgment != null) {
+			result.addJudgment(partialJudgment);
+		}
+
+		// Add the judgments in the configured order (judgments of Judges that failed or exceeded their time budget are left out)
+		for (CertJudgment certJudgment : results) {
+			if (certJudgment != null) {
+				result.addJudgment(certJudgment);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Create the MessageList that is sent to the client (cf. process): The CertVerifyResult followed by the messages that depend on the client.
+	 * 
+	 * Please note: All messages are added in their byte[]-representation since MessageList.getBytes puts the encoded messages behind all others.
+	 * 
+	 * @param resultBytes The bytes of the CertVerifyResult
+	 * @param createHuntingTask Is the CertVerifyResult worth creating a hunting task?
+	 * @param db The Database connection to use
+	 * @return The message list described in process
+	 * @throws InvalidKeyException
+	 * @throws NoSuchAlgorithmException
+	 * @throws NoSuchProviderException
+	 * @throws SQLException
+	 * @throws MessageSerializationException
+	 */
+	private MessageList createMessageList(byte[] resultBytes, boolean createHuntingTask, Database db) throws InvalidKeyException, NoSuchAlgorithmException, NoSuchProviderException,
+			SQLException, MessageSerializationException {
+
+		MessageList ml = new MessageList();
+		ml.addAlreadyEncodedMessages(resultBytes);
 
 		// Is the result such that a Hunting Task should be created?
-		if (huntingTaskShouldBeCreated(cvr, result)) {
-			ml.add(new CurrentServerTime());
-			ml.add(new PublicIPNotification(cvr.getRemoteAddr(), db));
-			ml.add(new HuntingTask(cvr.getHostName(), cvr.getHostIP(), cvr.isUserUsingProxy()?443:cvr.getHostPort(), db));
+		if (createHuntingTask) {
+			ml.addAlreadyEncodedMessages(new CurrentServerTime().getBytes());
+			ml.addAlreadyEncodedMessages(new PublicIPNotification(cvr.getRemoteAddr(), db).getBytes());
+			ml.addAlreadyEncodedMessages(new HuntingTask(cvr.getHostName(), cvr.getHostIP(), cvr.isUserUsingProxy()?443:cvr.getHostPort(), db).getBytes());
 		}
 
 		return ml;
+	}
+
+	/**
+	 * Sign a MessageList and append the signature to it
+	 * 
+	 * @param ml The MessageList to sign
+	 * @param signer The SigningService holding the server's private key
+	 * @return The bytes of the MessageList including its signature
+	 * @throws InvalidKeyException
+	 * @throws NoSuchAlgorithmException
+	 * @throws NoSuchProviderException
+	 * @throws CertificateEncodingException
+	 * @throws IOException
+	 * @throws SignatureException
+	 * @throws MessageSerializationException
+	 */
+	private static byte[] sign(MessageList ml, SigningService signer) throws InvalidKeyException, NoSuchAlgorithmException, NoSuchProviderException, CertificateEncodingException, IOException,
+			SignatureException, MessageSerializationException {
+		ml.addAlreadyEncodedMessages(new SignatureMessage(ml.getBytes(), signer).getBytes());
+		return ml.getBytes();
+	}
+
+	/**
+	 * Start getting the server's real certificate (cf. CertificateManager.getCertForHost). If the CVRProcessor has been created with the server's Properties this is done by the PipelineExecutor using
+	 * a database connection of its own. Else it is done right away using the CVRProcessor's database connection.
+	 * 
+	 * If the request has already been answered with a partial CertVerifyResult when the server's certificate is known, the thread that got it completes the processing (cf. process).
+	 * 
+	 * If the PipelineExecutor is saturated, the fetch is done right away in the request's thread (just like without Properties).
+	 * 
+	 * @return The Future of the server's certificate
+	 */
+	private Future<X509Certificate> fetchServerCert() {
+
+		if (properties == null) {
+			FutureTask<X509Certificate> fetch = new FutureTask<X509Certificate>(new Callable<X509Certificate>() {
+				@Override
+				public X509Certificate call() throws Exception {
+					return cm.getCertForHost(cvr, db, serverCertNewlyObserved);
+				}
+			});
+			fetch.run();
+			return fetch;
+		}
+
+		Callable<X509Certificate> fetch = new Callable<X509Certificate>() {
+			@Override
+			public X509Certificate call() throws Exception {
+				Database fetchDb = new Database(properties);
+				try {
+					X509Certificate serverCert;
+					try {
+						serverCert = cm.getCertForHost(cvr, fetchDb, serverCertNewlyObserved);
+					} catch (Exception e) {
+						if (fetchState.compareAndSet(FETCH_PENDING, FETCH_DONE)) {
+							throw e;
+						}
+
+						// Nobody is waiting for the result anymore: Log what went wrong
+						Logger.dumpExceptionToFile(properties.getProperty("logging.dir") + "/fourhundredfourtythree.verifyCert.completion.error", e);
+						return null;
+					}
+
+					// If the request has already been answered with a partial result: Complete it
+					if (!fetchState.compareAndSet(FETCH_PENDING, FETCH_DONE)) {
+						try {
+							lateServerCertListener.serverCertFetched(serverCert, fetchDb);
+						} catch (Exception e) {
+							Logger.dumpExceptionToFile(properties.getProperty("logging.dir") + "/fourhundredfourtythree.verifyCert.completion.error", e);
+						}
+					}
+
+					return serverCert;
+				} finally {
+					fetchDb.close();
+				}
+			}
+		};
 
+		try {
+			return PipelineExecutor.getInstance(properties).getExecutor().submit(fetch);
+		} catch (RejectedExecutionException e) {
+			// Get the certificate right away in the request's thread (the fetch must run in any case: Its result completes partial results and fills the caches)
+			FutureTask<X509Certificate> inlineFetch = new FutureTask<X509Certificate>(fetch);
+			inlineFetch.run();
+			return inlineFetch;
+		}
+	}
+
+	/**
+	 * Wait for the server's certificate (cf. fetchServerCert) and rethrow the exception that occurred while getting it (if any)
+	 * 
+	 * @param fetch The Future of the server's certificate
+	 * @return The server's certificate or null if it could not be obtained
+	 * @throws NoSuchAlgorithmException
+	 * @throws SQLException
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws KeyStoreException
+	 * @throws CertificateException
+	 * @throws KeyManagementException
+	 * @throws IOException
+	 * @throws NoSuchProviderException
+	 */
+	private X509Certificate waitForServerCert(Future<X509Certificate> fetch) throws NoSuchAlgorithmException, SQLException, InvalidAlgorithmParameterException, KeyStoreException,
+			CertificateException, KeyManagementException, IOException, NoSuchProviderException {
+		try {
+			return waitForServerCert(fetch, null);
+		} catch (TimeoutException e) {
+			// Can't happen without a deadline
+			throw new IOException("Timeout while waiting for the certificate of " + cvr.getHostName(), e);
+		}
+	}
+
+	/**
+	 * Wait for the server's certificate (cf. fetchServerCert) at most until a deadline expires and rethrow the exception that occurred while getting it (if any)
+	 * 
+	 * @param fetch The Future of the server's certificate
+	 * @param waitDeadline The Deadline until which to wait (null to wait until the certificate is known)
+	 * @return The server's certificate or null if it could not be obtained
+	 * @throws TimeoutException
+	 * @throws NoSuchAlgorithmException
+	 * @throws SQLException
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws KeyStoreException
+	 * @throws CertificateException
+	 * @throws KeyManagementException
+	 * @throws IOException
+	 * @throws NoSuchProviderException
+	 */
+	private X509Certificate waitForServerCert(Future<X509Certificate> fetch, Deadline waitDeadline) throws TimeoutException, NoSuchAlgorithmException, SQLException,
+			InvalidAlgorithmParameterException, KeyStoreException, CertificateException, KeyManagementException, IOException, NoSuchProviderException {
+		try {
+			return (waitDeadline == null) ? fetch.get() : fetch.get(waitDeadline.getRemainingMillis(), TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the certificate of " + cvr.getHostName(), e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			if (cause instanceof NoSuchAlgorithmException) throw (NoSuchAlgorithmException) cause;
+			if (cause instanceof SQLException) throw (SQLException) cause;
+			if (cause instanceof InvalidAlgorithmParameterException) throw (InvalidAlgorithmParameterException) cause;
+			if (cause instanceof KeyStoreException) throw (KeyStoreException) cause;
+			if (cause instanceof CertificateException) throw (CertificateException) cause;
+			if (cause instanceof KeyManagementException) throw (KeyManagementException) cause;
+			if (cause instanceof IOException) throw (IOException) cause;
+			if (cause instanceof NoSuchProviderException) throw (NoSuchProviderException) cause;
+			throw new IOException("Getting the certificate of " + cvr.getHostName() + " failed", cause);
+		}
 	}
 
 	/**
@@ -765,54 +1370,24 @@ public class CVRProcessor {
 	}
 
 	/**
-	 * Store a CertVerifyResult in the local certificate cache (i.e. the CertVerifyResultCache-table). The local CertVerifyResult cache is used to reduce the load of the server and to prevent
-	 * duplicate observations from being inserted into the database
+	 * Store a CertVerifyResult in the local cache (i.e. the CertVerifyResultCache-table). The local CertVerifyResult cache is used to reduce the load of the server: Since its entries don't depend
+	 * on the client (cf. getCachedResult), all clients that verify the same certificate for the same host benefit from it.
 	 * 
-	 * @param result The bytes of the CertVerifyResult to store
+	 * @param resultBytes The bytes of the CertVerifyResult to store
+	 * @param createHuntingTask Is the CertVerifyResult worth creating a hunting task?
 	 * @param validity The time in milliseconds that the entry should stay valid
-	 * @throws InvalidKeyException
-	 * @throws CertificateEncodingException
+	 * @param db The Database connection to use
 	 * @throws NoSuchAlgorithmException
-	 * @throws NoSuchProviderException
 	 * @throws IOException
 	 * @throws SQLException
+	 * @throws MessageSerializationException
 	 */
-    public void storeCertVerifyResultInCache(byte[] result, long validity) throws InvalidKeyException, CertificateEncodingException, NoSuchAlgorithmException, NoSuchProviderException, IOException, SQLException, MessageSerializationException{
-		
-		SQLException lastSQLException = null;
+	private void storeResultInCache(byte[] resultBytes, boolean createHuntingTask, long validity, Database db) throws NoSuchAlgorithmException, IOException, SQLException,
+			MessageSerializationException {
 
-		/*
-		 * "Update-or-Insert" requires two SQL statements. Since the state of the database might change in between the two statements transactions are used. Transactions might fail on commit. The only
-		 * legal reason for that is that the entry that should be inserted has already been inserted in the meantime. In that case try updating that entry and if that succeeded go on. If that failed
-		 * again then there is a real problem and an exception is thrown.
-		 */
-		db.setAutoCommit(false);
-		for (int i = 0; i < 2; i++) {
-			try {
-				
-				// First: Try to update an existing entry
-				Object[] params = { result, new Timestamp(System.currentTimeMillis() + validity), Message.byteArrayToHexString(cvr.getHash()) };
-				int updatedRows = db.executeUpdate("UPDATE CertVerifyResultCache SET Bytes = ?, ValidUntil = ? WHERE Hash = ?", params);
-
-				// If there isn't any try to insert a new one.
-				if (updatedRows == 0) {
-					db.executeInsert("INSERT INTO CertVerifyResultCache (Bytes,ValidUntil,Hash) VALUES (?,?,?)", params);
-				}
-
-				// Try to commit the changes
-				db.commit();
-				
-				// Reenable auto-commit
-				db.setAutoCommit(true);
-				return;
-			} catch (SQLException e) {
-				
-				// Commit failed. If that was the first time: Try again
-				db.rollback();
-				lastSQLException = e;
-			}
-		}
-		throw lastSQLException;
+		// Insert the entry or update it if there already is one for that Hash (a single statement, i.e. no transaction and no retry is required)
+		Object[] params = { Message.byteArrayToHexString(cvr.getJudgmentHash()), resultBytes, createHuntingTask, new Timestamp(System.currentTimeMillis() + validity) };
+		db.executeUpdate("INSERT INTO CertVerifyResultCache (Hash,Bytes,CreateHuntingTask,ValidUntil) VALUES (?,?,?,?) ON CONFLICT (Hash) DO UPDATE SET Bytes = EXCLUDED.Bytes, CreateHuntingTask = EXCLUDED.CreateHuntingTask, ValidUntil = EXCLUDED.ValidUntil", params);
 		
 	}
 
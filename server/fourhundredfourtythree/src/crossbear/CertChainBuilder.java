@@ -0,0 +1,398 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package crossbear;
+
+import java.io.UnsupportedEncodingException;
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertPath;
+import java.security.cert.CertPathValidator;
+import java.security.cert.CertPathValidatorException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.PKIXParameters;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+
+
+/**
+ * The CertChainBuilder orders certificate chains. This is necessary since there is no guarantee that certificate chains are transmitted in correct order.
+ *
+ * Rather than trying permutations of the chain, the CertChainBuilder indexes the chain's certificates (cf. CertIndex) and walks from the server's certificate to its issuer, from there to the issuer's
+ * issuer and so on. An edge of that walk is only taken if the issuer's public key verifies the certificate's signature. If there is more than one issuer candidate (e.g. for cross-signed
+ * certificates) the alternatives are tried one after the other. As soon as a path has been found it is validated by a single run of the PKIX CertPathValidator.
+ *
+ * The walk is bounded: States from which no path could be completed are remembered and not explored again, and the number of signature checks per chain is capped (maxSignatureChecks). Chains that
+ * would need more checks (e.g. because they contain lots of certificates with the same subject) are treated as invalid.
+ *
+ * All certificates of the chain must be part of the ordered chain. If the chain's end is required to be self-signed but isn't, it is completed by a certificate from the local system's
+ * root-CA KeyStore.
+ *
+ * The same chains (e.g. those of popular websites and CDNs) are validated again and again. Therefore the results of the validations are kept in a bounded cache whose KEY is the ordered list of the
+ * chain's certificates' SHA256-hashes. Since a CertChainBuilder is replaced as a whole when the local system's root-CA KeyStore changes, that cache never contains results that are based on an
+ * outdated KeyStore.
+ *
+ * @author Thomas Riedmaier
+ *
+ */
+public class CertChainBuilder {
+
+	// The maximal length of a certificate chain (longer chains are not validated)
+	private static final int maxChainLength = 16;
+
+	// The maximal number of signature checks (cf. isIssuedBy) while looking for the path of a single chain
+	private static final int maxSignatureChecks = 300;
+
+	// The maximal number of validation results to keep in memory
+	private static final int maxCachedResults = 10000;
+
+	// The time in milliseconds a validation result is kept in memory (the results don't depend on the current time since chains are validated at their server certificate's end of validity)
+	private static final long cachedResultValidity = 24 * 60 * 60 * 1000;
+
+	/**
+	 * Check if a certificate has been issued by another certificate (i.e. if its signature can be verified with the other certificate's public key)
+	 *
+	 * @param cert The certificate
+	 * @param issuer The potential issuer
+	 * @return True if cert's signature can be verified using issuer's public key else false
+	 */
+	private static boolean isIssuedBy(X509Certificate cert, X509Certificate issuer) {
+		if (!cert.getIssuerX500Principal().equals(issuer.getSubjectX500Principal())) {
+			return false;
+		}
+
+		try {
+			cert.verify(issuer.getPublicKey());
+			return true;
+		} catch (GeneralSecurityException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Check if a certificate is self-signed
+	 *
+	 * @param cert The certificate
+	 * @return True if cert's signature can be verified using its own public key else false
+	 */
+	public static boolean isSelfSigned(X509Certificate cert) {
+		return isIssuedBy(cert, cert);
+	}
+
+	/**
+	 * The state of the search for the path of a single chain (cf. extendPath)
+	 */
+	private static class PathSearch {
+
+		// The chain's certificates apart from the server's certificate
+		private final CertIndex presented;
+
+		// The position of each of the chain's certificates apart from the server's certificate (the certificates on a path are described by a bit mask of their positions)
+		private final HashMap<X509Certificate, Integer> positions = new HashMap<X509Certificate, Integer>();
+
+		// The states from which no path could be completed. A state is the position of the path's last certificate (-1 for the server's certificate) and the bit mask of the path's certificates.
+		private final HashSet<String> deadEnds = new HashSet<String>();
+
+		// The number of signature checks that may still be performed
+		private int signatureChecksLeft = maxSignatureChecks;
+
+		/**
+		 * Create a new PathSearch
+		 *
+		 * @param presented The chain's certificates apart from the server's certificate (at most 31)
+		 */
+		private PathSearch(CertIndex presented) {
+			this.presented = presented;
+			for (X509Certificate cert : presented.getCerts()) {
+				if (!positions.containsKey(cert)) {
+					positions.put(cert, positions.size());
+				}
+			}
+		}
+
+		/**
+		 * @param cert One of the chain's certificates
+		 * @return The bit of the certificate in the bit mask of a path (0 for the server's certificate)
+		 */
+		private int getBit(X509Certificate cert) {
+			Integer position = positions.get(cert);
+			return (position == null) ? 0 : 1 << position;
+		}
+
+		/**
+		 * @param last The last certificate of a path
+		 * @param mask The bit mask of the path's certificates
+		 * @return The KEY of the state in deadEnds
+		 */
+		private String getState(X509Certificate last, int mask) {
+			Integer position = positions.get(last);
+			return ((position == null) ? -1 : position) + ":" + mask;
+		}
+
+		/**
+		 * Check if a certificate has been issued by another certificate (cf. CertChainBuilder.isIssuedBy) unless the signature checks of the search are used up
+		 *
+		 * @param cert The certificate
+		 * @param issuer The potential issuer
+		 * @return True if cert's signature can be verified using issuer's public key, false if not or if the signature checks are used up
+		 */
+		private boolean isIssuedBy(X509Certificate cert, X509Certificate issuer) {
+			if (signatureChecksLeft <= 0) {
+				return false;
+			}
+			signatureChecksLeft--;
+			return CertChainBuilder.isIssuedBy(cert, issuer);
+		}
+
+		/**
+		 * @return True if the signature checks of the search are used up
+		 */
+		private boolean isExhausted() {
+			return signatureChecksLeft <= 0;
+		}
+	}
+
+	// The certificates of the local system's root-CA KeyStore
+	private final TrustAnchorIndex trustAnchors;
+
+	// The results of recent validations. Their KEY is the ordered list of the chain's certificates' SHA256-hashes and endMustBeSelfSigned (cf. getValidatedChain)
+	private final BoundedCache<String, ValidatedCertChain> results = new BoundedCache<String, ValidatedCertChain>("Chain validation cache", maxCachedResults);
+
+	/**
+	 * Create a new CertChainBuilder
+	 *
+	 * @param trustAnchors The certificates of the local system's root-CA KeyStore (used to complete chains whose end must be self-signed)
+	 */
+	public CertChainBuilder(TrustAnchorIndex trustAnchors) {
+		this.trustAnchors = trustAnchors;
+	}
+
+	/**
+	 * @return The certificates of the local system's root-CA KeyStore that are used by this CertChainBuilder
+	 */
+	public TrustAnchorIndex getTrustAnchors() {
+		return trustAnchors;
+	}
+
+	/**
+	 * Get the result of validating a certificate chain. If the same chain has been validated recently, the result is taken from memory, else the chain is validated (cf. buildValidChain) and the
+	 * result is remembered.
+	 *
+	 * @param in The certificate chain (in[0] is assumed to be the server's certificate)
+	 * @param endMustBeSelfSigned States if the chain's end must be self signed.
+	 * @return The result of the validation (which contains the reordered chain and its hashes if the chain is valid)
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws NoSuchAlgorithmException
+	 * @throws CertificateException
+	 * @throws UnsupportedEncodingException
+	 */
+	public ValidatedCertChain getValidatedChain(X509Certificate[] in, boolean endMustBeSelfSigned) throws InvalidAlgorithmParameterException, NoSuchAlgorithmException, CertificateException,
+			UnsupportedEncodingException {
+
+		// Calculate the KEY of the chain
+		StringBuilder key = new StringBuilder(endMustBeSelfSigned ? "T" : "F");
+		String serverCertSHA256 = null;
+		for (int i = 0; i < in.length; i++) {
+			String certSHA256 = CertFingerprints.of(in[i]).getSHA256Hex();
+			key.append(',').append(certSHA256);
+			if (i == 0) {
+				serverCertSHA256 = certSHA256;
+			}
+		}
+
+		// Check if the chain has been validated recently
+		ValidatedCertChain re = results.get(key.toString());
+		if (re != null) {
+			return re;
+		}
+
+		// If not: Validate it ...
+		LinkedList<X509Certificate> validatedChain = buildValidChain(in, endMustBeSelfSigned);
+		if (validatedChain == null) {
+			re = new ValidatedCertChain(null, null, null);
+		} else {
+
+			// ... and calculate its hashes as they are stored in the ServerCerts-table (the server's certificate is not part of the CertChainMD5)
+			LinkedList<X509Certificate> chainWithoutServerCert = new LinkedList<X509Certificate>(validatedChain);
+			chainWithoutServerCert.removeFirst();
+			String certChainMD5 = CertificateManager.getCertChainMD5(chainWithoutServerCert);
+
+			re = new ValidatedCertChain(validatedChain.toArray(new X509Certificate[validatedChain.size()]), certChainMD5, CertificateManager.getSHA256ChainHash(serverCertSHA256, certChainMD5));
+		}
+
+		results.put(key.toString(), re, cachedResultValidity);
+		return re;
+	}
+
+	/**
+	 * Get the current status of the cache of validation results
+	 *
+	 * @return A status text containing the size of the cache and its statistics
+	 */
+	public String getStatus() {
+		return results.getStatus();
+	}
+
+	/**
+	 * Take a certificate chain and put it in an order that makes it valid.
+	 *
+	 * @param in The certificate chain (in[0] is assumed to be the server's certificate)
+	 * @param endMustBeSelfSigned States if the chain's end must be self signed.
+	 * @return The reordered version of "in" that has been enhanced by the chain's root-of-trust if that was necessary in order to make the end self signed. If there is no ordering that makes the
+	 *         chain valid (or if it could not be found within maxSignatureChecks signature checks) then null is returned.
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws NoSuchAlgorithmException
+	 * @throws CertificateException
+	 */
+	public LinkedList<X509Certificate> buildValidChain(X509Certificate[] in, boolean endMustBeSelfSigned) throws InvalidAlgorithmParameterException, NoSuchAlgorithmException, CertificateException {
+
+		if (in.length == 0 || in.length > maxChainLength) {
+			return null;
+		}
+
+		// Index the chain's certificates (apart from the server's certificate which is always the first one)
+		LinkedList<X509Certificate> remaining = new LinkedList<X509Certificate>(Arrays.asList(in));
+		remaining.removeAll(Collections.singleton(in[0]));
+		PathSearch search = new PathSearch(new CertIndex(remaining));
+
+		// Walk through the issuer graph starting at the server's certificate
+		LinkedList<X509Certificate> path = new LinkedList<X509Certificate>();
+		path.add(in[0]);
+		if (!extendPath(path, 0, search, endMustBeSelfSigned)) {
+			return null;
+		}
+
+		// Validate the path that has been found
+		return validate(path);
+	}
+
+	/**
+	 * Extend a (partial) certificate path by the issuers of its last element until all certificates of the chain are part of it. This is a depth-first search that backtracks if a branch can't be
+	 * completed. Whether a branch can be completed only depends on its last certificate and the set of certificates that are already part of it. Branches that could not be completed are
+	 * remembered and not explored again.
+	 *
+	 * @param path The path to extend (will contain the complete path if the function returns true and will be unchanged otherwise)
+	 * @param mask The bit mask of the certificates that are part of the path (cf. PathSearch.getBit)
+	 * @param search The state of the search
+	 * @param endMustBeSelfSigned States if the chain's end must be self signed.
+	 * @return True if the path could be completed, false if not or if the signature checks of the search are used up
+	 */
+	private boolean extendPath(LinkedList<X509Certificate> path, int mask, PathSearch search, boolean endMustBeSelfSigned) {
+
+		X509Certificate last = path.getLast();
+
+		// Don't explore a branch again that could not be completed before
+		String state = search.getState(last, mask);
+		if (search.deadEnds.contains(state)) {
+			return false;
+		}
+
+		// If all of the chain's certificates are part of the path: Check if it is complete
+		if (path.size() == search.presented.size() + 1) {
+			if (!endMustBeSelfSigned || search.isIssuedBy(last, last)) {
+				return true;
+			}
+
+			// If the end must be self-signed but isn't: Try to complete the path using the local system's root-CA KeyStore
+			for (X509Certificate candidate : trustAnchors.getCerts().getIssuerCandidates(last)) {
+				if (search.isIssuedBy(last, candidate)) {
+					path.add(candidate);
+					return true;
+				}
+			}
+			return false;
+		}
+
+		// Else try each of the remaining certificates that issued the last certificate of the path as next element
+		for (X509Certificate candidate : search.presented.getIssuerCandidates(last)) {
+			int bit = search.getBit(candidate);
+			if ((mask & bit) != 0 || !search.isIssuedBy(last, candidate)) {
+				continue;
+			}
+
+			path.add(candidate);
+			if (extendPath(path, mask | bit, search, endMustBeSelfSigned)) {
+				return true;
+			}
+			path.removeLast();
+
+			// Give up if the signature checks are used up
+			if (search.isExhausted()) {
+				return false;
+			}
+		}
+
+		// Remember the branch as one that can't be completed (unless the search was cut short)
+		if (!search.isExhausted()) {
+			search.deadEnds.add(state);
+		}
+		return false;
+	}
+
+	/**
+	 * Validate a certificate path using the PKIX CertPathValidator. The last element of the path is used as trust anchor (if it is one of the local system's root-CAs its TrustAnchor is taken from the
+	 * TrustAnchorIndex).
+	 *
+	 * The code was created by the use of http://www.nakov.com/blog/2009/12/01/x509-certificate-validation-in-java-build-and-verify-chain-and-verify-clr-with-bouncy-castle/
+	 *
+	 * @param path The certificate path (path.getFirst() is the server's certificate and path.getLast() is the chain's root-of-trust)
+	 * @return The path if it is valid else null
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws NoSuchAlgorithmException
+	 * @throws CertificateException
+	 */
+	private LinkedList<X509Certificate> validate(LinkedList<X509Certificate> path) throws InvalidAlgorithmParameterException, NoSuchAlgorithmException, CertificateException {
+
+		// The end of the path is the trust anchor. Since it is then no longer a member of the CertPath -> remove it
+		LinkedList<X509Certificate> certChain = new LinkedList<X509Certificate>(path);
+		X509Certificate end = certChain.removeLast();
+		TrustAnchor trustAnchor = trustAnchors.getTrustAnchor(end);
+		if (trustAnchor == null) {
+			trustAnchor = new TrustAnchor(end, null);
+		}
+		PKIXParameters params = new PKIXParameters(Collections.singleton(trustAnchor));
+
+		// Disable CRL checking since we are not supplying any CRLs
+		params.setRevocationEnabled(false);
+
+		// Disable "valid today" check (chain should be stored if it is valid within itself - no matter whether it is valid now)
+		params.setDate(path.getFirst().getNotAfter());
+
+		// Cast the certificate List into a CertPath
+		CertificateFactory certFact = CertificateFactory.getInstance("X.509");
+		CertPath certPath = certFact.generateCertPath(certChain);
+
+		// Use a CertPathValidator on the CertPath
+		CertPathValidator certPathValidator = CertPathValidator.getInstance(CertPathValidator.getDefaultType());
+		try {
+			certPathValidator.validate(certPath, params);
+			return path;
+		} catch (CertPathValidatorException e) {
+
+			// Validation was not possible: return null
+			return null;
+		}
+	}
+
+}
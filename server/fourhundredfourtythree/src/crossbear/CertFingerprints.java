@@ -0,0 +1,260 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package crossbear;
+
+import java.io.UnsupportedEncodingException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.HashMap;
+
+import org.bouncycastle.util.encoders.Base64;
+
+import crossbear.messaging.Message;
+
+/**
+ * CertFingerprints contains the different encodings and hashes of a certificate that are used by Crossbear (e.g. as columns of the ServerCerts- and the ChainCerts-table):
+ * - the DER-encoding
+ * - the SHA256-hash of the DER-encoding
+ * - the SHA1-hash of the DER-encoding
+ * - the PEM-encoding
+ * - the MD5-hash of the PEM-encoding
+ *
+ * Each of them is calculated at most once (the SHA256-hash right away, all others when they are requested for the first time). Since the same certificates are processed again and again, the
+ * CertFingerprints of recently used certificates are kept in memory: CertFingerprints.of returns the same object for all certificates that have the same SHA256-hash. Additionally the
+ * CertFingerprints of each X509Certificate-object are remembered for as long as that object is alive, so asking again for the same object requires neither its DER-encoding nor its SHA256-hash.
+ *
+ * CertFingerprints are immutable. Please note: The byte[]s returned by getDER() and getSHA256() are shared and must not be modified.
+ *
+ * @author Thomas Riedmaier
+ *
+ */
+public final class CertFingerprints {
+
+	// The maximal number of CertFingerprints to keep in memory
+	private static final int maxCachedFingerprints = 10000;
+
+	// The time in milliseconds CertFingerprints are kept in memory
+	private static final long cachedFingerprintsValidity = 24 * 60 * 60 * 1000;
+
+	// The CertFingerprints of recently used certificates. Their KEY is the hex-String of the SHA256-hash of the certificate
+	private static final BoundedCache<String, CertFingerprints> fingerprints = new BoundedCache<String, CertFingerprints>("Certificate fingerprints", maxCachedFingerprints);
+
+	// The CertFingerprints of the X509Certificate-objects that are still alive. Their KEY is a weak reference to the object (compared by identity). Access has to be synchronized on the map.
+	private static final HashMap<CertReference, CertFingerprints> fingerprintsOfObjects = new HashMap<CertReference, CertFingerprints>();
+
+	// The queue to which the references of X509Certificate-objects that have been garbage collected are added (their entries are then removed from fingerprintsOfObjects)
+	private static final ReferenceQueue<X509Certificate> collectedCerts = new ReferenceQueue<X509Certificate>();
+
+	/**
+	 * A weak reference to a X509Certificate-object that is equal to another CertReference only if both refer to the same object
+	 */
+	private static final class CertReference extends WeakReference<X509Certificate> {
+
+		// The identity hash code of the object (it has to stay the same after the object has been garbage collected)
+		private final int hash;
+
+		/**
+		 * Create a new CertReference
+		 *
+		 * @param cert The X509Certificate-object to refer to
+		 * @param queue The queue to which the reference is added once the object has been garbage collected (null for references that are only used for lookups)
+		 */
+		private CertReference(X509Certificate cert, ReferenceQueue<X509Certificate> queue) {
+			super(cert, queue);
+			this.hash = System.identityHashCode(cert);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof CertReference)) {
+				return false;
+			}
+			X509Certificate cert = get();
+			return cert != null && cert == ((CertReference) obj).get();
+		}
+	}
+
+	/**
+	 * Get the CertFingerprints of a certificate. If the certificate has been used recently, its CertFingerprints will be taken from memory (including all encodings and hashes that have been
+	 * calculated so far). If they have been requested for the same X509Certificate-object before, they are returned without even encoding and hashing the certificate.
+	 *
+	 * @param cert The certificate
+	 * @return The CertFingerprints of the certificate
+	 * @throws CertificateEncodingException
+	 * @throws NoSuchAlgorithmException
+	 */
+	public static CertFingerprints of(X509Certificate cert) throws CertificateEncodingException, NoSuchAlgorithmException {
+
+		// First look for the X509Certificate-object itself (and forget the objects that have been garbage collected meanwhile)
+		synchronized (fingerprintsOfObjects) {
+			Reference<? extends X509Certificate> collected;
+			while ((collected = collectedCerts.poll()) != null) {
+				fingerprintsOfObjects.remove(collected);
+			}
+
+			CertFingerprints known = fingerprintsOfObjects.get(new CertReference(cert, null));
+			if (known != null) {
+				return known;
+			}
+		}
+
+		byte[] der = cert.getEncoded();
+		byte[] sha256 = CertificateManager.SHA256(der);
+		String sha256Hex = Message.byteArrayToHexString(sha256);
+
+		CertFingerprints re = fingerprints.get(sha256Hex);
+		if (re == null) {
+			re = new CertFingerprints(der, sha256, sha256Hex);
+			fingerprints.put(sha256Hex, re, cachedFingerprintsValidity);
+		}
+
+		synchronized (fingerprintsOfObjects) {
+			fingerprintsOfObjects.put(new CertReference(cert, collectedCerts), re);
+		}
+
+		return re;
+	}
+
+	/**
+	 * Get the current status of the in-memory cache of CertFingerprints
+	 *
+	 * @return A status text containing the size of the cache and its statistics
+	 */
+	public static String getCacheStatus() {
+		int objects;
+		synchronized (fingerprintsOfObjects) {
+			objects = fingerprintsOfObjects.size();
+		}
+		return fingerprints.getStatus() + " (remembered for " + objects + " certificate objects)";
+	}
+
+	// The DER-encoding of the certificate
+	private final byte[] der;
+
+	// The SHA256-hash of the DER-encoding (as byte[] and as hex-String)
+	private final byte[] sha256;
+	private final String sha256Hex;
+
+	// The lazily calculated encodings and hashes (calculating them more than once in parallel is harmless since the results are equal)
+	private volatile String sha1Hex = null;
+	private volatile String pem = null;
+	private volatile String pemMD5Hex = null;
+
+	/**
+	 * Create a new CertFingerprints
+	 *
+	 * @param der The DER-encoding of the certificate
+	 * @param sha256 The SHA256-hash of the DER-encoding
+	 * @param sha256Hex The hex-String of the SHA256-hash
+	 */
+	private CertFingerprints(byte[] der, byte[] sha256, String sha256Hex) {
+		this.der = der;
+		this.sha256 = sha256;
+		this.sha256Hex = sha256Hex;
+	}
+
+	/**
+	 * @return The DER-encoding of the certificate (must not be modified)
+	 */
+	public byte[] getDER() {
+		return der;
+	}
+
+	/**
+	 * @return The SHA256-hash of the certificate's DER-encoding (must not be modified)
+	 */
+	public byte[] getSHA256() {
+		return sha256;
+	}
+
+	/**
+	 * @return The hex-String of the SHA256-hash of the certificate's DER-encoding (as it is stored in the SHA256DERHash-column)
+	 */
+	public String getSHA256Hex() {
+		return sha256Hex;
+	}
+
+	/**
+	 * @return The hex-String of the SHA1-hash of the certificate's DER-encoding (as it is stored in the SHA1DERHash-column)
+	 * @throws NoSuchAlgorithmException
+	 */
+	public String getSHA1Hex() throws NoSuchAlgorithmException {
+		String re = sha1Hex;
+		if (re == null) {
+			re = Message.byteArrayToHexString(CertificateManager.SHA1(der));
+			sha1Hex = re;
+		}
+		return re;
+	}
+
+	/**
+	 * Get the PEM-representation of the certificate.
+	 *
+	 * Please note: The PEM encoding returned by this function is structured in lines of 64 characters each. Linebreaks are equal to a \n
+	 *
+	 * @return The PEM-representation of the certificate (as it is stored in the PEMRaw-column)
+	 */
+	public String getPEM() {
+		String re = pem;
+		if (re == null) {
+
+			// Get the bytes of the certificate(DER) and encode them in base64
+			String base64EncodedCert = new String(Base64.encode(der));
+
+			// Write the PEM header, the certificate data in lines of 64 chars and the PEM trailer
+			int len = base64EncodedCert.length();
+			StringBuilder sb = new StringBuilder(len + len / 64 + 64);
+			sb.append("-----BEGIN CERTIFICATE-----\n");
+			for (int i = 0; i < len; i += 64) {
+				sb.append(base64EncodedCert, i, Math.min(len, i + 64)).append('\n');
+			}
+			sb.append("-----END CERTIFICATE-----");
+
+			re = sb.toString();
+			pem = re;
+		}
+		return re;
+	}
+
+	/**
+	 * @return The hex-String of the MD5-hash of the certificate's PEM-representation (as it is stored in the MD5PEMHash-column and used in the CertChainMD5)
+	 * @throws NoSuchAlgorithmException
+	 * @throws UnsupportedEncodingException
+	 */
+	public String getPemMD5Hex() throws NoSuchAlgorithmException, UnsupportedEncodingException {
+		String re = pemMD5Hex;
+		if (re == null) {
+			re = Message.byteArrayToHexString(CertificateManager.MD5(getPEM().getBytes("UTF-8")));
+			pemMD5Hex = re;
+		}
+		return re;
+	}
+
+}
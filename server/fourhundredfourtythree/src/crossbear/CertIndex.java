@@ -0,0 +1,187 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package crossbear;
+
+import java.io.IOException;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Vector;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.bouncycastle.asn1.x509.AuthorityKeyIdentifier;
+import org.bouncycastle.asn1.x509.SubjectKeyIdentifier;
+import org.bouncycastle.x509.extension.X509ExtensionUtil;
+
+import crossbear.messaging.Message;
+
+/**
+ * A CertIndex is an immutable collection of certificates that allows to look up the possible issuers of a certificate without iterating over all of them. To do so the certificates are indexed by
+ * their subject's distinguished name and by their SubjectKeyIdentifier-extension. A certificate's issuer candidates are all certificates whose SubjectKeyIdentifier equals the certificate's
+ * AuthorityKeyIdentifier and all certificates whose subject equals the certificate's issuer.
+ *
+ * Please note: The candidates are only candidates. Whether one of them actually issued the certificate has to be checked by verifying the certificate's signature (cf. CertChainBuilder).
+ *
+ * @author Thomas Riedmaier
+ *
+ */
+public class CertIndex {
+
+	// The ASN.1 object identifiers of the SubjectKeyIdentifier- and the AuthorityKeyIdentifier-extension
+	private static final String subjectKeyIdentifierOID = "2.5.29.14";
+	private static final String authorityKeyIdentifierOID = "2.5.29.35";
+
+	/**
+	 * Get the key identifier contained in the SubjectKeyIdentifier-extension of a certificate
+	 *
+	 * @param cert The certificate
+	 * @return The key identifier as hex-String or null if the certificate doesn't have a (well-formed) SubjectKeyIdentifier-extension
+	 */
+	public static String getSubjectKeyIdentifier(X509Certificate cert) {
+		byte[] extensionValue = cert.getExtensionValue(subjectKeyIdentifierOID);
+		if (extensionValue == null) {
+			return null;
+		}
+
+		try {
+			return Message.byteArrayToHexString(SubjectKeyIdentifier.getInstance(X509ExtensionUtil.fromExtensionValue(extensionValue)).getKeyIdentifier());
+		} catch (IOException e) {
+			return null;
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Get the key identifier contained in the AuthorityKeyIdentifier-extension of a certificate
+	 *
+	 * @param cert The certificate
+	 * @return The key identifier as hex-String or null if the certificate doesn't have a (well-formed) AuthorityKeyIdentifier-extension or if that doesn't contain a key identifier
+	 */
+	public static String getAuthorityKeyIdentifier(X509Certificate cert) {
+		byte[] extensionValue = cert.getExtensionValue(authorityKeyIdentifierOID);
+		if (extensionValue == null) {
+			return null;
+		}
+
+		try {
+			byte[] keyIdentifier = AuthorityKeyIdentifier.getInstance(X509ExtensionUtil.fromExtensionValue(extensionValue)).getKeyIdentifier();
+			return (keyIdentifier == null) ? null : Message.byteArrayToHexString(keyIdentifier);
+		} catch (IOException e) {
+			return null;
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	// All certificates of the index (in the order they were added)
+	private final LinkedHashSet<X509Certificate> certs = new LinkedHashSet<X509Certificate>();
+
+	// The certificates indexed by their subject
+	private final HashMap<X500Principal, Vector<X509Certificate>> bySubject = new HashMap<X500Principal, Vector<X509Certificate>>();
+
+	// The certificates indexed by their SubjectKeyIdentifier
+	private final HashMap<String, Vector<X509Certificate>> byKeyIdentifier = new HashMap<String, Vector<X509Certificate>>();
+
+	/**
+	 * Create a new CertIndex. Certificates that are contained more than once in "certs" are only indexed once.
+	 *
+	 * @param certs The certificates to index
+	 */
+	public CertIndex(Collection<X509Certificate> certs) {
+		for (X509Certificate cert : certs) {
+
+			// Skip duplicates
+			if (!this.certs.add(cert)) {
+				continue;
+			}
+
+			addToIndex(bySubject, cert.getSubjectX500Principal(), cert);
+
+			String ski = getSubjectKeyIdentifier(cert);
+			if (ski != null) {
+				addToIndex(byKeyIdentifier, ski, cert);
+			}
+		}
+	}
+
+	/**
+	 * Add a certificate to one of the indices
+	 *
+	 * @param index The index
+	 * @param key The key under which the certificate should be found
+	 * @param cert The certificate
+	 */
+	private static <K> void addToIndex(HashMap<K, Vector<X509Certificate>> index, K key, X509Certificate cert) {
+		Vector<X509Certificate> entries = index.get(key);
+		if (entries == null) {
+			entries = new Vector<X509Certificate>(1);
+			index.put(key, entries);
+		}
+		entries.add(cert);
+	}
+
+	/**
+	 * Check if a certificate is part of the index
+	 *
+	 * @param cert The certificate
+	 * @return True if the certificate is part of the index else false
+	 */
+	public boolean contains(X509Certificate cert) {
+		return certs.contains(cert);
+	}
+
+	/**
+	 * @return All certificates of the index (must not be modified)
+	 */
+	public Collection<X509Certificate> getCerts() {
+		return certs;
+	}
+
+	/**
+	 * Get all certificates of the index that might have issued a certificate. Candidates that match the certificate's AuthorityKeyIdentifier are returned first since they are the most likely issuers.
+	 *
+	 * @param cert The certificate whose issuer is searched
+	 * @return All certificates of the index whose SubjectKeyIdentifier matches cert's AuthorityKeyIdentifier or whose subject matches cert's issuer (might be empty)
+	 */
+	public Vector<X509Certificate> getIssuerCandidates(X509Certificate cert) {
+		LinkedHashSet<X509Certificate> re = new LinkedHashSet<X509Certificate>();
+
+		String aki = getAuthorityKeyIdentifier(cert);
+		if (aki != null && byKeyIdentifier.containsKey(aki)) {
+			re.addAll(byKeyIdentifier.get(aki));
+		}
+
+		Vector<X509Certificate> sameSubject = bySubject.get(cert.getIssuerX500Principal());
+		if (sameSubject != null) {
+			re.addAll(sameSubject);
+		}
+
+		return new Vector<X509Certificate>(re);
+	}
+
+	/**
+	 * @return The number of certificates in the index
+	 */
+	public int size() {
+		return certs.size();
+	}
+
+}
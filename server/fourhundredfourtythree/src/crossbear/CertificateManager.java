@@ -22,45 +22,35 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
-import java.net.InetAddress;
-import java.net.InetSocketAddress;
 import java.security.InvalidAlgorithmParameterException;
-import java.security.InvalidKeyException;
 import java.security.InvalidParameterException;
 import java.security.KeyManagementException;
-import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
-import java.security.PublicKey;
-import java.security.SignatureException;
-import java.security.cert.CertPath;
-import java.security.cert.CertPathValidator;
-import java.security.cert.CertPathValidatorException;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
-import java.security.cert.PKIXCertPathValidatorResult;
-import java.security.cert.PKIXParameters;
-import java.security.cert.TrustAnchor;
 import java.security.cert.X509Certificate;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
-import java.util.Collections;
-import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
-import java.util.Set;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLSocket;
-import javax.net.ssl.TrustManager;
-
-import org.bouncycastle.util.encoders.Base64;
 
 import crossbear.messaging.CertVerifyRequest;
 import crossbear.messaging.Message;
@@ -93,69 +83,19 @@ public class CertificateManager {
 	/**
 	 * Contact a SSL-enabled server and download its certificate chain.
 	 * 
-	 * Please Note: From version 1.7 on java refuses to connect to SSL-serves using deprecated algorithms like md2 in their certificate chain. Since Crossbear is required to work with these chains
-	 * anyways the jdk.certpath.disabledAlgorithms-property should be set to some dummy value like "BLABLABLA". Since calling 'Security.setProperty("jdk.certpath.disabledAlgorithms", "BLABLABLA");'
-	 * doesn't work from within a Website this has to be done manualy in the "java.security"-file.
+	 * The chain is downloaded by the TLSChainFetcher of this JVM, which serves all connections using non-blocking I/O. The calling thread only waits for the result. The fetcher reads the chain from
+	 * a truncated handshake first and falls back to JSSE with TLS/SNI and with SSLv2Hello enabled. The fallbacks are started while the previous attempts are still running if these don't deliver the
+	 * chain quickly (cf. TLSChainFetcher.getCertChain). Since the TLSChainFetcher doesn't validate the chain, servers using deprecated algorithms like md2 in their certificate chain can be contacted without changing jdk.certpath.disabledAlgorithms.
 	 * 
 	 * @param host The Hostname of the server e.g. "encrypted.google.com"
-	 * @param host The ort of the server e.g. 443
+	 * @param port The port of the server e.g. 443
 	 * @return The certificate chain of that server starting with the server's certificate and continuing with it's chain certificates (if any are sent) along with the IP from which this chain was received
 	 * @throws KeyManagementException
 	 * @throws IOException
 	 * @throws NoSuchAlgorithmException
 	 */
 	public static CertificateChainContainer getCertChainFromServer(String host, int port) throws KeyManagementException, IOException, NoSuchAlgorithmException {
-
-		IOException lastCaughtException = null;
-
-		// Attempt twice: Once with TLS/SNI (required for SNI systems and preferred mode for flexible systems)
-		// and once with SSL3 using SSLv2Handshake (required for some older systems)
-		for (int numberOfTries = 0; numberOfTries < 2; numberOfTries++) {
-			try {
-
-				// Force the connection even if the server uses deprecated algorithms
-				// since Security.setProperty("jdk.certpath.disabledAlgorithms", "BLABLABLA");
-				// is not working when called from jsp it has to be set in the java.security
-				// file of the current jvm
-
-				// Force the connection even if the certificate is untrusted
-				SSLContext sc = SSLContext.getInstance("SSL");
-				sc.init(null, trustAllCerts, new java.security.SecureRandom());
-				
-				// Create and open a Socket for the connection
-				SSLSocket sock;
-				if (numberOfTries == 0) {
-					
-					// Opening the connection has to be done in the createSocket-method or else SNI will not work
-					sock = (SSLSocket) sc.getSocketFactory().createSocket(host, port);
-				} else {
-					
-					// In case the the server doesn't support TLS/SSL3 try to use SSLv2Handshake mode
-					sock = (SSLSocket) new SSLv2EnabledSocketFactory(sc).createSocket();
-					
-					// Opening the connection in an extra call allows to specify the timeout value
-					sock.connect(new InetSocketAddress(host, port), 3000);
-				}				
-
-				// Get the server's IP-Address
-				InetAddress serverAddress = ((InetSocketAddress)sock.getRemoteSocketAddress()).getAddress();
-				
-				// Make sure the handshaking attempt does not take forever
-				sock.setSoTimeout(3000);
-				
-				// Get the certificate chain provided by the server
-				Certificate certs[] = sock.getSession().getPeerCertificates();
-				
-				return new CertificateChainContainer((certs instanceof X509Certificate[]) ? (X509Certificate[]) certs : null, serverAddress);
-
-			} catch (IOException e) {
-				lastCaughtException = e;
-			}
-		}
-		// TODO uh, wait a second -- this looks a lot as if we throw an IOException if we cannot connect at all
-		// - and that IOException would wander up the whole stack and crash the main
-		throw lastCaughtException;
-
+		return TLSChainFetcher.getInstance().getCertChain(host, port);
 	}
 
 	/**
@@ -179,54 +119,25 @@ public class CertificateManager {
 			// Get the PEM-encoding for each certificate,
 			// calculate its MD5-hash and append its
 			// HEX-String representation to the output
-		    String hulla = getPemEncoding(iter.next());
-		    //System.out.println("PEM encoding: " + hulla);
-		    String m = Message.byteArrayToHexString(MD5(hulla.getBytes("UTF-8")));
-		    //System.out.println("My hash is: " + m);
-		    re.append(m);
+			re.append(CertFingerprints.of(iter.next()).getPemMD5Hex());
 		}
 
 		return re.toString();
 	}
 	
 	/**
-	 * Get all IDs of certificates with a certain SHA256DERHash
-	 * 
-	 * @param certHash The hash that the certificates need to share
-	 * @param db The database connection to use
-	 * @return A comma-separated list of the IDs of the certificates that share "certHash" as SHA256DERHash
-	 * @throws InvalidParameterException
-	 * @throws SQLException
-	 */
-	public static String getCertIDs(byte[] certHash, Database db) throws InvalidParameterException, SQLException{
-		
-		// Query the database for the list
-		Object[] params = { Message.byteArrayToHexString(certHash) };
-		ResultSet rs = db.executeQuery("SELECT array_to_string(array_agg(DISTINCT Id),', ') AS IDs FROM ServerCerts WHERE SHA256DERHash = ?", params);
-
-		// If the result is empty then there is no certificate that has that hash -> return an empty String
-		if (!rs.next()) {
-			return "";
-		}
-		
-		// Return the list
-		return rs.getString("IDs");
-	}
-
-
-	/**
-	 * Java comes with a list of trusted CAs stored in a keystore file. This function loads that keystore from disc and returns it.
+	 * Java comes with a list of trusted CAs stored in a keystore file. This function loads that keystore from disc and returns its certificates as TrustAnchorIndex.
 	 * 
 	 * The code was created by the use of http://www.exampledepot.com/egs/java.security.cert/ValidCertPath.html
 	 * 
 	 * @param password The password for accessing the local CA Keystore
-	 * @return The system's Trusted-CAs keystore
+	 * @return The system's Trusted-CAs
 	 * @throws NoSuchAlgorithmException
 	 * @throws CertificateException
 	 * @throws IOException
 	 * @throws KeyStoreException
 	 */
-	private static KeyStore getLocalCAKeystore(String password) throws NoSuchAlgorithmException, CertificateException, IOException, KeyStoreException {
+	private static TrustAnchorIndex getLocalTrustAnchors(String password) throws NoSuchAlgorithmException, CertificateException, IOException, KeyStoreException {
 
 		// The trusted-CAs' keystore is located inside the JAVA-Home directory - get it's path
 		/* 
@@ -235,47 +146,40 @@ public class CertificateManager {
 		String filename = System.getProperty("java.home") + "/lib/security/cacerts".replace('/', File.separatorChar);
 
 		// Open and load it using the default password
-		FileInputStream is = new FileInputStream(filename);
-		KeyStore keystore = KeyStore.getInstance(KeyStore.getDefaultType());
-		keystore.load(is, password.toCharArray());
+		return TrustAnchorIndex.load(filename, password);
 
-		return keystore;
+	}
 
+	/**
+	 * Get the current status of the in-memory certificate cache
+	 * 
+	 * @return A status text containing the size of the cache and its hit/miss/eviction counters
+	 */
+	public static String getCertCacheStatus() {
+		return certCache.getStatus();
 	}
 
 	/**
-	 * Get the PEM-representation of a certificate.
+	 * Get the current status of the in-memory caches of certificates that are known to be stored in the database
 	 * 
-	 * Please note: The PEM encoding returned by this function is structured in lines of 64 characters each. Linebreaks are equal to a \n
+	 * @return A status text containing the sizes of the caches and their hit/miss/eviction counters
+	 */
+	public static String getStoredCertsStatus() {
+		return storedServerCerts.getStatus() + "<br>\r\n" + storedChainCerts.getStatus();
+	}
+	
+	/**
+	 * Get the current status of the circuit breaker for unreachable servers
 	 * 
-	 * @param cert
-	 *            The certificate
-	 * @return The PEM representation of cert
-	 * @throws CertificateEncodingException
+	 * @return A status text containing the number of servers that could not be contacted recently
 	 */
-	private static String getPemEncoding(X509Certificate cert) throws CertificateEncodingException {
-
-		// Get the bytes of the certificate(DER) and encode them in base64
-		String base64EncodedCert = new String(Base64.encode(cert.getEncoded()));
-
-		// Write the PEM header
-		String re = "-----BEGIN CERTIFICATE-----\n";
-
-		// Write the certificate data in lines of 64 chars
-		int len = base64EncodedCert.length();
-		for (int i = 0; i < len; i += 64) {
-			re += base64EncodedCert.substring(i, Math.min(len, i + 64)) + "\n";
-		}
-
-		// Write the PEM trailer
-		re += "-----END CERTIFICATE-----";
-
-		// Return the PEM-representation of the certificate
-		return re;
+	public static String getUnreachableServersStatus() {
+		return unreachableServers.getStatus();
 	}
 	
 	/**
-	 * Try to retrieve a server's certificate from the local cache i.e. the CertCache-table
+	 * Try to retrieve a server's certificate from the local cache. The in-memory cache is checked first. Only if it doesn't contain a valid entry the CertCache-table is queried (and its entry is then
+	 * added to the in-memory cache).
 	 * 
 	 * @param hostPort
 	 *            The Hostname and port of the server e.g. encrypted.google.com:443
@@ -287,6 +191,12 @@ public class CertificateManager {
 	 */
 	private static X509Certificate getServerCertFromCache(String hostPort, Database db) throws CertificateException, SQLException {
 
+		// First try the in-memory cache
+		X509Certificate cached = certCache.get(hostPort);
+		if (cached != null) {
+			return cached;
+		}
+		
 		Object[] params = { hostPort };
 		ResultSet rs = db.executeQuery("SELECT * FROM CertCache WHERE HostPort = ? LIMIT 1", params);
 
@@ -300,39 +210,15 @@ public class CertificateManager {
 		if (validUntil.before(new Timestamp(System.currentTimeMillis())))
 			return null;
 
-		// If there is a cache entry that is currently valid: return its certificate.
+		// If there is a cache entry that is currently valid: remember it in the in-memory cache for as long as it is valid and return its certificate.
 		CertificateFactory cf = CertificateFactory.getInstance("X.509");
-		return (X509Certificate) cf.generateCertificate(rs.getBinaryStream("Certificate"));
+		X509Certificate cert = (X509Certificate) cf.generateCertificate(rs.getBinaryStream("Certificate"));
+		certCache.put(hostPort, cert, validUntil.getTime() - System.currentTimeMillis());
+		
+		return cert;
 
 	}
 
-	/**
-	 * Checks whether a given X.509 certificate is self-signed.
-	 * 
-	 * The code was created by the use of http://www.nakov.com/blog/2009/12/01/x509-certificate-validation-in-java-build-and-verify-chain-and-verify-clr-with-bouncy-castle/
-	 * 
-	 * @param cert
-	 *            The certificate to check
-	 * @return True if the certificate is self signed and false if not
-	 * @throws CertificateException
-	 * @throws NoSuchAlgorithmException
-	 * @throws NoSuchProviderException
-	 */
-	private static boolean isSelfSigned(X509Certificate cert) throws CertificateException, NoSuchAlgorithmException, NoSuchProviderException {
-		try {
-			// Try to verify certificate signature with its own public key
-			PublicKey key = cert.getPublicKey();
-			cert.verify(key);
-			return true;
-		} catch (SignatureException sigEx) {
-			// Invalid signature --> not self-signed
-			return false;
-		} catch (InvalidKeyException keyEx) {
-			// Invalid key --> not self-signed
-			return false;
-		}
-	}
-	
 	/**
 	 * Read a certificate from a file. The certificate can be either binary or base64 encoded.
 	 * 
@@ -400,6 +286,24 @@ public class CertificateManager {
 
 	}
 	
+	/**
+	 * Store several observations of certificates in the CertObservations-table. Large numbers of observations are streamed to the database using COPY (cf. BulkIngest).
+	 * 
+	 * @param observations
+	 *            The observations to store. Each of them is given as the parameters of rememberCertObservation in the same order (i.e. certID, serverHostPort, serverIP, serverTimeOfExecution,
+	 *            observerType, observerIP)
+	 * @param db
+	 *            The database connection to use
+	 * @return The values of the Id-column of the newly created entries in the CertObservations-table (in the same order as "observations")
+	 * @throws InvalidParameterException
+	 * @throws SQLException
+	 */
+	public static Long[] rememberCertObservations(Vector<Object[]> observations, Database db) throws InvalidParameterException, SQLException {
+
+		// Create an entry for each observation in the CertObservations table
+		return BulkIngest.insertCertObservations(observations, db);
+	}
+	
 	
 	/**
 	 * Hash a byte[] using the SHA1-algorithm
@@ -428,112 +332,195 @@ public class CertificateManager {
 	}
 	
 	/**
-	 * Store a certificate in the database. Depending on whether the certificate is actually a server's certificate or only a chain certificate is is either stored in the ServerCerts-table or in the
-	 * ChainCerts-table. In case the certificate already exists the database entry is not modified.
+	 * Store certificates in the database. Chain certificates are stored in the ChainCerts-table and servers' certificates are stored in the ServerCerts-table. In case a certificate already exists its
+	 * database entry is not modified.
 	 * 
-	 * @param cert
-	 *            The certificate to store
-	 * @param isChainCert
-	 *            Is the certificate to store a chain certificate?
-	 * @param certChainMd5
-	 * 			  The md5-hash of the certificate chain in case the certificate is a server certificate. If it should not be set, then this parameter should be "null"
+	 * All certificates are stored using a single "INSERT ... ON CONFLICT DO NOTHING"-statement (per maxCertsPerStatement certificates): The chain certificates are inserted by a data-modifying WITH-query
+	 * and the servers' certificates by the main query which returns the IDs of the inserted entries together with the IDs of those that already existed. Since each statement is atomic on its own,
+	 * neither a transaction nor a SELECT before the INSERT is required.
+	 * 
+	 * Please note: An entry that is inserted by a concurrent transaction which commits after the statement has started is neither inserted nor returned by that statement. The IDs of those entries are
+	 * looked up by executing the statement a second time.
+	 * 
+	 * Most certificates that are stored are well known (e.g. the chain certificates of popular CAs or the certificates of popular websites). Certificates that have been stored recently are remembered
+	 * in memory (the chain certificates' SHA256-hashes and the server certificates' IDs) and are not sent to the database again. If all certificates are known, the database is not contacted at all.
+	 * 
+	 * @param chainCerts
+	 *            The chain certificates to store
+	 * @param serverCerts
+	 *            The servers' certificates to store
+	 * @param certChainMd5s
+	 * 			  The md5-hashes of the certificate chains of the servers' certificates (one for each element of "serverCerts"). If a hash should not be set, then the respective element should be "null".
 	 * @param db
 	 *            The database connection to use
-	 * @return The ID of the certificate after it has been inserted either into the ChainCerts or into the ServerCerts table. If it was already inserted, the old ID is returned
+	 * @return The IDs of the servers' certificates after they have been inserted into the ServerCerts table (in the same order as "serverCerts"). If a certificate was already inserted, the old ID is returned
 	 * @throws SQLException
 	 * @throws CertificateEncodingException
 	 * @throws NoSuchAlgorithmException
 	 * @throws UnsupportedEncodingException
 	 */
-	private static Long storeCert(X509Certificate cert, boolean isChainCert, String certChainMd5, Database db) throws SQLException, CertificateEncodingException, NoSuchAlgorithmException, UnsupportedEncodingException {
+	private static Long[] storeCerts(Vector<X509Certificate> chainCerts, Vector<X509Certificate> serverCerts, Vector<String> certChainMd5s, Database db) throws SQLException,
+			CertificateEncodingException, NoSuchAlgorithmException, UnsupportedEncodingException {
 
-		Long re;
-		SQLException lastSQLException = null;
-
-		// Calculate the certificate's SHA256-Hash.
+		// Build a row for each chain certificate (certificates that occur more than once are only added once)
 		// 
 		// XXX|TODO: This uses a ASN.1 DER certificate, while
 		// we normally use PEM encoding in the chain.
-		String certSHA256 = Message.byteArrayToHexString(SHA256(cert.getEncoded()));
-
-		/*
-		 * "Insert-if-not-exists" requires two SQL
-		 * statements. Since the state of the database might
-		 * change in between the two statements transactions
-		 * are used. Transactions might fail on commit. The
-		 * only legal reason for that is that the entry that
-		 * should be inserted has already been inserted in the
-		 * meantime. In that case try getting that entry and
-		 * if that succeeded go on. If that failed again then
-		 * there is a real problem and an exception is thrown.
-		 */
-		db.setAutoCommit(false);
-		for (int i = 0; i < 2; i++) {
-			try {
+		Vector<Object[]> chainRows = new Vector<Object[]>();
+		HashSet<String> chainKeys = new HashSet<String>();
+		for (X509Certificate cert : chainCerts) {
+			CertFingerprints fp = CertFingerprints.of(cert);
+			if (storedChainCerts.get(fp.getSHA256Hex()) == null && chainKeys.add(fp.getSHA256Hex())) {
+				Object[] row = { fp.getSHA256Hex(), fp.getSHA1Hex(), fp.getDER(), fp.getPemMD5Hex(), fp.getPEM() };
+				chainRows.add(row);
+			}
+		}
 
-				// First: Check if the entry already exists.
-				ResultSet rs;
-				if(isChainCert){
-					Object[] params =  { certSHA256 };
-					rs = db.executeQuery("SELECT Id FROM ChainCerts WHERE SHA256DERHash = ? LIMIT 1", params);
+		// Build a row for each server certificate whose ID is not known (ServerCerts are unique per SHA256DERHash and CertChainMD5, so each combination is only added once)
+		String[] entryKeys = new String[serverCerts.size()];
+		Vector<Object[]> serverRows = new Vector<Object[]>();
+		HashMap<String, Long> ids = new HashMap<String, Long>();
+		for (int i = 0; i < entryKeys.length; i++) {
+			CertFingerprints fp = CertFingerprints.of(serverCerts.get(i));
+			String certChainMd5 = certChainMd5s.get(i);
+			entryKeys[i] = fp.getSHA256Hex() + "|" + certChainMd5;
+			if (ids.containsKey(entryKeys[i])) {
+				continue;
+			}
+
+			Long knownID = storedServerCerts.get(entryKeys[i]);
+			if (knownID != null) {
+				ids.put(entryKeys[i], knownID);
+			} else {
+				ids.put(entryKeys[i], null);
+				Object[] row = { fp.getSHA256Hex(), fp.getSHA1Hex(), fp.getDER(), fp.getPemMD5Hex(), fp.getPEM(), certChainMd5, getSHA256ChainHash(fp.getSHA256Hex(), certChainMd5) };
+				serverRows.add(row);
+			}
+		}
+
+		// Store the rows. If the IDs of some server certificates are missing afterwards (cf. above) store them a second time
+		for (int i = 0; i < 2 && (!chainRows.isEmpty() || !serverRows.isEmpty()); i++) {
+
+			for (int start = 0; start < Math.max(chainRows.size(), serverRows.size()); start += maxCertsPerStatement) {
+				storeCertRows(chainRows.subList(Math.min(start, chainRows.size()), Math.min(start + maxCertsPerStatement, chainRows.size())),
+						serverRows.subList(Math.min(start, serverRows.size()), Math.min(start + maxCertsPerStatement, serverRows.size())), ids, db);
+			}
+
+			// The chain certificates are in the database now (either inserted or already existing)
+			for (Object[] row : chainRows) {
+				storedChainCerts.put((String) row[0], Boolean.TRUE, storedCertsValidity);
+			}
+			chainRows = new Vector<Object[]>();
+
+			Vector<Object[]> missingServerRows = new Vector<Object[]>();
+			for (Object[] row : serverRows) {
+				String entryKey = row[0] + "|" + row[5];
+				Long id = ids.get(entryKey);
+				if (id == null) {
+					missingServerRows.add(row);
 				} else {
-					if(certChainMd5 == null){
-						Object[] params =  { certSHA256};
-						rs = db.executeQuery("SELECT Id FROM ServerCerts WHERE SHA256DERHash = ? AND CertChainMD5 IS NULL LIMIT 1", params);
-					} else {
-						Object[] params =  { certSHA256 , certChainMd5};
-						rs = db.executeQuery("SELECT Id FROM ServerCerts WHERE SHA256DERHash = ? AND CertChainMD5 = ? LIMIT 1", params);	
-					}
+					storedServerCerts.put(entryKey, id, storedCertsValidity);
 				}
+			}
+			serverRows = missingServerRows;
+		}
+		if (!serverRows.isEmpty()) {
+			throw new SQLException("The IDs of " + serverRows.size() + " server certificates could neither be inserted nor looked up");
+		}
 
+		// Return the IDs in the order of the certificates
+		Long[] re = new Long[entryKeys.length];
+		for (int i = 0; i < re.length; i++) {
+			re[i] = ids.get(entryKeys[i]);
+		}
+		return re;
+	}
 
-				// If not add a new entry to the database
-				if (!rs.next()) {
-
-					String certPem = getPemEncoding(cert);
-					String certSHA1 = Message.byteArrayToHexString(SHA1(cert.getEncoded()));
-					String certPemMd5 = Message.byteArrayToHexString(MD5(certPem.getBytes("UTF-8")));
-					
-					String key;
-					if(isChainCert){
-						Object[] params2 = { certSHA256,certSHA1, cert.getEncoded(), certPemMd5, certPem };
-						key = db.executeInsert("INSERT INTO ChainCerts (SHA256DERHash,SHA1DERHash, DERRaw, MD5PEMHash, PEMRaw) VALUES (?,?,?,?,?)", params2);
-					} else {
-						if(certChainMd5 == null){
-							Object[] params2 = { certSHA256, certSHA1, cert.getEncoded(), certPemMd5, certPem };
-							key = db.executeInsert("INSERT INTO ServerCerts (SHA256DERHash,SHA1DERHash, DERRaw, MD5PEMHash, PEMRaw) VALUES (?,?,?,?,?)", params2);
-						} else {
-							// certChainSha256 = (String)SHA256((byte[])((String)SHA256(Certificate-DER) + (String)(MD5(Chaincerts-PEM)))
-							String certChainSHA256 = Message.byteArrayToHexString(SHA256(Message.hexStringToByteArray(certSHA256+certChainMd5)));
-									
-							Object[] params2 = { certSHA256, certSHA1, cert.getEncoded(), certPemMd5, certPem, certChainMd5,certChainSHA256 };
-							key = db.executeInsert("INSERT INTO ServerCerts (SHA256DERHash,SHA1DERHash, DERRaw, MD5PEMHash, PEMRaw, CertChainMD5, SHA256ChainHash) VALUES (?,?,?,?,?,?,?)", params2);
-						}
-					}
+	/**
+	 * Store rows of the ChainCerts- and the ServerCerts-table using a single statement (cf. storeCerts)
+	 * 
+	 * @param chainRows The rows to insert into the ChainCerts-table (SHA256DERHash, SHA1DERHash, DERRaw, MD5PEMHash, PEMRaw)
+	 * @param serverRows The rows to insert into the ServerCerts-table (SHA256DERHash, SHA1DERHash, DERRaw, MD5PEMHash, PEMRaw, CertChainMD5, SHA256ChainHash)
+	 * @param ids The map to which the IDs of the servers' certificates are added. Their KEY is the SHA256DERHash and the CertChainMD5 separated by "|"
+	 * @param db The database connection to use
+	 * @throws SQLException
+	 */
+	private static void storeCertRows(List<Object[]> chainRows, List<Object[]> serverRows, HashMap<String, Long> ids, Database db) throws SQLException {
 
-					// The call to this function actually inserted a entry in the database
-					re = Long.valueOf(key);
+		Vector<Object> params = new Vector<Object>();
+		StringBuilder sqlstmt = new StringBuilder();
 
-				} else {
+		// Insert the chain certificates (as WITH-query if there are server certificates to insert as well)
+		if (!chainRows.isEmpty()) {
+			sqlstmt.append(serverRows.isEmpty() ? "" : "WITH InsertedChainCerts AS (");
+			sqlstmt.append("INSERT INTO ChainCerts (SHA256DERHash, SHA1DERHash, DERRaw, MD5PEMHash, PEMRaw) VALUES ");
+			appendValues(sqlstmt, params, chainRows, "(?,?,?,?,?)");
+			sqlstmt.append(" ON CONFLICT DO NOTHING");
 
-					// The call to this function did not insert a entry in the database
-					re = Long.valueOf(rs.getString("Id"));
-				}
+			if (serverRows.isEmpty()) {
+				db.executeUpdate(sqlstmt.toString(), params.toArray());
+				return;
+			}
+			sqlstmt.append("), ");
+		} else if (serverRows.isEmpty()) {
+			return;
+		} else {
+			sqlstmt.append("WITH ");
+		}
 
-				// Try to commit the changes
-				db.commit();
+		// Insert the server certificates and return their IDs. Existing entries are not modified but their IDs are returned as well. Conflicts are detected by the UNIQUE(SHA256DERHash,CertChainMD5)-constraint
+		// and by the partial unique index on SHA256DERHash for the entries without CertChainMD5 (cf. crossbear.sql).
+		sqlstmt.append("NewServerCerts (SHA256DERHash, SHA1DERHash, DERRaw, MD5PEMHash, PEMRaw, CertChainMD5, SHA256ChainHash) AS (VALUES ");
+		appendValues(sqlstmt, params, serverRows, "(CAST(? AS CHAR(64)),CAST(? AS CHAR(40)),CAST(? AS BYTEA),CAST(? AS CHAR(32)),CAST(? AS TEXT),CAST(? AS TEXT),CAST(? AS CHAR(64)))");
+		sqlstmt.append("), InsertedServerCerts AS (INSERT INTO ServerCerts (SHA256DERHash, SHA1DERHash, DERRaw, MD5PEMHash, PEMRaw, CertChainMD5, SHA256ChainHash) ");
+		sqlstmt.append("SELECT * FROM NewServerCerts ON CONFLICT DO NOTHING RETURNING Id, SHA256DERHash, CertChainMD5) ");
+		sqlstmt.append("SELECT Id, SHA256DERHash, CertChainMD5 FROM InsertedServerCerts UNION ALL ");
+		sqlstmt.append("SELECT s.Id, s.SHA256DERHash, s.CertChainMD5 FROM ServerCerts s JOIN NewServerCerts n ON s.SHA256DERHash = n.SHA256DERHash AND s.CertChainMD5 IS NOT DISTINCT FROM n.CertChainMD5");
 
-				// Reenable auto-commit
-				db.setAutoCommit(true);
-				return re;
-			} catch (SQLException e) {
+		ResultSet rs = db.executeQuery(sqlstmt.toString(), params.toArray());
+		try {
+			while (rs.next()) {
+				ids.put(rs.getString("SHA256DERHash") + "|" + rs.getString("CertChainMD5"), Long.valueOf(rs.getString("Id")));
+			}
+		} finally {
+			rs.close();
+		}
+	}
 
-				// Commit failed. If that was the first time: Try again
-				db.rollback();
-				lastSQLException = e;
+	/**
+	 * Append a VALUES-list to a SQL-statement: The values tuple is repeated once for each row and the parameters of all rows are added to the list of parameters
+	 * 
+	 * @param sqlstmt The statement to which the VALUES-list is appended
+	 * @param params The parameters of the statement to which the parameters of the rows are added
+	 * @param rows The rows (each of them has as many parameters as there are "?" in tuple)
+	 * @param tuple The values tuple (e.g. "(?,?,?)")
+	 */
+	private static void appendValues(StringBuilder sqlstmt, Vector<Object> params, List<Object[]> rows, String tuple) {
+		for (int i = 0; i < rows.size(); i++) {
+			sqlstmt.append(i == 0 ? "" : ",").append(tuple);
+			for (Object param : rows.get(i)) {
+				params.add(param);
 			}
 		}
-		throw lastSQLException;
+	}
+	
+	/**
+	 * Calculate the SHA256ChainHash of a certificate chain as it is stored in the ServerCerts-table:
+	 * 
+	 * certChainSha256 = (String)SHA256((byte[])((String)SHA256(Certificate-DER) + (String)(MD5(Chaincerts-PEM)))
+	 * 
+	 * @param certSHA256 The SHA256-Hash of the server's certificate in hex-representation
+	 * @param certChainMd5 The md5-hash of the certificate chain (cf. getCertChainMD5) or null if the chain could not be validated
+	 * @return The SHA256ChainHash in hex-representation or null if certChainMd5 is null
+	 * @throws NoSuchAlgorithmException
+	 */
+	static String getSHA256ChainHash(String certSHA256, String certChainMd5) throws NoSuchAlgorithmException {
+		
+		if (certChainMd5 == null) {
+			return null;
+		}
+		
+		return Message.byteArrayToHexString(SHA256(Message.hexStringToByteArray(certSHA256 + certChainMd5)));
 	}
 	
 	/**
@@ -557,6 +544,22 @@ public class CertificateManager {
 
 	}
 	
+	/**
+	 * Store the results of several Hunting Tasks in the HuntingTaskResults-table. Large numbers of results are streamed to the database using COPY (cf. BulkIngest).
+	 * 
+	 * @param results
+	 *            The results to store. Each of them is given as the parameters of storeHuntingTaskResult in the same order (i.e. taskID, trace, observID)
+	 * @param db
+	 *            The database connection to use
+	 * @throws InvalidParameterException
+	 * @throws SQLException
+	 */
+	public static void storeHuntingTaskResults(Vector<Object[]> results, Database db) throws InvalidParameterException, SQLException {
+
+		BulkIngest.insertHuntingTaskResults(results, db);
+
+	}
+	
 	/**
 	 * Store a server's certificate in the local certificate cache (i.e. the CertCache-table). The local certificate cache is used to reduce the network traffic generated by Crossbear and to speed up
 	 * the average response time of Certificate Verification Requests.
@@ -571,93 +574,115 @@ public class CertificateManager {
 	 *            The database connection to use
 	 * @throws SQLException
 	 * @throws CertificateEncodingException
+	 * @throws NoSuchAlgorithmException
 	 */
-	private static void storeServerCertInCache(X509Certificate cert, String hostPort, long validity, Database db) throws SQLException, CertificateEncodingException {
+	private static void storeServerCertInCache(X509Certificate cert, String hostPort, long validity, Database db) throws SQLException, CertificateEncodingException, NoSuchAlgorithmException {
 
-		SQLException lastSQLException = null;
+		// Insert the entry or update it if there already is one for that HostPort (a single statement, i.e. no transaction and no retry is required)
+		Object[] params = { hostPort, CertFingerprints.of(cert).getDER(), new Timestamp(System.currentTimeMillis() + validity) };
+		db.executeUpdate("INSERT INTO CertCache (HostPort,Certificate,ValidUntil) VALUES (?,?,?) ON CONFLICT (HostPort) DO UPDATE SET Certificate = EXCLUDED.Certificate, ValidUntil = EXCLUDED.ValidUntil", params);
 
-		/*
-		 * "Update-or-Insert" requires two SQL statements. Since the state of the database might change in between the two statements transactions are used. Transactions might fail on commit. The only
-		 * legal reason for that is that the entry that should be inserted has already been inserted in the meantime. In that case try updating that entry and if that succeeded go on. If that failed
-		 * again then there is a real problem and an exception is thrown.
-		 */
-		db.setAutoCommit(false);
-		for (int i = 0; i < 2; i++) {
-			try {
+	}
 
-				// First: Try to update an existing entry
-				Object[] params = { cert.getEncoded(), new Timestamp(System.currentTimeMillis() + validity), hostPort };
-				int updatedRows = db.executeUpdate("UPDATE CertCache SET Certificate = ?, ValidUntil = ? WHERE HostPort = ?", params);
+	// The maximal number of chain certificates and of server certificates that are stored by a single statement (PostgreSQL limits the number of parameters of a statement to 32767)
+	private static final int maxCertsPerStatement = 1000;
 
-				// If there isn't any try to insert a new one.
-				if (updatedRows == 0) {
-					db.executeInsert("INSERT INTO CertCache (Certificate,ValidUntil,HostPort) VALUES (?,?,?)", params);
-				}
+	// The maximal number of certificates of each kind that are remembered as stored (cf. storeCerts)
+	private static final int maxStoredCerts = 100000;
 
-				// Try to commit the changes
-				db.commit();
+	// The time in milliseconds certificates are remembered as stored
+	private static final long storedCertsValidity = 24 * 60 * 60 * 1000;
 
-				// Reenable auto-commit
-				db.setAutoCommit(true);
-				return;
-			} catch (SQLException e) {
+	// The IDs of server certificates that have been stored recently. Their KEY is the SHA256DERHash and the CertChainMD5 separated by "|" (IDs never change, so they can be shared by all CertificateManagers)
+	private static final BoundedCache<String, Long> storedServerCerts = new BoundedCache<String, Long>("Stored server certificates", maxStoredCerts);
 
-				// Commit failed. If that was the first time: Try again
-				db.rollback();
-				lastSQLException = e;
-			}
-		}
-		throw lastSQLException;
+	// The SHA256DERHashes of chain certificates that have been stored recently
+	private static final BoundedCache<String, Boolean> storedChainCerts = new BoundedCache<String, Boolean>("Stored chain certificates", maxStoredCerts);
 
-	}
+	// In-memory cache in front of the CertCache-table. Its KEY is the HostPort of the server (shared by all CertificateManagers since they use the same database)
+	private static final BoundedCache<String, X509Certificate> certCache = new BoundedCache<String, X509Certificate>("Certificate cache", 10000);
+
+	// Servers that could not be contacted recently. Their KEY is the HostPort of the server. They are not contacted again before their backoff time (1 minute doubling up to 1 hour) is over.
+	private static final CircuitBreaker unreachableServers = new CircuitBreaker("Unreachable servers", 10000, 60 * 1000, 60 * 60 * 1000);
+
+	// The fetches of server certificates that are currently in progress. Their KEY is the HostPort of the server (cf. getCertForHost)
+	private static final ConcurrentHashMap<String, FutureTask<X509Certificate>> inFlightFetches = new ConcurrentHashMap<String, FutureTask<X509Certificate>>();
+
+	// The time in milliseconds a request waits for the fetch of another request before it reports the server's certificate as not received (cf. getCertForHost)
+	private static final long inFlightFetchTimeout = 30 * 1000;
+
+	// The time in milliseconds between two checks whether the local CA Keystore file has been modified
+	private static final long trustAnchorCheckInterval = 60 * 1000;
+
+	// The CertificateManager that is shared by verifyCert.jsp and verifyCertBatch.jsp (created on first use, cf. getSharedInstance)
+	private static CertificateManager sharedInstance = null;
+
+	// The number of pages that currently use the shared CertificateManager
+	private static int sharedInstanceUsers = 0;
+
+	// The CertChainBuilder that orders certificate chains and completes them using the root-CA certificates trusted by the local system (replaced as a whole when the local CA Keystore changes)
+	private volatile CertChainBuilder chainBuilder;
+
+	// The password for accessing the local CA Keystore (required to reload it)
+	private final String localCAKeystorePassword;
 
-	// The KeyStore containing the root-CA certificates trusted by the local system
-	private final KeyStore localCAKeystore;
+	// The time of the last check whether the local CA Keystore file has been modified
+	private volatile long lastTrustAnchorCheck = System.currentTimeMillis();
 
-	// A Trust manager that does not validate certificate chains
-	// (required in order to be able to download certificates whose root certificates are not known)
-	private static final TrustManager[] trustAllCerts = new TrustManager[] { new TrustAllCertificatesTM()};
+	// The root-CA certificates that have been stored in the ChainCerts-table most recently
+	private TrustAnchorIndex storedTrustAnchors;
 
-	// The duration in seconds a entry will be valid in a cache. This value is used when writing into a cache not when reading from it
+	// The duration in milliseconds a entry will be valid in a cache. This value is used when writing into a cache not when reading from it
 	private int cacheValidity;
+	
+	// The ObservationWriter that stores certificate observations in the background (null if observations are stored synchronously)
+	private ObservationWriter observationWriter = null;
+
+	// The directory to write exceptions to that can't be passed to the caller (e.g. if reloading the local CA Keystore failed; null if they should not be logged)
+	private final String logDir;
 
 	/**
 	 * Create a new CertificateManager with a database backend.
 	 * 
-	 * During the creation the local system's trusted root-CA KeyStore will be read and stored in the ChainCerts-table and the localCAKeystore variable. The localCAKeystore is needed because some
+	 * During the creation the local system's trusted root-CA KeyStore will be read and stored in the ChainCerts-table and the chainBuilder variable. The root-CA KeyStore is needed because some
 	 * websites don't send complete certificate chains since they assume that the clients know their root certificate. Crossbear tries to store the certificate chain for each certificate it observes.
 	 * However, this is only done when the chain could be validated and that might require the local system's root-CA KeyStore.
 	 * 
+	 * If the KeyStore file is modified later on, it is reloaded (cf. getChainBuilder).
+	 * 
 	 * @param db
 	 *            The database connection that will be used to insert the local system's root-CAs into the ChainCerts-table.
 	 * @param cacheValidity
-	 *            The duration in seconds a entry will be valid in a cache. This value is used when writing into a cache not when reading from it.
+	 *            The duration in milliseconds a entry will be valid in a cache. This value is used when writing into a cache not when reading from it.
 	 * @param password The password for accessing the local CA Keystore
+	 * @param logDir The logging directory of the Crossbear server (used for exceptions that can't be passed to the caller)
 	 * @throws NoSuchAlgorithmException
 	 * @throws KeyStoreException
 	 * @throws SQLException
 	 * @throws CertificateException
 	 * @throws IOException
 	 */
-    public CertificateManager(Database db, int cacheValidity, String password) throws NoSuchAlgorithmException, KeyStoreException, SQLException, CertificateException, IOException {
+    public CertificateManager(Database db, int cacheValidity, String password, String logDir) throws NoSuchAlgorithmException, KeyStoreException, SQLException, CertificateException, IOException {
 
-		// Remember the cacheValidity
+		// Remember the cacheValidity and the logging directory
 		this.cacheValidity = cacheValidity;
+		this.logDir = logDir;
 
 		// Load the local system's root-CA KeyStore and store it in the ChainCerts-table
-		this.localCAKeystore = getLocalCAKeystore(password);
-		addCAsFromLocalCAKeyStoreToDB(db);
+		this.localCAKeystorePassword = password;
+		this.chainBuilder = new CertChainBuilder(getLocalTrustAnchors(password));
+		addCAsToDB(chainBuilder.getTrustAnchors(), db);
 	}
 
 	/**
 	 * Create a new CertificateManager without a database backend.
 	 * 
-	 * During the creation the local system's trusted root-CA KeyStore will be read and stored in the ChainCerts-table and the localCAKeystore variable. The localCAKeystore is needed because some
+	 * During the creation the local system's trusted root-CA KeyStore will be read and stored in the ChainCerts-table and the chainBuilder variable. The root-CA KeyStore is needed because some
 	 * websites don't send complete certificate chains since they assume that the clients know their root certificate. Crossbear tries to store the certificate chain for each certificate it observes.
 	 * However, this is only done when the chain could be validated and that might require the local system's root-CA KeyStore.
 	 * 
 	 * @param cacheValidity
-	 *            The duration in seconds a entry will be valid in a cache. This value is used when writing into a cache not when reading from it.
+	 *            The duration in milliseconds a entry will be valid in a cache. This value is used when writing into a cache not when reading from it.
 	 * @param password The password for accessing the local CA Keystore
 	 * @throws NoSuchAlgorithmException
 	 * @throws KeyStoreException
@@ -667,52 +692,225 @@ public class CertificateManager {
 	 */
 	public CertificateManager(int cacheValidity, String password) throws NoSuchAlgorithmException, KeyStoreException, CertificateException, IOException {
 
-		// Remember the cacheValidity
+		// Remember the cacheValidity (there is no logging directory without a Crossbear server)
 		this.cacheValidity = cacheValidity;
+		this.logDir = null;
 
-		// Load the local system's root-CA KeyStore and store it in the ChainCerts-table
-		this.localCAKeystore = getLocalCAKeystore(password);
+		// Load the local system's root-CA KeyStore
+		this.localCAKeystorePassword = password;
+		this.chainBuilder = new CertChainBuilder(getLocalTrustAnchors(password));
+		this.storedTrustAnchors = chainBuilder.getTrustAnchors();
+	}
+
+	/**
+	 * Get the CertificateManager that is shared by the pages that verify certificates (verifyCert.jsp and verifyCertBatch.jsp). Sharing it means that the local CA Keystore is loaded and stored in
+	 * the database only once and that there is only one ObservationWriter (and thus only one background thread) for all of their observations.
+	 * 
+	 * The CertificateManager is created on the first call. Its observations are stored in the background unless this is disabled in the config file (observations.writeBehind). Each call has to be
+	 * matched by a call of releaseSharedInstance once the page doesn't use the CertificateManager anymore.
+	 * 
+	 * @param properties The Properties and settings of the Crossbear server
+	 * @param cacheValidity The duration in milliseconds a entry will be valid in a cache (only used when the CertificateManager is created)
+	 * @return The shared CertificateManager
+	 * @throws ClassNotFoundException
+	 * @throws NoSuchAlgorithmException
+	 * @throws KeyStoreException
+	 * @throws SQLException
+	 * @throws CertificateException
+	 * @throws IOException
+	 */
+	public static synchronized CertificateManager getSharedInstance(Properties properties, int cacheValidity) throws ClassNotFoundException, NoSuchAlgorithmException, KeyStoreException,
+			SQLException, CertificateException, IOException {
+		if (sharedInstance == null) {
+
+			// Storing the local CA Keystore in the database requires a database connection (which is returned right afterwards)
+			Database db = new Database(properties);
+			CertificateManager cm;
+			try {
+				cm = new CertificateManager(db, cacheValidity, properties.getProperty("keystore.password"), properties.getProperty("logging.dir"));
+			} finally {
+				db.close();
+			}
+
+			if (properties.getBooleanProperty("observations.writeBehind", true)) {
+				cm.startObservationWriter(properties);
+			}
+			sharedInstance = cm;
+		}
+
+		sharedInstanceUsers++;
+		return sharedInstance;
 	}
 
 	/**
-	 * Insert all certificates from the localCAKeystore KeyStore into the ChainCerts-table
+	 * Stop using the shared CertificateManager (cf. getSharedInstance). Once no page uses it anymore, all observations that have not yet been stored are written to the database and the
+	 * CertificateManager is discarded.
+	 */
+	public static synchronized void releaseSharedInstance() {
+		if (sharedInstanceUsers == 0) {
+			return;
+		}
+
+		sharedInstanceUsers--;
+		if (sharedInstanceUsers == 0) {
+			sharedInstance.shutdown();
+			sharedInstance = null;
+		}
+	}
+
+	/**
+	 * Store all further certificate observations of getCertForHost and getCertFromRequest in the background using an ObservationWriter (cf. ObservationWriter). Calling this function more than once
+	 * has no effect.
+	 * 
+	 * @param properties The Properties and settings of the Crossbear server
+	 */
+	public synchronized void startObservationWriter(Properties properties) {
+		if (observationWriter == null) {
+			observationWriter = new ObservationWriter(this, properties);
+		}
+	}
+	
+	/**
+	 * Store all observations that have not yet been stored and stop storing observations in the background
+	 */
+	public synchronized void shutdown() {
+		if (observationWriter != null) {
+			observationWriter.shutdown();
+			observationWriter = null;
+		}
+	}
+	
+	/**
+	 * Get the times of all observations of a certificate for a host that have been made but not yet been stored in the database (cf. ObservationWriter)
 	 * 
+	 * @param serverHostPort The Hostname and port of the server for which the certificate has been observed (e.g. encrypted.google.com:443)
+	 * @param cert The observed certificate
+	 * @param observerType An Identifier for the observer's type (e.g. "CrossbearServer" or "CrossbearCVR")
+	 * @return The times of all pending observations (empty if observations are stored synchronously)
+	 * @throws CertificateEncodingException
+	 * @throws NoSuchAlgorithmException
+	 */
+	public Vector<Timestamp> getPendingObservationTimes(String serverHostPort, X509Certificate cert, String observerType) throws CertificateEncodingException, NoSuchAlgorithmException {
+		
+		ObservationWriter writer = observationWriter;
+		if (writer == null) {
+			return new Vector<Timestamp>();
+		}
+		
+		return writer.getPendingObservationTimes(serverHostPort, CertFingerprints.of(cert).getSHA256Hex(), observerType);
+	}
+	
+	/**
+	 * Store a certificate chain and its observation. If an ObservationWriter has been started this is done in the background, else it is done right away.
+	 * 
+	 * @param certChain The observed certificate chain (certChain[0] is assumed to be the server's certificate)
+	 * @param serverHostPort The Hostname and port of the server for which the certificate has been observed (e.g. encrypted.google.com:443)
+	 * @param serverIP The IP of the server for which the certificate has been observed
+	 * @param observerType An Identifier for the observer's type (e.g. "CrossbearServer" or "CrossbearCVR")
+	 * @param observerIP The IP from which the observation was made (might be partially anonymized)
+	 * @param db The database connection to use
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws KeyStoreException
+	 * @throws NoSuchAlgorithmException
+	 * @throws CertificateException
+	 * @throws SQLException
+	 * @throws UnsupportedEncodingException
+	 * @throws NoSuchProviderException
+	 */
+	private void storeCertChainObservation(X509Certificate[] certChain, String serverHostPort, String serverIP, String observerType, String observerIP, Database db)
+			throws InvalidAlgorithmParameterException, KeyStoreException, NoSuchAlgorithmException, CertificateException, SQLException, UnsupportedEncodingException, NoSuchProviderException {
+		
+		Timestamp timeOfObservation = new Timestamp(System.currentTimeMillis());
+		
+		ObservationWriter writer = observationWriter;
+		if (writer != null) {
+			writer.rememberCertObservation(certChain, serverHostPort, serverIP, timeOfObservation, observerType, observerIP, db);
+			return;
+		}
+		
+		// Store the whole chain (if not already stored) ...
+		Long certID = storeCertChain(certChain, db);
+		
+		// ... and remember the observation in the CertObservations table.
+		rememberCertObservation(certID, serverHostPort, serverIP, timeOfObservation, observerType, observerIP, db);
+	}
+
+	/**
+	 * Insert all certificates from a TrustAnchorIndex (i.e. from the local system's root-CA KeyStore) into the ChainCerts-table
+	 * 
+	 * @param trustAnchors
+	 *            The certificates to insert
 	 * @param db
 	 *            The database-connection to use
 	 * @throws CertificateEncodingException
 	 * @throws NoSuchAlgorithmException
 	 * @throws UnsupportedEncodingException
 	 * @throws SQLException
-	 * @throws KeyStoreException
 	 */
-	private void addCAsFromLocalCAKeyStoreToDB(Database db) throws CertificateEncodingException, NoSuchAlgorithmException, UnsupportedEncodingException, SQLException, KeyStoreException {
+	private synchronized void addCAsToDB(TrustAnchorIndex trustAnchors, Database db) throws CertificateEncodingException, NoSuchAlgorithmException, UnsupportedEncodingException, SQLException {
 
-		// Get the names of all keys contained in the localCAKeystore KeyStore
-		Enumeration<String> allKeyAliases = localCAKeystore.aliases();
+		// Nothing to do if these certificates have already been stored
+		if (trustAnchors == storedTrustAnchors) {
+			return;
+		}
 
-		// For each key: Get the corresponding certificate and insert it in the ChainCerts-table
-		while (allKeyAliases.hasMoreElements()) {
+		// Store all of them in the ChainCerts-table at once
+		storeCerts(new Vector<X509Certificate>(trustAnchors.getCerts().getCerts()), new Vector<X509Certificate>(), new Vector<String>(), db);
+		storedTrustAnchors = trustAnchors;
 
-			// get it
-			Certificate cert = localCAKeystore.getCertificate(allKeyAliases.nextElement());
+	}
 
-			// store it in the ChainCerts-table
-			if (cert instanceof X509Certificate) {
-				storeCert((X509Certificate) cert, true,null, db);
-			}
+	/**
+	 * Get the CertChainBuilder for the local system's root-CA KeyStore. Once every trustAnchorCheckInterval it is checked whether the KeyStore file has been modified. If so, it is reloaded and the
+	 * CertChainBuilder is replaced atomically (validations that are running at that time keep using the old one). If reloading fails (e.g. because the file is being written), the old one is kept and
+	 * the next check will try again.
+	 * 
+	 * @return The CertChainBuilder for the current root-CA KeyStore
+	 */
+	private CertChainBuilder getChainBuilder() {
+
+		CertChainBuilder builder = chainBuilder;
+		if (System.currentTimeMillis() - lastTrustAnchorCheck < trustAnchorCheckInterval) {
+			return builder;
 		}
 
+		synchronized (this) {
+
+			// Another thread might have checked in the meantime
+			if (System.currentTimeMillis() - lastTrustAnchorCheck < trustAnchorCheckInterval) {
+				return chainBuilder;
+			}
+			lastTrustAnchorCheck = System.currentTimeMillis();
+
+			TrustAnchorIndex current = chainBuilder.getTrustAnchors();
+			if (current.isOutdated()) {
+				try {
+					chainBuilder = new CertChainBuilder(TrustAnchorIndex.load(current.getKeystoreFile(), localCAKeystorePassword));
+				} catch (Exception e) {
+					if (logDir != null) {
+						Logger.dumpExceptionToFile(logDir + "/fourhundredfourtythree.trustanchors.reload.error", e);
+					}
+				}
+			}
+
+			return chainBuilder;
+		}
 	}
 
 	/**
 	 * This function checks if the certificate for a server is already known (i.e. if it is in cache). If that is the case it is returned. If not the server itself is contacted and its certificate is
-	 * downloaded. The event of that certificate observation is then stored in the database as is the certificate's chain. Finally the certificate is inserted into the cache (i.e. the CertCache-table)
+	 * downloaded. The event of that certificate observation is then stored in the database as is the certificate's chain (in the background if an ObservationWriter has been started). Finally the certificate is inserted into the cache (i.e. the CertCache-table)
 	 * and returned.
 	 * 
+	 * If several requests for the same server miss the cache at the same time, only the first of them contacts the server. All others wait for its result (cf. fetchCertForHost), but not longer than
+	 * inFlightFetchTimeout. If it is not known by then, the certificate is reported as not received.
+	 * 
 	 * @param cvr
 	 *            The CertVerifyRequest containing the Host's name and port
 	 * @param db
 	 *            The database connection to use
+	 * @param newObservation
+	 *            Is set to true if the certificate has just been downloaded from the server, i.e. if a new observation of it has been recorded (may be null if that is not of interest)
 	 * @return The Host's certificate or null if it could not be obtained
 	 * @throws InvalidParameterException
 	 * @throws NoSuchAlgorithmException
@@ -724,18 +922,96 @@ public class CertificateManager {
 	 * @throws IOException
 	 * @throws NoSuchProviderException
 	 */
-	public X509Certificate getCertForHost(CertVerifyRequest cvr, Database db) throws InvalidParameterException, NoSuchAlgorithmException, SQLException, InvalidAlgorithmParameterException,
+	public X509Certificate getCertForHost(final CertVerifyRequest cvr, final Database db, AtomicBoolean newObservation) throws InvalidParameterException, NoSuchAlgorithmException, SQLException, InvalidAlgorithmParameterException,
 			KeyStoreException, CertificateException, KeyManagementException, IOException, NoSuchProviderException {
 
 		// Concatenate hostname and hostport to hostport. Hostport is the host's identifier in the database
-		String serverHostPort = cvr.getHostName() + ":" + String.valueOf(cvr.isUserUsingProxy()?443:cvr.getHostPort());
+		final String serverHostPort = cvr.getHostName() + ":" + String.valueOf(cvr.isUserUsingProxy()?443:cvr.getHostPort());
 
 		// first try to load the certificate from the local cache
 		X509Certificate serverCert = getServerCertFromCache(serverHostPort, db);
 		if (null != serverCert)
 			return serverCert;
+		
+		// if that failed: Don't contact the server if it was unreachable recently (its certificate will be reported as not received)
+		if (unreachableServers.isOpen(serverHostPort))
+			return null;
+
+		// Check if the server is already being contacted. If not: Announce that this request is going to do so.
+		FutureTask<X509Certificate> fetch = new FutureTask<X509Certificate>(new Callable<X509Certificate>() {
+			@Override
+			public X509Certificate call() throws Exception {
+				return fetchCertForHost(cvr, serverHostPort, db);
+			}
+		});
+		FutureTask<X509Certificate> inFlightFetch = inFlightFetches.putIfAbsent(serverHostPort, fetch);
+		
+		if (inFlightFetch == null) {
+			
+			// Contact the server. Once that is done all requests that arrive later will find the certificate in the cache.
+			try {
+				fetch.run();
+			} finally {
+				inFlightFetches.remove(serverHostPort, fetch);
+			}
+			inFlightFetch = fetch;
+		}
+
+		// Return the result of the fetch (no matter whether it was performed by this request or by another one)
+		try {
+			serverCert = inFlightFetch.get(inFlightFetchTimeout, TimeUnit.MILLISECONDS);
+			if (serverCert != null && newObservation != null) {
+				newObservation.set(true);
+			}
+			return serverCert;
+		} catch (TimeoutException e) {
+			// The other request's fetch is still running: Don't block this request any longer
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the certificate of " + serverHostPort, e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			if (cause instanceof NoSuchAlgorithmException) throw (NoSuchAlgorithmException) cause;
+			if (cause instanceof SQLException) throw (SQLException) cause;
+			if (cause instanceof InvalidAlgorithmParameterException) throw (InvalidAlgorithmParameterException) cause;
+			if (cause instanceof KeyStoreException) throw (KeyStoreException) cause;
+			if (cause instanceof CertificateException) throw (CertificateException) cause;
+			if (cause instanceof KeyManagementException) throw (KeyManagementException) cause;
+			if (cause instanceof IOException) throw (IOException) cause;
+			if (cause instanceof NoSuchProviderException) throw (NoSuchProviderException) cause;
+			throw new IOException("Fetching the certificate of " + serverHostPort + " failed", cause);
+		}
+	}
+	
+	/**
+	 * Contact a server and download its certificate chain. If that worked, the server's certificate is stored in the caches and the certificate chain and its observation are stored in the database.
+	 * 
+	 * Please note: This function is only called by getCertForHost and for each server there is at most one call at a time.
+	 * 
+	 * @param cvr
+	 *            The CertVerifyRequest containing the Host's name and port
+	 * @param serverHostPort
+	 *            The Hostname and port of the server e.g. encrypted.google.com:443
+	 * @param db
+	 *            The database connection to use
+	 * @return The Host's certificate or null if it could not be obtained
+	 * @throws InvalidParameterException
+	 * @throws NoSuchAlgorithmException
+	 * @throws SQLException
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws KeyStoreException
+	 * @throws CertificateException
+	 * @throws KeyManagementException
+	 * @throws IOException
+	 * @throws NoSuchProviderException
+	 */
+	private X509Certificate fetchCertForHost(CertVerifyRequest cvr, String serverHostPort, Database db) throws InvalidParameterException, NoSuchAlgorithmException, SQLException, InvalidAlgorithmParameterException,
+			KeyStoreException, CertificateException, KeyManagementException, IOException, NoSuchProviderException {
 
-		// if that failed try to load it from the server (port depends on whether the cvr was generated by a user that uses a SSL-Proxy)
+		// try to load the certificate from the server (port depends on whether the cvr was generated by a user that uses a SSL-Proxy)
 		X509Certificate[] serverCertChain = null;
 		CertificateChainContainer CCC = null;
 		try {
@@ -746,18 +1022,20 @@ public class CertificateManager {
 			// ... and if that was not possible: set it to null
 			serverCertChain = null;
 		}
-		if (null == serverCertChain)
+		if (null == serverCertChain) {
+			
+			// Remember that the server is unreachable (the time until it is contacted again grows with each failure)
+			unreachableServers.recordFailure(serverHostPort);
 			return null;
+		}
+		unreachableServers.recordSuccess(serverHostPort);
 
-		// if that worked store it in the local cache ...
+		// if that worked store it in the local caches ...
 		storeServerCertInCache(serverCertChain[0], serverHostPort, cacheValidity, db);
+		certCache.put(serverHostPort, serverCertChain[0], cacheValidity);
 
-		// ... then store the whole chain (if not already stored) ...
-		Long serverCertID = storeCertChain(serverCertChain, db);
-
-		// ... and remember the observation of the server's cert in the CertObservations table.
-		rememberCertObservation(serverCertID, serverHostPort, CCC.getServerAddress().getHostAddress(), new Timestamp(System.currentTimeMillis()), "CrossbearServer", cvr
-				.getLocalAddr().getHostAddress(), db);
+		// ... then store the whole chain (if not already stored) and remember the observation of the server's cert in the CertObservations table.
+		storeCertChainObservation(serverCertChain, serverHostPort, CCC.getServerAddress().getHostAddress(), "CrossbearServer", cvr.getLocalAddr().getHostAddress(), db);
 
 		// Finally return the server's cert
 		return serverCertChain[0];
@@ -790,11 +1068,8 @@ public class CertificateManager {
 		// Extract the server's certificate chain from the request ...
 		X509Certificate[] requestCertChain = cvr.getCertChain();
 
-		// ... store it in the database (if not already done before) ...
-		Long requestCertID = storeCertChain(requestCertChain, db);
-
-		// ... and remember it's observation in the CertObservations table
-		rememberCertObservation(requestCertID, serverHostPort, cvr.getHostIP().getHostAddress(), new Timestamp(System.currentTimeMillis()), "CrossbearCVR",
+		// ... store it in the database (if not already done before) and remember it's observation in the CertObservations table
+		storeCertChainObservation(requestCertChain, serverHostPort, cvr.getHostIP().getHostAddress(), "CrossbearCVR",
 				cvr.isUserUsingProxy()?cvr.getRemoteAddr().getHostAddress():anonymize(cvr.getRemoteAddr().getHostAddress()), db);
 
 		// Finally: return it
@@ -806,63 +1081,32 @@ public class CertificateManager {
 	 * Take a certificate chain and see if there is a way in which
 	 * it can be ordered that makes it valid. This is necessary
 	 * since there is no guarantee, that certificate chains are
-	 * transmitted in correct order.
+	 * transmitted in correct order (cf. CertChainBuilder).
 	 * 
 	 * If the chain's end is required to be self-signed and the
 	 * root-of-trust is not within the chain, there will be an
 	 * attempt to find it in the system's root-CA KeyStore.
 	 * 
 	 * @todo: the system's root CA store might be different depending on the JVM - we should replace it with a list of our own
-	 * @todo: remove the limit of maxPermutations - it is not necessary
 	 * 
 	 * @param in The certificate chain to check
-	 * @param maxPermutations The maximal number of reordering-attempts to make (first attempt will always be the original order)
 	 * @param endMustBeSelfSigned States if the chain's end must be self signed.
 	 * @return The reordered version of "in" that has been enhanced by the chain's root-of-trust if that was necessary in order to make the end self signed. If there was no ordering found to make the chain valid then null is returned.
 	 * @throws InvalidAlgorithmParameterException
-	 * @throws KeyStoreException
 	 * @throws NoSuchAlgorithmException
 	 * @throws CertificateException
-	 * @throws NoSuchProviderException
+	 * @throws UnsupportedEncodingException
 	 */
-	public LinkedList<X509Certificate> makeCertChainValid(X509Certificate[] in, int maxPermutations, boolean endMustBeSelfSigned) throws InvalidAlgorithmParameterException, KeyStoreException, NoSuchAlgorithmException, CertificateException, NoSuchProviderException {
-		
-		// Create a Permutation generator of suitable length
-		PermutationGenerator permGen = new PermutationGenerator(in.length - 1);
-		
-		// Set a limit of how many permutations are tried maximally and start trying them (first attempt will be the original order)
-		while (permGen.hasMore() && maxPermutations-- > 0) {
-
-			// Create a new cerificate permutation and set its first element to the host's certificate
-			LinkedList<X509Certificate> certPerm = new LinkedList<X509Certificate>();
-			certPerm.add(in[0]);
-
-			// Set the remaining chain according to the current permutation (starting with the original order)
-			int[] permutation = permGen.getNext();
-			for (int i = 0; i < permutation.length; i++) {
-				certPerm.add(in[permutation[i] + 1]);
-			}
-
-			// See if this permutation is valid (and if applicable: is its end self-signed )
-			LinkedList<X509Certificate> validatedList = validateCertChain(certPerm, endMustBeSelfSigned);
-
-			// If it is: return it
-			if (null != validatedList) {
-				return validatedList;
-
-			}
-
-		}
-		
-		// If no way was found to make the chain valid: return null
-		return null;
+	public LinkedList<X509Certificate> makeCertChainValid(X509Certificate[] in, boolean endMustBeSelfSigned) throws InvalidAlgorithmParameterException, NoSuchAlgorithmException, CertificateException,
+			UnsupportedEncodingException {
+		return getChainBuilder().getValidatedChain(in, endMustBeSelfSigned).getChain();
 	}
 
 	/**
 	 * This function takes a certificate chain and stores its first element in the ServerCerts-table and the remainder in the ChainCerts-table.
 	 * 
 	 * In case the last element of the certificate chain is self-signed and the certificate chain is valid, the getCertChainMD5 is called and the result is stored along with the server certificate.
-	 * The same is done in case the last element of the chain is not self signed but an entry in the localCAKeystore-KeyStore exists that completes the chain. If the
+	 * The same is done in case the last element of the chain is not self signed but an entry in the local system's root-CA KeyStore exists that completes the chain. If the
 	 * chain is either invalid or could not be completed the certificate chain is not set. In that case the CertChainMD5 is just left "null".
 	 * 
 	 * @param certs
@@ -881,106 +1125,79 @@ public class CertificateManager {
 	public Long storeCertChain(X509Certificate[] certs, Database db) throws InvalidAlgorithmParameterException, KeyStoreException, NoSuchAlgorithmException, CertificateException, SQLException,
 			UnsupportedEncodingException, NoSuchProviderException {
 
-		// See if there is a way in which the certificate chain can be ordered so that it is valid and its end is self-signed. If necessary add a chain terminator from the system's root-CA KeyStore to
-		// do so.
-		LinkedList<X509Certificate> validatedChain = makeCertChainValid(certs, 50, true);
-
-		String certChainMD5 = null;
+		Vector<X509Certificate[]> chains = new Vector<X509Certificate[]>();
+		chains.add(certs);
 		
-		// If the chain is valid: Calculate it's md5-hash
-		if (validatedChain != null) {
-
-			// Remove the server's certificate from the chain
-			validatedChain.removeFirst();
-
-			// Get the concatenation of the md5 hashes of the chain's certificates in PEM form
-			certChainMD5 = getCertChainMD5(validatedChain);
-		}
-
-		// Insert all elements of the certificate chain
-		for (int i = 1; i < certs.length; i++) {
-			storeCert(certs[i], true, null, db);
-		}
-		
-		// Insert the server's certificate and return it's ID
-		return storeCert(certs[0], false, certChainMD5, db);
-
+		return storeCertChains(chains, db)[0];
 	}
-
+	
 	/**
-	 * This function validates a certificate-chain (i.e. checks if if each certificate in the chain is signed by the following one.).
-	 * 
-	 * If the certificate-chain's end must be self signed but is not, the localCAKeystore is searched for a chain terminator.
-	 * 
-	 * The code was created by the use of http://www.nakov.com/blog/2009/12/01/x509-certificate-validation-in-java-build-and-verify-chain-and-verify-clr-with-bouncy-castle/
+	 * Store several certificate chains at once (cf. storeCertChain). All chain certificates and all server certificates are stored using a single round trip to the database - no matter how many chains
+	 * there are (as long as they contain less than maxCertsPerStatement certificates of each kind).
 	 * 
-	 * @param certChain
-	 *            The certificate chain to validate
-	 * @param endMustBeSelfSigned States if the chain's end must be self signed.
-	 * @return Null if the validity of the certificate chain could not be confirmed. If it could be confirmed "in" that was enhanced by its root-of-trust if that has not already been the chain's end.
+	 * @param chains
+	 *            The certificate chains to store (chains.get(i)[0] is assumed to be the server's certificate of the i-th chain)
+	 * @param db
+	 *            The database connection to use
+	 * @return The IDs of the servers' certificates after they have been inserted into the ServerCerts table (in the same order as "chains"). If a certificate was already inserted, the old ID is returned
 	 * @throws InvalidAlgorithmParameterException
 	 * @throws KeyStoreException
 	 * @throws NoSuchAlgorithmException
 	 * @throws CertificateException
-	 * @throws NoSuchProviderException 
+	 * @throws SQLException
+	 * @throws UnsupportedEncodingException
+	 * @throws NoSuchProviderException
 	 */
-	private LinkedList<X509Certificate> validateCertChain(LinkedList<X509Certificate> in, boolean endMustBeSelfSigned) throws InvalidAlgorithmParameterException, KeyStoreException, NoSuchAlgorithmException, CertificateException, NoSuchProviderException {
-		
-		// Make a copy of "in"
-		LinkedList<X509Certificate> certChain = new LinkedList<X509Certificate>(in);
-		Collections.copy(certChain,in);
-
-		/*
-		 * The chain's terminator might be inside the system's
-		 * root-CA KeyStore. If a chain is only valid if it is
-		 * terminated (i.e. endMustBeSelfSigned==true ) and it
-		 * is not yet terminated, the system's root-CA
-		 * KeyStore is used as Set of possible trust
-		 * anchors. If that is not true the last element of
-		 * the certificate chain is used as only possible
-		 * trust anchor.
-		 */
-		PKIXParameters params;
-		if (endMustBeSelfSigned && !isSelfSigned(certChain.getLast())) {
-			// Use all of the CAs from the local system's root-CA KeyStore as possible trust anchors
-			params = new PKIXParameters(localCAKeystore);
-		} else {
-			// Use the end of the certificate chain as trust anchor (may or may not be self-signed). Since it is then no longer a member of the chain -> remove it
-			Set<TrustAnchor> trustedAnchors = new HashSet<TrustAnchor>();
-			trustedAnchors.add(new TrustAnchor(certChain.removeLast(), null));
-
-			params = new PKIXParameters(trustedAnchors);
-		}
-
-		// Disable CRL checking since we are not supplying any CRLs
-		params.setRevocationEnabled(false);
-
-		// Disable "valid today" check (chain should be stored if it is valid within itself - no matter whether it is valid now)
-		params.setDate(in.getFirst().getNotAfter());
-
-		// Cast the certificate List into a CertPath
-		CertificateFactory certFact = CertificateFactory.getInstance("X.509");
-		CertPath certPath = certFact.generateCertPath(certChain);
+	public Long[] storeCertChains(Vector<X509Certificate[]> chains, Database db) throws InvalidAlgorithmParameterException, KeyStoreException, NoSuchAlgorithmException, CertificateException, SQLException,
+			UnsupportedEncodingException, NoSuchProviderException {
 
-		// Use a CertPathValidator on the CertPath
-		CertPathValidator certPathValidator = CertPathValidator.getInstance(CertPathValidator.getDefaultType());
+		// If the local system's root-CA KeyStore has been reloaded: Make sure its certificates are in the ChainCerts-table (they might become part of the validated chains)
+		addCAsToDB(getChainBuilder().getTrustAnchors(), db);
 
-		// Check if the chain is valid and if it ends at (one of) the chosen trust anchor(s)
-		try {
-			// Assuming the chain is valid: Get its TrustAnchor (will throw an exception if it is not valid)
-			TrustAnchor ta = ((PKIXCertPathValidatorResult)certPathValidator.validate(certPath, params)).getTrustAnchor();
+		Vector<X509Certificate> serverCerts = new Vector<X509Certificate>();
+		Vector<String> certChainMD5s = new Vector<String>();
+		Vector<X509Certificate> chainCerts = new Vector<X509Certificate>();
+		
+		for (X509Certificate[] certs : chains) {
 			
-			// Add the trust anchor to the end of the chain (if it was there originally it was removed some lines above so it needs to be added again)
-			certChain.add(ta.getTrustedCert());
+			// Calculate the md5-hash of the chain (if it is valid)
+			String certChainMD5 = getValidatedCertChainMD5(certs);
 			
-			// And return it
-			return certChain;
-		} catch (CertPathValidatorException e) {
+			// Remember all elements of the certificate chain ...
+			for (int i = 1; i < certs.length; i++) {
+				chainCerts.add(certs[i]);
+			}
 			
-			// Validation was not possible: return null
-			return null;
+			// ... and the server's certificate
+			serverCerts.add(certs[0]);
+			certChainMD5s.add(certChainMD5);
 		}
 
+		// Insert all elements of the certificate chains and the servers' certificates and return the IDs of the latter
+		return storeCerts(chainCerts, serverCerts, certChainMD5s, db);
+
+	}
+
+	/**
+	 * Calculate the md5-hash of a certificate chain as it is stored in the CertChainMD5-column of the ServerCerts-table. This is only possible if the chain is valid and its end is self-signed (or can be
+	 * completed by a certificate from the local system's root-CA KeyStore).
+	 * 
+	 * @param certs
+	 *            The certificate chain (certs[0] is assumed to be the server's certificate)
+	 * @return The concatenation of the md5 hashes of the chain's certificates (without the server's certificate) in PEM form or null if the chain could not be validated
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws KeyStoreException
+	 * @throws NoSuchAlgorithmException
+	 * @throws CertificateException
+	 * @throws UnsupportedEncodingException
+	 * @throws NoSuchProviderException
+	 */
+	private String getValidatedCertChainMD5(X509Certificate[] certs) throws InvalidAlgorithmParameterException, KeyStoreException, NoSuchAlgorithmException, CertificateException,
+			UnsupportedEncodingException, NoSuchProviderException {
+		
+		// See if there is a way in which the certificate chain can be ordered so that it is valid and its end is self-signed. If necessary add a chain terminator from the system's root-CA KeyStore to
+		// do so. If the chain is not valid: There is no md5-hash
+		return getChainBuilder().getValidatedChain(certs, true).getCertChainMD5();
 	}
 
 }
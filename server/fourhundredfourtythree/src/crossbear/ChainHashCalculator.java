@@ -25,7 +25,6 @@ import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.TrustManager;
 
-import org.bouncycastle.util.encoders.Base64;
 
 
 class ChainHashCalculator {
@@ -38,11 +37,7 @@ class ChainHashCalculator {
 	    // Get the PEM-encoding for each certificate,
 	    // calculate its MD5-hash and append its
 	    // HEX-String representation to the output
-	    String hulla = getPemEncoding(iter.next());
-	    //System.out.println("PEM encoding: " + hulla);
-	    String m = byteArrayToHexString(MD5(hulla.getBytes("UTF-8")));
-	    //System.out.println("My hash is: " + m);
-	    re.append(m);
+	    re.append(CertFingerprints.of(iter.next()).getPemMD5Hex());
 	}
 
 	return re.toString();
@@ -81,27 +76,6 @@ class ChainHashCalculator {
 	return md.digest(data);
     }
 
-    private static String getPemEncoding(X509Certificate cert) throws CertificateEncodingException {
-
-	// Get the bytes of the certificate(DER) and encode them in base64
-	String base64EncodedCert = new String(Base64.encode(cert.getEncoded()));
-
-	// Write the PEM header
-	String re = "-----BEGIN CERTIFICATE-----\n";
-
-	// Write the certificate data in lines of 64 chars
-	int len = base64EncodedCert.length();
-	for (int i = 0; i < len; i += 64) {
-	    re += base64EncodedCert.substring(i, Math.min(len, i + 64)) + "\n";
-	}
-
-	// Write the PEM trailer
-	re += "-----END CERTIFICATE-----";
-
-	// Return the PEM-representation of the certificate
-	return re;
-    }
-
     public static byte[] MD5(byte[] data) throws NoSuchAlgorithmException {
 	MessageDigest md = MessageDigest.getInstance("MD5");
 	return md.digest(data);
@@ -168,7 +142,7 @@ class ChainHashCalculator {
     public static void main(String[] args) throws Exception {
 	LinkedList<X509Certificate> certchain = new LinkedList<X509Certificate>(Arrays.asList(getCertChainFromServer("saanet.sg", 443).getChain()));
 	X509Certificate servercert = certchain.pop();
-	String certSHA256 = byteArrayToHexString(SHA256(servercert.getEncoded()));
+	String certSHA256 = CertFingerprints.of(servercert).getSHA256Hex();
 	String certChainMd5 = getCertChainMD5(certchain);
 	String certChainSHA256 = byteArrayToHexString(SHA256(hexStringToByteArray(certSHA256+certChainMd5)));
 	System.out.println(certChainSHA256);
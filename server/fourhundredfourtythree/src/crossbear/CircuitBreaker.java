@@ -0,0 +1,120 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package crossbear;
+
+/**
+ * A CircuitBreaker remembers which targets (e.g. servers identified by their HostPort) recently failed and for how long they should not be contacted again. After each failure the circuit for a
+ * target is "open" for a certain time. That time doubles with each consecutive failure (starting at initialBackoffMillis up to maxBackoffMillis). Once it is over the next attempt is allowed. If that
+ * attempt succeeds, the target is forgotten. If it fails, the circuit is opened again for twice the time.
+ *
+ * In other words: While the circuit for a target is open, the CircuitBreaker acts as a cache of negative results.
+ *
+ * The number of remembered targets is bounded (the least recently used ones are forgotten first). Consecutive failures are forgotten as well if the target has not failed for maxBackoffMillis after
+ * its circuit closed again.
+ *
+ * @author Thomas Riedmaier
+ *
+ */
+public class CircuitBreaker {
+
+	/**
+	 * The failure state of a single target
+	 */
+	private static class State {
+
+		// The number of consecutive failures
+		private final int failures;
+
+		// The time until which the target should not be contacted
+		private final long openUntil;
+
+		private State(int failures, long openUntil) {
+			this.failures = failures;
+			this.openUntil = openUntil;
+		}
+	}
+
+	// The failure states of all targets that failed recently
+	private final BoundedCache<String, State> states;
+
+	// The time in milliseconds a circuit stays open after the first failure
+	private final long initialBackoffMillis;
+
+	// The maximal time in milliseconds a circuit stays open
+	private final long maxBackoffMillis;
+
+	/**
+	 * Create a new CircuitBreaker
+	 *
+	 * @param name The name of the CircuitBreaker (used for status reports)
+	 * @param maxTargets The maximal number of targets to remember
+	 * @param initialBackoffMillis The time in milliseconds a circuit stays open after the first failure
+	 * @param maxBackoffMillis The maximal time in milliseconds a circuit stays open
+	 */
+	public CircuitBreaker(String name, int maxTargets, long initialBackoffMillis, long maxBackoffMillis) {
+		this.states = new BoundedCache<String, State>(name, maxTargets);
+		this.initialBackoffMillis = initialBackoffMillis;
+		this.maxBackoffMillis = maxBackoffMillis;
+	}
+
+	/**
+	 * Check if a target should currently not be contacted
+	 *
+	 * @param target The identifier of the target (e.g. encrypted.google.com:443)
+	 * @return True if the target failed recently and its backoff time is not yet over else false
+	 */
+	public boolean isOpen(String target) {
+		State state = states.get(target);
+		return state != null && state.openUntil > System.currentTimeMillis();
+	}
+
+	/**
+	 * Remember that contacting a target failed and open its circuit
+	 *
+	 * @param target The identifier of the target (e.g. encrypted.google.com:443)
+	 */
+	public synchronized void recordFailure(String target) {
+		State state = states.get(target);
+		int failures = (state == null) ? 1 : state.failures + 1;
+
+		// Double the backoff time with each consecutive failure (the shift is limited to prevent overflows)
+		long backoff = Math.min(initialBackoffMillis << Math.min(failures - 1, 30), maxBackoffMillis);
+
+		// Remember the failures for some time after the circuit closed again so the next failure results in a longer backoff
+		states.put(target, new State(failures, System.currentTimeMillis() + backoff), backoff + maxBackoffMillis);
+	}
+
+	/**
+	 * Remember that contacting a target succeeded (i.e. close its circuit and forget its failures)
+	 *
+	 * @param target The identifier of the target (e.g. encrypted.google.com:443)
+	 */
+	public synchronized void recordSuccess(String target) {
+		states.remove(target);
+	}
+
+	/**
+	 * Get the current status of the CircuitBreaker
+	 *
+	 * @return A status text containing the number of remembered targets and how often an open circuit was found
+	 */
+	public String getStatus() {
+		return states.getStatus();
+	}
+
+}
@@ -0,0 +1,326 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package crossbear;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The ConnectionPool keeps a bounded number of open connections to the Crossbear database and hands them out to Database-objects. Opening a new PostgreSQL connection (TCP handshake and
+ * authentication) for each page load was by far the most expensive part of processing a request. The pool avoids that while keeping the "one Database per page load" semantics: A Database-object
+ * borrows a connection when it is created and returns it when it is closed.
+ *
+ * The pool provides
+ * - an upper bound of open connections (database.pool.maxSize, default 20)
+ * - a maximal time to wait for a free connection (database.pool.maxWaitMillis, default 5000)
+ * - validation of idle connections when they are borrowed (database.pool.validationTimeoutSeconds, default 2)
+ * - leak detection: Connections that have been borrowed for longer than database.pool.leakThresholdMillis (default 60000) are logged together with the stack trace of the borrower (0 turns leak detection off)
+ * - a StatementCache for each connection (database.pool.statementCacheSize, default 64), so PreparedStatements survive the return of their connection to the pool
+ *
+ * Connections are always handed out with auto-commit enabled. If a connection is returned while a transaction is still open, that transaction is rolled back.
+ *
+ * @author Thomas Riedmaier
+ *
+ */
+public class ConnectionPool {
+
+	// The JDBC Connector Class.
+	private static final String dbClassName = "org.postgresql.Driver";
+
+	// All pools that have been created so far (one for each database url and user)
+	private static final Map<String, ConnectionPool> pools = new HashMap<String, ConnectionPool>();
+
+	/**
+	 * Get the pool for the database that is configured in the properties (database.url, database.user and database.password). If there is no such pool yet, it will be created.
+	 *
+	 * @param properties The Properties and settings of the Crossbear server
+	 * @return The ConnectionPool for the configured database
+	 * @throws ClassNotFoundException
+	 */
+	public static synchronized ConnectionPool getInstance(Properties properties) throws ClassNotFoundException {
+
+		String key = properties.getProperty("database.url") + "|" + properties.getProperty("database.user");
+
+		ConnectionPool pool = pools.get(key);
+		if (pool == null) {
+			pool = new ConnectionPool(properties);
+			pools.put(key, pool);
+		}
+
+		return pool;
+	}
+
+	/**
+	 * Information about a connection that is currently borrowed from the pool
+	 */
+	private static class Lease {
+
+		// The time at which the connection has been borrowed
+		private final long borrowTime = System.currentTimeMillis();
+
+		// The stack trace of the borrower (used to report leaks)
+		private final Exception origin = new Exception("Connection has been borrowed here and not been returned to the pool");
+
+		// Has the leak already been reported?
+		private boolean reported = false;
+	}
+
+	// The location of the Crossbear database
+	private final String url;
+
+	// The login credentials for the database
+	private final java.util.Properties credentials = new java.util.Properties();
+
+	// The maximal time in milliseconds to wait for a free connection
+	private final long maxWaitMillis;
+
+	// The time in seconds a validation of a connection may take
+	private final int validationTimeout;
+
+	// The time in milliseconds after which a borrowed connection is reported as leaked
+	private final long leakThresholdMillis;
+
+	// The directory in which leaks are logged
+	private final String logDir;
+
+	// One permit for each connection that may be open at the same time
+	private final Semaphore permits;
+
+	// The connections that are currently not in use (the most recently used connection is handed out first)
+	private final LinkedBlockingDeque<Connection> idle = new LinkedBlockingDeque<Connection>();
+
+	// The maximal number of PreparedStatements that are kept open per connection
+	private final int statementCacheSize;
+
+	// The StatementCaches of all open connections
+	private final ConcurrentHashMap<Connection, StatementCache> statementCaches = new ConcurrentHashMap<Connection, StatementCache>();
+
+	// The connections that are currently in use
+	private final ConcurrentHashMap<Connection, Lease> leased = new ConcurrentHashMap<Connection, Lease>();
+
+	// Timer that periodically checks for leaked connections
+	private final Timer leakDetector = new Timer("crossbear-connectionpool-leakdetector", true);
+
+	/**
+	 * Create a new ConnectionPool for the database that is configured in the properties
+	 *
+	 * @param properties The Properties and settings of the Crossbear server
+	 * @throws ClassNotFoundException
+	 */
+	private ConnectionPool(Properties properties) throws ClassNotFoundException {
+
+		// Make sure the database driver is loaded
+		Class.forName(dbClassName);
+
+		this.url = properties.getProperty("database.url");
+		this.credentials.setProperty("user", properties.getProperty("database.user"));
+		this.credentials.setProperty("password", properties.getProperty("database.password"));
+
+		this.permits = new Semaphore(properties.getIntProperty("database.pool.maxSize", 20), true);
+		this.maxWaitMillis = properties.getIntProperty("database.pool.maxWaitMillis", 5000);
+		this.validationTimeout = properties.getIntProperty("database.pool.validationTimeoutSeconds", 2);
+		this.leakThresholdMillis = properties.getIntProperty("database.pool.leakThresholdMillis", 60000);
+		this.logDir = properties.getProperty("logging.dir");
+		this.statementCacheSize = properties.getIntProperty("database.pool.statementCacheSize", 64);
+
+		// Check for leaked connections twice per threshold interval (a threshold of 0 or less turns leak detection off)
+		if (leakThresholdMillis > 0) {
+			long period = Math.max(1, leakThresholdMillis / 2);
+			leakDetector.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					reportLeaks();
+				}
+			}, period, period);
+		}
+	}
+
+	/**
+	 * Borrow a connection from the pool. If there is an idle connection it is validated and returned. If not a new one is opened as long as the pool's upper bound is not reached. In case it is, this
+	 * function waits for at most maxWaitMillis for another connection to be returned.
+	 *
+	 * @return A valid connection with auto-commit enabled
+	 * @throws SQLException
+	 */
+	public Connection borrow() throws SQLException {
+
+		// Wait until opening or reusing a connection is allowed
+		try {
+			if (!permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+				throw new SQLException("Timed out after " + maxWaitMillis + "ms while waiting for a free database connection");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a free database connection", e);
+		}
+
+		try {
+			Connection con;
+			while (true) {
+
+				// Prefer the most recently returned connection since it is the most likely to be still alive
+				con = idle.pollFirst();
+
+				// If there is none: open a new one
+				if (con == null) {
+					con = DriverManager.getConnection(url, credentials);
+					statementCaches.put(con, new StatementCache(con, statementCacheSize));
+					break;
+				}
+
+				// If there is one: make sure it is still usable. If it is not: discard it and try the next one.
+				if (isValid(con)) {
+					break;
+				}
+				closeQuietly(con);
+			}
+
+			// Remember who borrowed the connection
+			leased.put(con, new Lease());
+			return con;
+
+		} catch (SQLException e) {
+			permits.release();
+			throw e;
+		} catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Get the StatementCache of a connection that has been borrowed from this pool
+	 *
+	 * @param con The connection whose StatementCache should be returned
+	 * @return The StatementCache of con
+	 */
+	public StatementCache getStatementCache(Connection con) {
+		return statementCaches.get(con);
+	}
+
+	/**
+	 * Get the current status of the pool
+	 *
+	 * @return A status text containing the number of idle and borrowed connections
+	 */
+	public String getStatus() {
+		return "Database connections: " + leased.size() + " in use, " + idle.size() + " idle";
+	}
+
+	/**
+	 * Return a connection to the pool. A transaction that is still open is rolled back and auto-commit is reenabled. If that fails the connection is considered broken and is closed.
+	 *
+	 * @param con The connection to return (must have been borrowed from this pool)
+	 */
+	public void release(Connection con) {
+
+		if (leased.remove(con) == null) {
+			// The connection has not been borrowed from this pool (or has already been returned)
+			return;
+		}
+
+		try {
+			// Reset the connection to the state in which it has been handed out
+			if (!con.isClosed() && !con.getAutoCommit()) {
+				con.rollback();
+				con.setAutoCommit(true);
+			}
+
+			if (con.isClosed()) {
+				closeQuietly(con);
+			} else {
+				idle.offerFirst(con);
+			}
+
+		} catch (SQLException e) {
+			closeQuietly(con);
+		}
+
+		permits.release();
+	}
+
+	/**
+	 * Close all idle connections and stop the leak detection. Borrowed connections will be closed when they are returned.
+	 */
+	public void shutdown() {
+		leakDetector.cancel();
+
+		Connection con;
+		while ((con = idle.pollFirst()) != null) {
+			closeQuietly(con);
+		}
+	}
+
+	/**
+	 * Close a connection without reporting errors (the connection is being discarded anyway)
+	 *
+	 * @param con The connection to close
+	 */
+	private void closeQuietly(Connection con) {
+
+		// Closing the connection closes its statements as well
+		statementCaches.remove(con);
+
+		try {
+			con.close();
+		} catch (SQLException e) {
+			// The connection is discarded anyway
+		}
+	}
+
+	/**
+	 * Check if an idle connection can still be used
+	 *
+	 * @param con The connection to check
+	 * @return True if the connection is still usable else false
+	 */
+	private boolean isValid(Connection con) {
+		try {
+			return !con.isClosed() && con.isValid(validationTimeout);
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Log all connections that have been borrowed for longer than leakThresholdMillis (each one only once)
+	 */
+	private void reportLeaks() {
+		long now = System.currentTimeMillis();
+
+		Iterator<Lease> itr = leased.values().iterator();
+		while (itr.hasNext()) {
+			Lease lease = itr.next();
+			if (!lease.reported && now - lease.borrowTime > leakThresholdMillis) {
+				lease.reported = true;
+				Logger.dumpExceptionToFile(logDir + "/fourhundredfourtythree.connectionpool.leak", lease.origin);
+			}
+		}
+	}
+
+}
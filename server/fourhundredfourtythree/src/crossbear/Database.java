@@ -17,6 +17,8 @@
 
 package crossbear;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.net.InetAddress;
 import java.security.InvalidParameterException;
 import java.sql.Connection;
@@ -26,20 +28,44 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Date;
 import java.sql.Timestamp;
-import java.util.Properties;
+import java.sql.Types;
+import java.util.Vector;
+
+import org.postgresql.PGConnection;
 
 /**
  * This class implements a comfortable wrapper for SQL-Database connections. It provides
  * - easy no-knowledge-creation of database connections
  * - easy to use PreparedStatements (all SQL-commands executed by the use of this class are executed as PreparedStatements -> Protection against SQL-Injection attacks)
+ * - reuse of PreparedStatements (they are cached per connection and keyed by their SQL-text, so use parameters instead of concatenating values into the SQL-text)
+ * - automatic closing of all ResultSets when the Database-object is closed (or directly after reading them when using a RowMapper)
  * - transactions
+ * - query timeouts derived from the Deadline of the request that is being processed (cf. setDeadline)
  * 
- * Please Note: Since Crossbear uses transactions, a new Database connection should be used every time a page is being processed!
+ * Please Note: Since Crossbear uses transactions, a new Database connection should be used every time a page is being processed! Creating a Database-object using the Crossbear properties
+ * borrows a connection from the ConnectionPool, so this is cheap. Closing the Database-object returns the connection to the pool.
  * 
  * @author Thomas Riedmaier
  *
  */
-public class Database {
+public class Database implements AutoCloseable {
+	
+	/**
+	 * A RowMapper converts the current row of a ResultSet into an object. It is used by executeQuery(String, Object[], RowMapper) which closes the ResultSet as soon as all rows have been mapped.
+	 * 
+	 * @param <T> The type of the objects that the rows are converted into
+	 */
+	public interface RowMapper<T> {
+		
+		/**
+		 * Convert the current row of a ResultSet into an object
+		 * 
+		 * @param rs The ResultSet (already positioned on the row to convert; must not be moved by this function)
+		 * @return The object representing the row
+		 * @throws SQLException
+		 */
+		T mapRow(ResultSet rs) throws SQLException;
+	}
 	
 	/**
 	 * Set the parameters of a PreparedStatement
@@ -55,7 +81,11 @@ public class Database {
 		for(int i =0;i<params.length;i++){
 			
 			// Add the parameters to the Statement. Depending on the parameter's Class-Type the PreparedStatement-API wants a different function to be used: Choose the correct one 
-			if (params[i] instanceof Boolean){
+			if (params[i] == null){
+				// Let the database derive the type of the NULL-value from the column it is used for
+				ps.setNull(i+1, Types.NULL);
+				
+			} else if (params[i] instanceof Boolean){
 				ps.setBoolean(i+1, (Boolean)params[i]);
 				
 			} else if (params[i] instanceof Byte){
@@ -82,6 +112,13 @@ public class Database {
 			} else if (params[i] instanceof InetAddress){
 				ps.setString(i+1, ((InetAddress)params[i]).getHostAddress());
 				
+			} else if (params[i] instanceof Long[]){
+				// Arrays are used for "Column = ANY(?)"-statements (instead of concatenating "Column IN (...)" which would change the SQL-text on every call)
+				ps.setArray(i+1, ps.getConnection().createArrayOf("int8", (Long[])params[i]));
+				
+			} else if (params[i] instanceof String[]){
+				ps.setArray(i+1, ps.getConnection().createArrayOf("varchar", (String[])params[i]));
+				
 			} else {
 				throw new InvalidParameterException("Unsupported/Unimplemented type of parameter: " + params[i].getClass().getName());
 			}		
@@ -94,8 +131,40 @@ public class Database {
 	// The java.sql.Connection that is wrapped by this class
 	private final Connection con;
 	
+	// The ConnectionPool from which con was borrowed (null if con was opened directly)
+	private final ConnectionPool pool;
+	
+	// Has the connection already been closed/returned to the pool?
+	private boolean closed = false;
+	
+	// The cached PreparedStatements of con
+	private final StatementCache statements;
+	
+	// All ResultSets that have been returned by this Database-object (they are closed when the Database-object is closed)
+	private final Vector<ResultSet> openResultSets = new Vector<ResultSet>();
+	
+	// Statements that could not be taken from the cache (they are closed when the Database-object is closed)
+	private final Vector<PreparedStatement> uncachedStatements = new Vector<PreparedStatement>();
+	
+	// The Deadline of the request that is being processed using this object (null if statements should not time out)
+	private Deadline deadline = null;
+	
 	/**
-	 * Create and open a new connection to the database using the stored login credentials
+	 * Borrow a connection to the database configured in the Crossbear properties from the ConnectionPool
+	 * 
+	 * @param properties The Properties and settings of the Crossbear server (database.url, database.user, database.password and database.pool.*)
+	 * @throws ClassNotFoundException
+	 * @throws SQLException
+	 */
+	public Database(Properties properties) throws ClassNotFoundException, SQLException{
+		
+		this.pool = ConnectionPool.getInstance(properties);
+		this.con = pool.borrow();
+		this.statements = pool.getStatementCache(con);
+	}
+	
+	/**
+	 * Create and open a new connection to the database using the stored login credentials. The connection is not pooled (use Database(Properties) for that).
 	 * 
 	 * @param url The location of the Crossbear database
 	 * @param user The user to access the database
@@ -109,20 +178,62 @@ public class Database {
 	    Class.forName(dbClassName);
 
 	    // Set username and password
-	    Properties p = new Properties();
+	    java.util.Properties p = new java.util.Properties();
 	    p.setProperty("user",user);
 	    p.setProperty("password",password);
 
 	    // Try to connect
 	    con = DriverManager.getConnection(url,p);
+	    pool = null;
+	    statements = new StatementCache(con, 64);
 	    
 	}
 	
-	/* (non-Javadoc)
+	/**
+	 * Close the connection or - if it has been borrowed from the ConnectionPool - return it to the pool. Calling this function more than once has no effect.
+	 * 
 	 * @see  java.sql.Connection#close()
 	 */
 	public void close() throws SQLException{
-		con.close();
+		if(closed){
+			return;
+		}
+		closed = true;
+		
+		// Close all ResultSets and statements that were used by this object. The cached statements stay open as long as the connection is open.
+		// Each of them is closed on its own so a failing close() neither keeps the others open nor prevents the connection from being released.
+		SQLException firstException = null;
+		try {
+			for(ResultSet rs : openResultSets){
+				try {
+					rs.close();
+				} catch (SQLException e) {
+					if(firstException == null){
+						firstException = e;
+					}
+				}
+			}
+			for(PreparedStatement ps : uncachedStatements){
+				try {
+					ps.close();
+				} catch (SQLException e) {
+					if(firstException == null){
+						firstException = e;
+					}
+				}
+			}
+		} finally {
+			if(pool != null){
+				pool.release(con);
+			} else {
+				statements.clear();
+				con.close();
+			}
+		}
+		
+		if(firstException != null){
+			throw firstException;
+		}
 	}
 	
 	/* (non-Javadoc)
@@ -143,8 +254,8 @@ public class Database {
 	 */
 	public String executeInsert(String sqlstmt, Object[] params) throws SQLException, InvalidParameterException {
 
-		// Create a new PreparedStatement that will return the KEYs it generated
-		PreparedStatement ps = con.prepareStatement(sqlstmt, PreparedStatement.RETURN_GENERATED_KEYS);
+		// Get a PreparedStatement that will return the KEYs it generated
+		PreparedStatement ps = prepare(sqlstmt, true);
 
 		// Try to set the parameters
 		setParams(ps, params);
@@ -154,14 +265,116 @@ public class Database {
 
 		// Get the id of the inserted row and return it
 		ResultSet keys = ps.getGeneratedKeys();
-		keys.next();
-		return keys.getString(1);
+		try {
+			keys.next();
+			return keys.getString(1);
+		} finally {
+			keys.close();
+		}
+
+	}
+	
+	/**
+	 * Execute a SQL-"INSERT"-Statement for several rows at once. The rows are sent to the database as one multi-row "INSERT ... VALUES (...),(...),..."-Statement, i.e. all of them are inserted
+	 * using a single round trip.
+	 * 
+	 * Please note: The version of the PostgreSQL-driver that Crossbear uses does not return generated keys for statements executed by PreparedStatement.executeBatch(). This is why the values
+	 * tuple is repeated instead. The database returns the generated keys in the order of the tuples.
+	 * 
+	 * @param sqlstmt The statement to execute for a single row. It has to end with the values tuple (e.g. "INSERT INTO HuntingTaskResults (HuntingTaskID, Trace, Observation) VALUES (?,?,?)")
+	 * @param rows The parameters for each row in the order in which they are used in the values tuple of sqlstmt
+	 * @return The IDs of the inserted rows (in the same order as "rows")
+	 * @throws SQLException
+	 * @throws InvalidParameterException
+	 */
+	public String[] executeBatchInsert(String sqlstmt, Vector<Object[]> rows) throws SQLException, InvalidParameterException {
+
+		// Nothing to insert -> no need to contact the database
+		if (rows.isEmpty()) {
+			return new String[0];
+		}
+
+		// Split the statement into its head and its values tuple
+		int valuesPos = sqlstmt.toUpperCase().lastIndexOf("VALUES");
+		if (valuesPos == -1) {
+			throw new InvalidParameterException("The statement " + sqlstmt + " does not contain a VALUES-clause");
+		}
+		String head = sqlstmt.substring(0, valuesPos + "VALUES".length());
+		String tuple = sqlstmt.substring(valuesPos + "VALUES".length()).trim();
+
+		// Repeat the values tuple once for each row and concatenate the parameters of all rows
+		StringBuilder batchstmt = new StringBuilder(head);
+		Vector<Object> params = new Vector<Object>();
+		for (int i = 0; i < rows.size(); i++) {
+			batchstmt.append(i == 0 ? " " : ",").append(tuple);
+			for (Object param : rows.get(i)) {
+				params.add(param);
+			}
+		}
+
+		// Get a PreparedStatement that will return the KEYs it generated. Its text depends on the number of rows and is therefore hardly ever reused: Don't let it displace the cached statements.
+		PreparedStatement ps = prepareUncached(batchstmt.toString(), true);
+		try {
+
+			// Try to set the parameters
+			setParams(ps, params.toArray());
+
+			// Execute it
+			ps.executeUpdate();
+
+			// Get the ids of the inserted rows and return them
+			String[] re = new String[rows.size()];
+			ResultSet keys = ps.getGeneratedKeys();
+			try {
+				for (int i = 0; i < re.length; i++) {
+					if (!keys.next()) {
+						throw new SQLException("The database returned less keys than rows were inserted");
+					}
+					re[i] = keys.getString(1);
+				}
+			} finally {
+				keys.close();
+			}
 
+			return re;
+		} finally {
+			ps.close();
+		}
+	}
+	
+	/**
+	 * Check if the connection supports PostgreSQL's "COPY ... FROM STDIN"-command (cf. copyIn)
+	 * 
+	 * @return True if copyIn can be used else false
+	 * @throws SQLException
+	 */
+	public boolean isCopySupported() throws SQLException {
+		return con.isWrapperFor(PGConnection.class);
+	}
+	
+	/**
+	 * Execute a "COPY ... FROM STDIN"-command and stream data to the database. This is by far the fastest way to insert a large number of rows.
+	 * 
+	 * @param sqlstmt The command to execute (e.g. "COPY HuntingTaskResults (HuntingTaskID, Trace, Observation) FROM STDIN")
+	 * @param data The rows to insert in the format expected by the command (e.g. PostgreSQL's text format: one line per row, tab-separated columns)
+	 * @return The number of inserted rows
+	 * @throws SQLException
+	 * @throws IOException
+	 */
+	public long copyIn(String sqlstmt, Reader data) throws SQLException, IOException {
+
+		if (!isCopySupported()) {
+			throw new SQLException("The database connection does not support COPY");
+		}
+
+		return con.unwrap(PGConnection.class).getCopyAPI().copyIn(sqlstmt, data);
 	}
 	
 	/**
 	 * Execute a SQL-Statement as PreparedStatment.
 	 * 
+	 * Please note: The returned ResultSet is closed when the Database-object is closed or when the same statement is executed again after the ResultSet has been closed.
+	 * 
 	 * @param sqlstmt The statement to execute (e.g. "SELECT * FROM CertCache WHERE HostPort = ? LIMIT 1")
 	 * @param params The parameters for the PreparedStatement in the order in which they are used in sqlstmt
 	 * @return The result that is returned by the database in response to the query
@@ -170,17 +383,48 @@ public class Database {
 	 */
 	public ResultSet executeQuery(String sqlstmt, Object[] params) throws SQLException,InvalidParameterException{
 		
-		// Create a new PreparedStatement
-		PreparedStatement ps = con.prepareStatement(sqlstmt);
+		// Get a PreparedStatement
+		PreparedStatement ps = prepare(sqlstmt, false);
 		
 		// Try to set the parameters
 		setParams(ps, params);
 		
-		// Execute it and return the result of the execution
-		return ps.executeQuery();
+		// Execute it, remember the result so it can be closed later on and return it
+		ResultSet rs = ps.executeQuery();
+		statements.setResultSet(ps, rs);
+		openResultSets.add(rs);
+		
+		return rs;
 		
 	}
 	
+	/**
+	 * Execute a SQL-Statement as PreparedStatment and convert each row of its result into an object. The ResultSet is closed before this function returns.
+	 * 
+	 * @param sqlstmt The statement to execute (e.g. "SELECT Id FROM ServerCerts WHERE SHA256DERHash = ?")
+	 * @param params The parameters for the PreparedStatement in the order in which they are used in sqlstmt
+	 * @param mapper The RowMapper that converts a row into an object
+	 * @return The objects representing the rows of the result in the order in which they were returned by the database
+	 * @throws SQLException
+	 * @throws InvalidParameterException
+	 */
+	public <T> Vector<T> executeQuery(String sqlstmt, Object[] params, RowMapper<T> mapper) throws SQLException,InvalidParameterException{
+		
+		Vector<T> re = new Vector<T>();
+		
+		ResultSet rs = executeQuery(sqlstmt, params);
+		try {
+			while(rs.next()){
+				re.add(mapper.mapRow(rs));
+			}
+		} finally {
+			rs.close();
+			openResultSets.remove(rs);
+		}
+		
+		return re;
+	}
+	
 	/**
 	 * Execute a SQL-"UPDATE"-Statement as PreparedStatment.
 	 * 
@@ -192,8 +436,8 @@ public class Database {
 	 */
 	public int executeUpdate(String sqlstmt, Object[] params) throws SQLException,InvalidParameterException{
 		
-		// Create a new PreparedStatement
-		PreparedStatement ps = con.prepareStatement(sqlstmt);
+		// Get a PreparedStatement
+		PreparedStatement ps = prepare(sqlstmt, false);
 		
 		// Try to set the parameters
 		setParams(ps, params);
@@ -203,6 +447,46 @@ public class Database {
 		
 	}
 	
+	/**
+	 * Get a PreparedStatement for a SQL-statement from the StatementCache. Executing a statement closes its previous ResultSet. Therefore, if the ResultSet that was returned for the cached
+	 * statement is still in use, a new statement is created instead (this happens when the same query is executed while iterating over its previous result).
+	 * 
+	 * @param sqlstmt The statement to prepare
+	 * @param returnGeneratedKeys Should the statement return the keys it generated?
+	 * @return A PreparedStatement for sqlstmt
+	 * @throws SQLException
+	 */
+	private PreparedStatement prepare(String sqlstmt, boolean returnGeneratedKeys) throws SQLException {
+		
+		PreparedStatement ps = statements.prepare(sqlstmt, returnGeneratedKeys);
+		
+		if(statements.isInUse(ps)){
+			ps = prepareUncached(sqlstmt, returnGeneratedKeys);
+			uncachedStatements.add(ps);
+		} else {
+			// Cached statements are shared by all users of the connection: Always set the timeout (0 means "no timeout") so no previous user's timeout is inherited
+			ps.setQueryTimeout(deadline == null ? 0 : deadline.getQueryTimeoutSeconds());
+		}
+		
+		return ps;
+	}
+	
+	/**
+	 * Get a PreparedStatement for a SQL-statement that is not taken from (nor added to) the StatementCache. The caller is responsible for closing it.
+	 * 
+	 * @param sqlstmt The statement to prepare
+	 * @param returnGeneratedKeys Should the statement return the keys it generated?
+	 * @return A new PreparedStatement for sqlstmt
+	 * @throws SQLException
+	 */
+	private PreparedStatement prepareUncached(String sqlstmt, boolean returnGeneratedKeys) throws SQLException {
+		
+		PreparedStatement ps = returnGeneratedKeys ? con.prepareStatement(sqlstmt, PreparedStatement.RETURN_GENERATED_KEYS) : con.prepareStatement(sqlstmt);
+		ps.setQueryTimeout(deadline == null ? 0 : deadline.getQueryTimeoutSeconds());
+		
+		return ps;
+	}
+	
 	/* (non-Javadoc)
 	 * @see  java.sql.Connection#rollback()
 	 */
@@ -210,6 +494,15 @@ public class Database {
 		con.rollback();
 	}
 	
+	/**
+	 * Set the Deadline of the request that is being processed using this object. Each statement that is executed afterwards gets the time that remains until the Deadline as query timeout.
+	 * 
+	 * @param deadline The Deadline or null if statements should not time out
+	 */
+	public void setDeadline(Deadline deadline){
+		this.deadline = deadline;
+	}
+	
 	/* (non-Javadoc)
 	 * @see  java.sql.setAutoCommit#rollback(boolean)
 	 */
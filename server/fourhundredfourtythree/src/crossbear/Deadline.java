@@ -0,0 +1,69 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package crossbear;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A Deadline is the point in time by which a request should have been answered. It is created when the request arrives and passed to everything that might block while processing it (e.g. the
+ * Database, which derives the query timeout of each statement from it).
+ *
+ * The Deadline is measured using System.nanoTime() and is therefore not affected by changes of the system clock.
+ *
+ * @author Thomas Riedmaier
+ *
+ */
+public class Deadline {
+
+	// The value of System.nanoTime() at which the Deadline expires
+	private final long expiresAtNanos;
+
+	/**
+	 * Create a new Deadline
+	 *
+	 * @param millis The time in milliseconds from now on until the Deadline expires
+	 */
+	public Deadline(long millis) {
+		this.expiresAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+
+	/**
+	 * @return The time in milliseconds until the Deadline expires (0 if it has already expired)
+	 */
+	public long getRemainingMillis() {
+		return Math.max(0, TimeUnit.NANOSECONDS.toMillis(expiresAtNanos - System.nanoTime()));
+	}
+
+	/**
+	 * @return True if the Deadline has expired else false
+	 */
+	public boolean isExpired() {
+		return expiresAtNanos - System.nanoTime() <= 0;
+	}
+
+	/**
+	 * Get the query timeout for a database statement that is executed now. JDBC measures query timeouts in whole seconds and treats 0 as "no timeout". Therefore the remaining time is rounded up
+	 * and a statement that is executed after the Deadline expired gets a timeout of one second (instead of none).
+	 *
+	 * @return The query timeout in seconds (at least 1)
+	 */
+	public int getQueryTimeoutSeconds() {
+		return (int) Math.max(1, (getRemainingMillis() + 999) / 1000);
+	}
+
+}
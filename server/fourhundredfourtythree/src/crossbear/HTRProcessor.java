@@ -27,6 +27,7 @@ import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.cert.CertificateException;
 import java.sql.SQLException;
+import java.util.Vector;
 
 import crossbear.messaging.HuntingTaskReply;
 import crossbear.messaging.HuntingTaskReplyKnownCertChain;
@@ -35,8 +36,8 @@ import crossbear.messaging.Message;
 
 
 /**
- * The HTRProcessor takes as input a InputStream whose content is supposed to be an array of HuntingTaskReply-messages. It attempts to decode the messages one-by-one and - in case they are valid -
- * adds them to the database.
+ * The HTRProcessor takes as input a InputStream whose content is supposed to be an array of HuntingTaskReply-messages. It attempts to decode the messages one-by-one and - in case all of them are
+ * valid - adds them to the database at once.
  * 
  * @author Thomas Riedmaier
  * 
@@ -46,6 +47,8 @@ public class HTRProcessor {
 	/**
 	 * Try to decode an InputStream as array of HuntingTaskReply-messages. If that worked check if the HuntingTaskReplies are valid and - in case they are - add them to the database.
 	 * 
+	 * Storing the replies is done using a constant number of round trips to the database (cf. HuntingTaskReply.storeInDatabase(Vector, CertificateManager, Database)).
+	 * 
 	 * @param in The InputStream to decode
 	 * @param cm The CertificateManager that it will use for processing or storing certificates
 	 * @param db The Database connection to use
@@ -61,6 +64,9 @@ public class HTRProcessor {
 	 */
 	public HTRProcessor(InputStream in, CertificateManager cm, Database db) throws IOException, InvalidParameterException, InvalidKeyException, NoSuchAlgorithmException, NoSuchProviderException, SQLException, CertificateException, InvalidAlgorithmParameterException, KeyStoreException {
 		
+		// The replies that have been decoded so far
+		Vector<HuntingTaskReply> replies = new Vector<HuntingTaskReply>();
+		
 		// Try to read an array of crossbear.Message from the InputStream
 		while (true) {
 		
@@ -91,9 +97,12 @@ public class HTRProcessor {
 				reply = new HuntingTaskReplyNewCertChain(raw,cm,db);
 			}
 			
-			// If the constructor didn't throw any Exceptions: Store the reply in the database
-			reply.storeInDatabase(db);
+			// If the constructor didn't throw any Exceptions: Remember the reply
+			replies.add(reply);
 			
 		}
+		
+		// Store all replies in the database
+		HuntingTaskReply.storeInDatabase(replies, cm, db);
 	}
 }
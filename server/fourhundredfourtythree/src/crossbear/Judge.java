@@ -0,0 +1,53 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package crossbear;
+
+/**
+ * A Judge judges the certificate of a CertVerifyRequest based on one criterion (e.g. "Is the certificate currently valid?") and returns its judgment as CertJudgment. The judgments of all Judges
+ * that are configured in the JudgeRegistry make up the CertVerifyResult (cf. CVRProcessor.process).
+ *
+ * Judges that are not built into Crossbear can be added by implementing this interface (the implementing class needs a public constructor without parameters) and configuring them in the
+ * crossbear.properties (cf. JudgeRegistry).
+ *
+ * Please note: Judges might be called by several threads at the same time and must therefore be thread-safe.
+ *
+ * @author Thomas Riedmaier
+ *
+ */
+public interface Judge {
+
+	/**
+	 * @return The name of the Judge (used to configure it in the crossbear.properties and to report its metrics)
+	 */
+	public String getName();
+
+	/**
+	 * @return True if the Judge needs the server's certificate (cf. JudgmentInput.getServerCert). If it doesn't, it is called while the server's certificate is still being fetched.
+	 */
+	public boolean requiresServerCert();
+
+	/**
+	 * Judge the certificate of a CertVerifyRequest
+	 *
+	 * @param input The CertVerifyRequest, its certificate and everything else that is known about it
+	 * @return The judgment or null if the Judge has nothing to say about the certificate
+	 * @throws Exception
+	 */
+	public CertJudgment judge(JudgmentInput input) throws Exception;
+
+}
@@ -0,0 +1,116 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package crossbear;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * JudgeMetrics count how often a Judge has been called, how often it failed or exceeded its time budget and how long its calls took. The durations are counted in a histogram with fixed buckets so
+ * recording them neither allocates memory nor requires locking.
+ *
+ * @author Thomas Riedmaier
+ *
+ */
+public class JudgeMetrics {
+
+	// The upper bounds (in milliseconds) of the histogram's buckets. Durations that exceed the last bound are counted in an additional bucket.
+	private static final long[] bucketBounds = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000 };
+
+	// The name of the Judge
+	private final String name;
+
+	// The number of completed calls of the Judge (successful, failed or too late)
+	private final AtomicLong calls = new AtomicLong(0);
+
+	// The number of calls that threw an exception (apart from those that exceeded the time budget)
+	private final AtomicLong errors = new AtomicLong(0);
+
+	// The number of calls whose result was not available within the Judge's time budget
+	private final AtomicLong timeouts = new AtomicLong(0);
+
+	// The sum of the durations of all completed calls in nanoseconds
+	private final AtomicLong totalNanos = new AtomicLong(0);
+
+	// The number of completed calls per duration bucket
+	private final AtomicLongArray histogram = new AtomicLongArray(bucketBounds.length + 1);
+
+	/**
+	 * Create new JudgeMetrics
+	 *
+	 * @param name The name of the Judge
+	 */
+	public JudgeMetrics(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Record a completed call of the Judge
+	 *
+	 * @param nanos The duration of the call in nanoseconds
+	 */
+	public void recordCall(long nanos) {
+		calls.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+
+		long millis = nanos / 1000000;
+		int bucket = 0;
+		while (bucket < bucketBounds.length && millis >= bucketBounds[bucket]) {
+			bucket++;
+		}
+		histogram.incrementAndGet(bucket);
+	}
+
+	/**
+	 * Record that a call threw an exception
+	 */
+	public void recordError() {
+		errors.incrementAndGet();
+	}
+
+	/**
+	 * Record that the result of a call was not available within the Judge's time budget
+	 */
+	public void recordTimeout() {
+		timeouts.incrementAndGet();
+	}
+
+	/**
+	 * Get the current status of the JudgeMetrics
+	 *
+	 * @return A status text containing the counters and all non-empty buckets of the histogram
+	 */
+	public String getStatus() {
+		long numOfCalls = calls.get();
+
+		StringBuilder re = new StringBuilder("Judge " + name + ": " + numOfCalls + " calls, " + errors.get() + " errors, " + timeouts.get() + " timeouts");
+		if (numOfCalls > 0) {
+			re.append(", avg " + (totalNanos.get() / numOfCalls / 1000) + "us");
+		}
+
+		for (int i = 0; i < histogram.length(); i++) {
+			long count = histogram.get(i);
+			if (count > 0) {
+				re.append(", " + ((i < bucketBounds.length) ? "<" + bucketBounds[i] + "ms" : ">=" + bucketBounds[bucketBounds.length - 1] + "ms") + ": " + count);
+			}
+		}
+
+		return re.toString();
+	}
+
+}
@@ -0,0 +1,388 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package crossbear;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The JudgeRegistry knows which Judges are used to judge the certificates of CertVerifyRequests, in which order their judgments appear in the CertVerifyResult and how much time each of them may
+ * take. It is configured in the crossbear.properties:
+ *
+ * - judges.order: The names of the Judges to use separated by commas (default: all Judges that are built into Crossbear except for the convergence-Judge, cf. CVRProcessor.getBuiltInJudges). Judges that are not listed are not used.
+ * - judges.NAME.class: The class of a Judge that is not built into Crossbear (it has to implement the Judge-interface and to have a public constructor without parameters)
+ * - judges.NAME.enabled: Set to false to disable a Judge without removing it from judges.order (default: true)
+ * - judges.NAME.timeoutMillis: The time budget of a Judge. If it is greater than 0, the Judge is run by the PipelineExecutor and its judgment is left out of the CertVerifyResult if it is not available
+ *   in time. If it is 0, the Judge is run by the thread that is processing the request without any time budget (default: 0, which is best for Judges that don't block).
+ *
+ * The crossbear.properties are checked for modifications once per minute and the configuration is replaced as a whole if they have been modified. A slow Judge can thus be time-boxed or disabled
+ * without a redeploy. Each Judge's calls, errors, timeouts and durations are counted by its JudgeMetrics (they are kept when the configuration is replaced).
+ *
+ * @author Thomas Riedmaier
+ *
+ */
+public class JudgeRegistry {
+
+	/**
+	 * A Judge together with its configuration and its metrics
+	 */
+	public static class ConfiguredJudge {
+
+		// The Judge
+		private final Judge judge;
+
+		// The time budget of the Judge in milliseconds (0 if it is run without time budget by the thread that is processing the request)
+		private final long timeoutMillis;
+
+		// The metrics of the Judge
+		private final JudgeMetrics metrics;
+
+		/**
+		 * Create a new ConfiguredJudge
+		 *
+		 * @param judge The Judge
+		 * @param timeoutMillis The time budget of the Judge in milliseconds (0 if it should be run without time budget by the thread that is processing the request)
+		 * @param metrics The metrics of the Judge
+		 */
+		private ConfiguredJudge(Judge judge, long timeoutMillis, JudgeMetrics metrics) {
+			this.judge = judge;
+			this.timeoutMillis = timeoutMillis;
+			this.metrics = metrics;
+		}
+
+		/**
+		 * @return The Judge
+		 */
+		public Judge getJudge() {
+			return judge;
+		}
+
+		/**
+		 * Start judging a certificate. If the Judge has a time budget, it is run by the PipelineExecutor, else it is run right away. If the PipelineExecutor rejects the Judge, it counts as having
+		 * exceeded its time budget.
+		 *
+		 * @param input The CertVerifyRequest, its certificate and everything else that is known about it
+		 * @param executor The executor that runs Judges that have a time budget (if it is null, all Judges are run right away)
+		 * @return The RunningJudgment whose result is the Judge's judgment
+		 */
+		public RunningJudgment start(final JudgmentInput input, ExecutorService executor) {
+
+			// Record the duration of the call (no matter whether its result is used or not)
+			Callable<CertJudgment> call = new Callable<CertJudgment>() {
+				@Override
+				public CertJudgment call() throws Exception {
+					long start = System.nanoTime();
+					try {
+						return judge.judge(input);
+					} finally {
+						metrics.recordCall(System.nanoTime() - start);
+					}
+				}
+			};
+
+			long startNanos = System.nanoTime();
+			Future<CertJudgment> future;
+			if (timeoutMillis <= 0 || executor == null) {
+				FutureTask<CertJudgment> task = new FutureTask<CertJudgment>(call);
+				task.run();
+				future = task;
+			} else {
+				try {
+					future = executor.submit(call);
+				} catch (RejectedExecutionException e) {
+
+					// The PipelineExecutor is saturated: The Judge can't be run within its time budget -> count it as a timeout and leave its judgment out
+					metrics.recordTimeout();
+					FutureTask<CertJudgment> task = new FutureTask<CertJudgment>(new Callable<CertJudgment>() {
+						@Override
+						public CertJudgment call() {
+							return null;
+						}
+					});
+					task.run();
+					future = task;
+				}
+			}
+
+			return new RunningJudgment(this, future, startNanos);
+		}
+	}
+
+	/**
+	 * A judgment that has been started by ConfiguredJudge.start
+	 */
+	public static class RunningJudgment {
+
+		// The Judge that makes the judgment
+		private final ConfiguredJudge configuredJudge;
+
+		// The Future of the judgment
+		private final Future<CertJudgment> future;
+
+		// The value of System.nanoTime() when the judgment was started
+		private final long startNanos;
+
+		/**
+		 * Create a new RunningJudgment
+		 *
+		 * @param configuredJudge The Judge that makes the judgment
+		 * @param future The Future of the judgment
+		 * @param startNanos The value of System.nanoTime() when the judgment was started
+		 */
+		private RunningJudgment(ConfiguredJudge configuredJudge, Future<CertJudgment> future, long startNanos) {
+			this.configuredJudge = configuredJudge;
+			this.future = future;
+			this.startNanos = startNanos;
+		}
+
+		/**
+		 * @return The Judge that makes the judgment
+		 */
+		public Judge getJudge() {
+			return configuredJudge.judge;
+		}
+
+		/**
+		 * Wait for the judgment (at most until the Judge's time budget is used up)
+		 *
+		 * @param logDir The directory to write the exception to if the Judge failed
+		 * @return The judgment or null if the Judge failed, exceeded its time budget or had nothing to say about the certificate
+		 */
+		public CertJudgment getResult(String logDir) {
+			try {
+				if (configuredJudge.timeoutMillis <= 0) {
+					return future.get();
+				}
+
+				long remainingNanos = TimeUnit.MILLISECONDS.toNanos(configuredJudge.timeoutMillis) - (System.nanoTime() - startNanos);
+				return future.get(Math.max(0, remainingNanos), TimeUnit.NANOSECONDS);
+
+			} catch (TimeoutException e) {
+
+				// Time budget exceeded: Leave the judgment out and stop the Judge (if it reacts to interruption)
+				future.cancel(true);
+				configuredJudge.metrics.recordTimeout();
+				return null;
+
+			} catch (ExecutionException e) {
+
+				// The Judge failed: Leave the judgment out
+				configuredJudge.metrics.recordError();
+				Throwable cause = e.getCause();
+				Logger.dumpExceptionToFile(logDir + "/fourhundredfourtythree.judge." + configuredJudge.judge.getName() + ".error", (cause instanceof Exception) ? (Exception) cause : e);
+				return null;
+
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+		}
+	}
+
+	// The built-in Judges that are only used if they are listed in judges.order explicitly (the convergence-Judge contacts the Convergence notaries which might take several seconds)
+	private static final String[] optInJudges = { "convergence" };
+
+	// The time in milliseconds between two checks whether the crossbear.properties have been modified
+	private static final long configCheckInterval = 60 * 1000;
+
+	// The JudgeRegistry of the Crossbear server (created on first use)
+	private static JudgeRegistry instance = null;
+
+	/**
+	 * Get the JudgeRegistry of the Crossbear server. It is created on the first call.
+	 *
+	 * @param properties The Properties and settings of the Crossbear server
+	 * @return The JudgeRegistry
+	 */
+	public static synchronized JudgeRegistry getInstance(Properties properties) {
+		if (instance == null) {
+			instance = new JudgeRegistry(properties);
+		}
+		return instance;
+	}
+
+	/**
+	 * Get the current status of the JudgeRegistry of the Crossbear server
+	 *
+	 * @return A status text containing the metrics of all Judges that have been used so far
+	 */
+	public static synchronized String getStatusOfInstance() {
+		return (instance == null) ? "Judges: not used yet" : instance.getStatus();
+	}
+
+	// The filename of the crossbear.properties (null if the configuration is never reloaded)
+	private final String propertyFileName;
+
+	// The directory to write exceptions to
+	private final String logDir;
+
+	// The metrics of all Judges that have been configured so far. Their KEY is the name of the Judge
+	private final ConcurrentHashMap<String, JudgeMetrics> metrics = new ConcurrentHashMap<String, JudgeMetrics>();
+
+	// The Judges that are currently used (replaced as a whole when the configuration is reloaded)
+	private volatile Vector<ConfiguredJudge> judges;
+
+	// The modification time of the crossbear.properties at the time they were loaded
+	private volatile long configLastModified;
+
+	// The time of the last check whether the crossbear.properties have been modified
+	private volatile long lastConfigCheck;
+
+	/**
+	 * Create a new JudgeRegistry
+	 *
+	 * @param properties The Properties and settings of the Crossbear server (if they are null the default built-in Judges are used without time budget and the configuration is never reloaded)
+	 */
+	public JudgeRegistry(Properties properties) {
+		this.propertyFileName = (properties == null) ? null : properties.getFileName();
+		this.logDir = (properties == null) ? "/tmp" : properties.getProperty("logging.dir");
+		this.configLastModified = (propertyFileName == null) ? 0 : new File(propertyFileName).lastModified();
+		this.lastConfigCheck = System.currentTimeMillis();
+		this.judges = configure(properties);
+	}
+
+	/**
+	 * @return The directory to write exceptions to
+	 */
+	public String getLogDir() {
+		return logDir;
+	}
+
+	/**
+	 * Get the Judges that are currently used (in the order in which their judgments should appear in the CertVerifyResult). If the crossbear.properties have been modified since they were loaded,
+	 * the configuration is reloaded first.
+	 *
+	 * @return The Judges and their configuration
+	 */
+	public Vector<ConfiguredJudge> getJudges() {
+
+		long now = System.currentTimeMillis();
+		if (propertyFileName != null && now - lastConfigCheck > configCheckInterval) {
+			synchronized (this) {
+				if (now - lastConfigCheck > configCheckInterval) {
+					lastConfigCheck = now;
+
+					long lastModified = new File(propertyFileName).lastModified();
+					if (lastModified != configLastModified) {
+						try {
+							judges = configure(new Properties(propertyFileName));
+							configLastModified = lastModified;
+						} catch (Exception e) {
+
+							// Keep using the old configuration (reloading is tried again on the next check)
+							Logger.dumpExceptionToFile(logDir + "/fourhundredfourtythree.judges.reload.error", e);
+						}
+					}
+				}
+			}
+		}
+
+		return judges;
+	}
+
+	/**
+	 * Create the list of Judges that are used according to a configuration
+	 *
+	 * @param properties The Properties and settings of the Crossbear server (if they are null the default built-in Judges are used without time budget)
+	 * @return The Judges and their configuration in the order in which their judgments should appear in the CertVerifyResult
+	 */
+	private Vector<ConfiguredJudge> configure(Properties properties) {
+
+		Vector<Judge> builtInJudges = CVRProcessor.getBuiltInJudges();
+
+		// Get the names of the Judges to use
+		String order = (properties == null) ? null : properties.getProperty("judges.order");
+		Vector<String> names = new Vector<String>();
+		if (order == null) {
+			for (Judge judge : builtInJudges) {
+				if (!Arrays.asList(optInJudges).contains(judge.getName())) {
+					names.add(judge.getName());
+				}
+			}
+		} else {
+			for (String name : order.split(",")) {
+				if (name.trim().length() > 0) {
+					names.add(name.trim());
+				}
+			}
+		}
+
+		Vector<ConfiguredJudge> re = new Vector<ConfiguredJudge>();
+		for (String name : names) {
+
+			if (properties != null && !properties.getBooleanProperty("judges." + name + ".enabled", true)) {
+				continue;
+			}
+
+			try {
+				// Find the Judge among the built-in ones or create it from its class
+				Judge judge = null;
+				for (Judge builtInJudge : builtInJudges) {
+					if (builtInJudge.getName().equals(name)) {
+						judge = builtInJudge;
+					}
+				}
+				String className = (properties == null) ? null : properties.getProperty("judges." + name + ".class");
+				if (className != null) {
+					judge = (Judge) Class.forName(className.trim()).getDeclaredConstructor().newInstance();
+				}
+				if (judge == null) {
+					throw new IllegalArgumentException("There is no Judge called " + name);
+				}
+
+				long timeoutMillis = (properties == null) ? 0 : properties.getIntProperty("judges." + name + ".timeoutMillis", 0);
+
+				// Keep the metrics of Judges that have been configured before
+				metrics.putIfAbsent(name, new JudgeMetrics(name));
+
+				re.add(new ConfiguredJudge(judge, timeoutMillis, metrics.get(name)));
+
+			} catch (Exception e) {
+
+				// Skip Judges that can't be created
+				Logger.dumpExceptionToFile(logDir + "/fourhundredfourtythree.judges.config.error", e);
+			}
+		}
+
+		return re;
+	}
+
+	/**
+	 * Get the current status of the JudgeRegistry
+	 *
+	 * @return A status text containing the metrics of all Judges that have been used so far
+	 */
+	public String getStatus() {
+		StringBuilder re = new StringBuilder();
+		for (JudgeMetrics judgeMetrics : metrics.values()) {
+			re.append(re.length() == 0 ? "" : "<br>\r\n").append(judgeMetrics.getStatus());
+		}
+		return re.toString();
+	}
+
+}
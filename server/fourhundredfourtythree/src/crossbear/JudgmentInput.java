@@ -0,0 +1,184 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package crossbear;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import crossbear.messaging.CertVerifyRequest;
+
+/**
+ * The JudgmentInput contains everything a Judge might need to judge the certificate of a CertVerifyRequest: The request itself, its certificate, the summary of the certificate's previous
+ * observations and - for Judges that require it - the certificate that the server observed for the same host.
+ *
+ * Since Judges might run in threads other than the one that is processing the request, they must not use its database connection. Judges that need to access the database can open a connection of
+ * their own (cf. openDatabase).
+ *
+ * @author Thomas Riedmaier
+ *
+ */
+public class JudgmentInput {
+
+	// The CertVerifyRequest whose certificate is judged
+	private final CertVerifyRequest cvr;
+
+	// The certificate that the client sent
+	private final X509Certificate requestCert;
+
+	// The Hostname and port of the server from which the certificate has been observed by the client e.g. encrypted.google.com:443
+	private final String hostPort;
+
+	// The summary of the certificate's previous observations for the host
+	private final ObservationSummary observationSummary;
+
+	// The CertificateManager that is used for processing or storing certificates
+	private final CertificateManager cm;
+
+	// The Properties and settings of the Crossbear server (null if they are not known)
+	private final Properties properties;
+
+	// The certificate that the server observed for the host (null if it could not be obtained or if it is not yet known)
+	private volatile X509Certificate serverCert = null;
+
+	// Is the server's certificate known (i.e. has setServerCert been called)?
+	private volatile boolean serverCertKnown = false;
+
+	// Has the server's certificate just been downloaded from the server (i.e. has a new observation of it been recorded that is not yet part of observationSummary)?
+	private volatile boolean serverCertNewlyObserved = false;
+
+	/**
+	 * Create a new JudgmentInput
+	 *
+	 * @param cvr The CertVerifyRequest whose certificate is judged
+	 * @param requestCert The certificate that the client sent
+	 * @param hostPort The Hostname and port of the server from which the certificate has been observed by the client e.g. encrypted.google.com:443
+	 * @param observationSummary The summary of the certificate's previous observations for the host
+	 * @param cm The CertificateManager that is used for processing or storing certificates
+	 * @param properties The Properties and settings of the Crossbear server (null if they are not known)
+	 */
+	public JudgmentInput(CertVerifyRequest cvr, X509Certificate requestCert, String hostPort, ObservationSummary observationSummary, CertificateManager cm, Properties properties) {
+		this.cvr = cvr;
+		this.requestCert = requestCert;
+		this.hostPort = hostPort;
+		this.observationSummary = observationSummary;
+		this.cm = cm;
+		this.properties = properties;
+	}
+
+	/**
+	 * @return The CertVerifyRequest whose certificate is judged
+	 */
+	public CertVerifyRequest getRequest() {
+		return cvr;
+	}
+
+	/**
+	 * @return The certificate that the client sent
+	 */
+	public X509Certificate getRequestCert() {
+		return requestCert;
+	}
+
+	/**
+	 * @return The Hostname and port of the server from which the certificate has been observed by the client e.g. encrypted.google.com:443
+	 */
+	public String getHostPort() {
+		return hostPort;
+	}
+
+	/**
+	 * @return The summary of the certificate's previous observations for the host
+	 */
+	public ObservationSummary getObservationSummary() {
+		return observationSummary;
+	}
+
+	/**
+	 * @return The CertificateManager that is used for processing or storing certificates
+	 */
+	public CertificateManager getCertificateManager() {
+		return cm;
+	}
+
+	/**
+	 * Set the certificate that the server observed for the host (called as soon as it has been fetched)
+	 *
+	 * @param serverCert The server's certificate or null if it could not be obtained
+	 * @param newlyObserved True if the certificate has just been downloaded from the server (and a new observation of it has been recorded) or false if it has been taken from the cache
+	 */
+	public void setServerCert(X509Certificate serverCert, boolean newlyObserved) {
+		this.serverCert = serverCert;
+		this.serverCertNewlyObserved = newlyObserved;
+		this.serverCertKnown = true;
+	}
+
+	/**
+	 * @return True if the server's certificate has been fetched (or if fetching it failed) else false
+	 */
+	public boolean isServerCertKnown() {
+		return serverCertKnown;
+	}
+
+	/**
+	 * @return The certificate that the server observed for the host or null if it could not be obtained (only available to Judges that require it, cf. Judge.requiresServerCert)
+	 */
+	public X509Certificate getServerCert() {
+		return serverCert;
+	}
+
+	/**
+	 * Check if the server observed the same certificate as the client
+	 *
+	 * @return True if the server's certificate is known and equal to the one that the client sent else false
+	 * @throws CertificateEncodingException
+	 * @throws NoSuchAlgorithmException
+	 */
+	public boolean isObservedByServer() throws CertificateEncodingException, NoSuchAlgorithmException {
+		X509Certificate cert = serverCert;
+		return cert != null && Arrays.equals(CertFingerprints.of(cert).getSHA256(), CertFingerprints.of(requestCert).getSHA256());
+	}
+
+	/**
+	 * Check if the fetch of the server's certificate recorded a new observation of the certificate that the client sent. That observation is not yet part of the ObservationSummary.
+	 *
+	 * @return True if the server's certificate has just been downloaded from the server and is equal to the one that the client sent else false
+	 * @throws CertificateEncodingException
+	 * @throws NoSuchAlgorithmException
+	 */
+	public boolean isNewlyObservedByServer() throws CertificateEncodingException, NoSuchAlgorithmException {
+		return serverCertNewlyObserved && isObservedByServer();
+	}
+
+	/**
+	 * Open a database connection for the Judge's own use. It has to be closed by the Judge.
+	 *
+	 * @return A Database-object that has borrowed a connection from the pool
+	 * @throws ClassNotFoundException
+	 * @throws SQLException
+	 */
+	public Database openDatabase() throws ClassNotFoundException, SQLException {
+		if (properties == null) {
+			throw new SQLException("The Properties of the Crossbear server are not known");
+		}
+		return new Database(properties);
+	}
+
+}
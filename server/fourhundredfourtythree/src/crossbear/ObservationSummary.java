@@ -0,0 +1,139 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package crossbear;
+
+import java.security.InvalidParameterException;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Vector;
+
+/**
+ * Container class for the information about the previous observations of a certificate for a host by the CrossbearServer. It is required to judge the certificate's last continuous observation period
+ * and its total number of observations. The information is taken from the CertObservationSummary-table (cf. crossbear.sql) and from the observations that have not yet been stored.
+ *
+ * @author Thomas Riedmaier
+ *
+ */
+public class ObservationSummary {
+
+	/**
+	 * Load the summary of the previous observations of a certificate for a host by the CrossbearServer
+	 *
+	 * @param cert The certificate
+	 * @param hostPort The Hostname and port of the server from which it has been observed by the client e.g. encrypted.google.com:443
+	 * @param cm The CertificateManager that knows about observations that have not yet been stored
+	 * @param db The database connection to use
+	 * @return The summary of the certificate's observations
+	 * @throws CertificateEncodingException
+	 * @throws NoSuchAlgorithmException
+	 * @throws InvalidParameterException
+	 * @throws SQLException
+	 */
+	public static ObservationSummary load(X509Certificate cert, String hostPort, CertificateManager cm, Database db) throws CertificateEncodingException, NoSuchAlgorithmException,
+			InvalidParameterException, SQLException {
+
+		// Get the observations of the certificate that have not yet been stored (they are always newer than the ones that have been). This is done before querying the database so no observation is missed.
+		Vector<Timestamp> pendingObservations = cm.getPendingObservationTimes(hostPort, cert, "CrossbearServer");
+
+		// Get the summary of the certificate's stored observations for the host (it is updated on every observation, cf. CertObservationSummary in crossbear.sql). If a different certificate has been
+		// observed for the host last, the time of that observation is the last observation of a different certificate (cf. LastCertObservations in crossbear.sql).
+		Object[] params = { hostPort, CertFingerprints.of(cert).getSHA256Hex() };
+		ResultSet rs = db.executeQuery("SELECT s.LastObservation, s.PeriodBegin, CASE WHEN l.LastSHA256DERHash <> s.SHA256DERHash THEN l.LastObservation END AS LastOtherObservation, s.NumOfObservations "
+				+ "FROM CertObservationSummary s LEFT JOIN LastCertObservations l ON l.ServerHostPort = s.ServerHostPort AND l.ObserverType = s.ObserverType "
+				+ "WHERE s.ServerHostPort = ? AND s.SHA256DERHash = ? AND s.ObserverType = 'CrossbearServer'", params);
+
+		// There is no summary if the certificate has never been observed for the host
+		if (!rs.next()) {
+			return new ObservationSummary(null, null, null, 0, pendingObservations);
+		}
+
+		return new ObservationSummary(rs.getTimestamp("LastObservation"), rs.getTimestamp("PeriodBegin"), rs.getTimestamp("LastOtherObservation"), rs.getLong("NumOfObservations"), pendingObservations);
+	}
+
+	// The time of the last stored observation of the certificate (null if it has never been observed)
+	private final Timestamp lastObservation;
+
+	// The begin of the certificate's last continuous observation period (null if it has never been observed)
+	private final Timestamp periodBegin;
+
+	// The time of the last stored observation of a different certificate for the host (null if there is none after the last observation of the certificate)
+	private final Timestamp lastOtherObservation;
+
+	// The number of stored observations of the certificate
+	private final long numOfObservations;
+
+	// The times of the observations of the certificate that have not yet been stored
+	private final Vector<Timestamp> pendingObservations;
+
+	/**
+	 * Create a new ObservationSummary
+	 *
+	 * @param lastObservation The time of the last stored observation of the certificate (null if it has never been observed)
+	 * @param periodBegin The begin of the certificate's last continuous observation period (null if it has never been observed)
+	 * @param lastOtherObservation The time of the last stored observation of a different certificate for the host (null if there is none after the last observation of the certificate)
+	 * @param numOfObservations The number of stored observations of the certificate
+	 * @param pendingObservations The times of the observations of the certificate that have not yet been stored
+	 */
+	public ObservationSummary(Timestamp lastObservation, Timestamp periodBegin, Timestamp lastOtherObservation, long numOfObservations, Vector<Timestamp> pendingObservations) {
+		this.lastObservation = lastObservation;
+		this.periodBegin = periodBegin;
+		this.lastOtherObservation = lastOtherObservation;
+		this.numOfObservations = numOfObservations;
+		this.pendingObservations = pendingObservations;
+	}
+
+	/**
+	 * @return The time of the last stored observation of the certificate (null if it has never been observed)
+	 */
+	public Timestamp getLastObservation() {
+		return lastObservation;
+	}
+
+	/**
+	 * @return The begin of the certificate's last continuous observation period (null if it has never been observed)
+	 */
+	public Timestamp getPeriodBegin() {
+		return periodBegin;
+	}
+
+	/**
+	 * @return The time of the last stored observation of a different certificate for the host (null if there is none after the last observation of the certificate)
+	 */
+	public Timestamp getLastOtherObservation() {
+		return lastOtherObservation;
+	}
+
+	/**
+	 * @return The number of stored observations of the certificate
+	 */
+	public long getNumOfObservations() {
+		return numOfObservations;
+	}
+
+	/**
+	 * @return A copy of the times of the observations of the certificate that have not yet been stored
+	 */
+	public Vector<Timestamp> getPendingObservations() {
+		return new Vector<Timestamp>(pendingObservations);
+	}
+
+}
@@ -0,0 +1,407 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package crossbear;
+
+import java.io.UnsupportedEncodingException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * The ObservationWriter decouples storing certificate observations (and their certificate chains) from processing CertVerifyRequests. Storing an observation requires several write transactions,
+ * but the reply to a CertVerifyRequest only depends on data that is read from the database. The ObservationWriter therefore puts observations into a bounded in-memory queue. A background thread
+ * drains that queue and stores the observations in batches (cf. CertificateManager.storeCertChains and CertificateManager.rememberCertObservations).
+ *
+ * The queue is bounded (observations.queue.capacity, default 10000). If it is full, the caller waits for at most observations.queue.offerTimeoutMillis (default 1000) for space to become available.
+ * If that does not happen the observation is stored synchronously by the caller. This way the callers are slowed down to the speed of the database instead of losing observations.
+ *
+ * Observations that have been queued but not yet been stored are called "pending". Since the judgments about a certificate are based on its observations, pending observations can be looked up
+ * using getPendingObservationTimes.
+ *
+ * The observations of a batch are inserted in a single transaction (their certificate chains are stored before since that can be repeated without harm). If that fails (e.g. because of a deadlock or a lost database connection) the batch is retried up to observations.writer.maxRetries times (default
+ * 2). If it still fails, its observations are stored one by one so that only observations that can't be stored at all are lost. These are logged.
+ *
+ * On shutdown all queued observations are written before the background thread terminates.
+ *
+ * @author Thomas Riedmaier
+ *
+ */
+public class ObservationWriter {
+
+	/**
+	 * An observation of a certificate chain that has not yet been stored in the database
+	 */
+	private static class PendingObservation {
+
+		// The observed certificate chain (the first element is the server's certificate)
+		private final X509Certificate[] certChain;
+
+		// The SHA256-Hash of the server's certificate in hex-representation
+		private final String certSHA256;
+
+		// The details of the observation (cf. CertificateManager.rememberCertObservation)
+		private final String serverHostPort;
+		private final String serverIP;
+		private final Timestamp timeOfObservation;
+		private final String observerType;
+		private final String observerIP;
+
+		private PendingObservation(X509Certificate[] certChain, String serverHostPort, String serverIP, Timestamp timeOfObservation, String observerType, String observerIP)
+				throws CertificateEncodingException, NoSuchAlgorithmException {
+			this.certChain = certChain;
+			this.certSHA256 = CertFingerprints.of(certChain[0]).getSHA256Hex();
+			this.serverHostPort = serverHostPort;
+			this.serverIP = serverIP;
+			this.timeOfObservation = timeOfObservation;
+			this.observerType = observerType;
+			this.observerIP = observerIP;
+		}
+	}
+
+	// The CertificateManager that is used to store the certificate chains
+	private final CertificateManager cm;
+
+	// The Properties and settings of the Crossbear server (used to borrow database connections)
+	private final Properties properties;
+
+	// The observations that still need to be stored
+	private final ArrayBlockingQueue<PendingObservation> queue;
+
+	// The maximal time in milliseconds to wait for space in the queue
+	private final long offerTimeoutMillis;
+
+	// The maximal number of observations that are stored at once
+	private final int maxBatchSize;
+
+	// The maximal time in milliseconds that shutdown() waits for the queue to be drained
+	private final long shutdownTimeoutMillis;
+
+	// The number of times a batch that could not be stored is retried before its observations are stored one by one
+	private final int maxRetries;
+
+	// The time in milliseconds to wait before the first retry (doubled for every further retry)
+	private final long retryDelayMillis;
+
+	// The file into which errors are logged
+	private final String errorLogFile;
+
+	// All observations that have been queued but not yet been stored
+	private final Set<PendingObservation> pending = Collections.newSetFromMap(new ConcurrentHashMap<PendingObservation, Boolean>());
+
+	// The thread that drains the queue
+	private final Thread writerThread;
+
+	// Is the ObservationWriter accepting new observations?
+	private volatile boolean running = true;
+
+	/**
+	 * Create a new ObservationWriter and start its background thread
+	 *
+	 * @param cm The CertificateManager that is used to store the certificate chains
+	 * @param properties The Properties and settings of the Crossbear server
+	 */
+	public ObservationWriter(CertificateManager cm, Properties properties) {
+		this.cm = cm;
+		this.properties = properties;
+		this.queue = new ArrayBlockingQueue<PendingObservation>(properties.getIntProperty("observations.queue.capacity", 10000));
+		this.offerTimeoutMillis = properties.getIntProperty("observations.queue.offerTimeoutMillis", 1000);
+		this.maxBatchSize = properties.getIntProperty("observations.queue.maxBatchSize", 1000);
+		this.shutdownTimeoutMillis = properties.getIntProperty("observations.queue.shutdownTimeoutMillis", 30000);
+		this.maxRetries = properties.getIntProperty("observations.writer.maxRetries", 2);
+		this.retryDelayMillis = properties.getIntProperty("observations.writer.retryDelayMillis", 500);
+		this.errorLogFile = properties.getProperty("logging.dir") + "/fourhundredfourtythree.observationwriter.error";
+
+		this.writerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				drainQueue();
+			}
+		}, "crossbear-observationwriter");
+		this.writerThread.setDaemon(true);
+		this.writerThread.start();
+	}
+
+	/**
+	 * Remember the observation of a certificate chain. The observation is queued and stored in the background. If the queue is full (or the ObservationWriter has been shut down) it is stored
+	 * synchronously using the caller's database connection.
+	 *
+	 * @param certChain The observed certificate chain (certChain[0] is assumed to be the server's certificate)
+	 * @param serverHostPort The Hostname and port of the server for which the certificate has been observed (e.g. encrypted.google.com:443)
+	 * @param serverIP The IP of the server for which the certificate has been observed
+	 * @param timeOfObservation The time of the observation (always the server's time - never the client's local time)
+	 * @param observerType An Identifier for the observer's type (e.g. "CrossbearServer" or "CrossbearCVR")
+	 * @param observerIP The IP from which the observation was made (might be partially anonymized)
+	 * @param db The database connection to use in case the observation can not be queued
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws KeyStoreException
+	 * @throws NoSuchAlgorithmException
+	 * @throws CertificateException
+	 * @throws SQLException
+	 * @throws UnsupportedEncodingException
+	 * @throws NoSuchProviderException
+	 */
+	public void rememberCertObservation(X509Certificate[] certChain, String serverHostPort, String serverIP, Timestamp timeOfObservation, String observerType, String observerIP, Database db)
+			throws InvalidAlgorithmParameterException, KeyStoreException, NoSuchAlgorithmException, CertificateException, SQLException, UnsupportedEncodingException, NoSuchProviderException {
+
+		PendingObservation observation = new PendingObservation(certChain, serverHostPort, serverIP, timeOfObservation, observerType, observerIP);
+
+		// Try to queue the observation
+		pending.add(observation);
+		boolean queued = false;
+		if (running) {
+			try {
+				queued = queue.offer(observation, offerTimeoutMillis, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		// If that failed: Store it right away
+		if (!queued) {
+			pending.remove(observation);
+
+			Vector<PendingObservation> batch = new Vector<PendingObservation>();
+			batch.add(observation);
+			storeObservations(batch, db);
+		}
+	}
+
+	/**
+	 * Get the times of all pending observations of a certificate for a host
+	 *
+	 * @param serverHostPort The Hostname and port of the server for which the certificate has been observed (e.g. encrypted.google.com:443)
+	 * @param certSHA256 The SHA256-Hash of the certificate in hex-representation
+	 * @param observerType An Identifier for the observer's type (e.g. "CrossbearServer" or "CrossbearCVR")
+	 * @return The times of all observations that match the parameters and have not yet been stored in the database
+	 */
+	public Vector<Timestamp> getPendingObservationTimes(String serverHostPort, String certSHA256, String observerType) {
+
+		Vector<Timestamp> re = new Vector<Timestamp>();
+		for (PendingObservation observation : pending) {
+			if (observation.serverHostPort.equals(serverHostPort) && observation.certSHA256.equals(certSHA256) && observation.observerType.equals(observerType)) {
+				re.add(observation.timeOfObservation);
+			}
+		}
+
+		return re;
+	}
+
+	/**
+	 * Get the current status of the ObservationWriter
+	 *
+	 * @return A status text containing the number of observations that have not yet been stored
+	 */
+	public String getStatus() {
+		return "Pending observations: " + pending.size() + " (queue capacity left: " + queue.remainingCapacity() + ")";
+	}
+
+	/**
+	 * Stop accepting new observations and wait until all queued observations have been stored (for at most observations.queue.shutdownTimeoutMillis)
+	 */
+	public void shutdown() {
+		running = false;
+
+		try {
+			writerThread.join(shutdownTimeoutMillis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Main loop of the background thread: Take as many observations from the queue as possible (but at most maxBatchSize) and store them using a single database connection. Once the
+	 * ObservationWriter has been shut down the loop terminates as soon as the queue is empty.
+	 */
+	private void drainQueue() {
+
+		while (running || !queue.isEmpty()) {
+
+			// Wait for the next observation (regularly check if the ObservationWriter has been shut down)
+			PendingObservation first;
+			try {
+				first = queue.poll(500, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				continue;
+			}
+			if (first == null) {
+				continue;
+			}
+
+			// Add all other observations that are already waiting
+			Vector<PendingObservation> batch = new Vector<PendingObservation>();
+			batch.add(first);
+			queue.drainTo(batch, maxBatchSize - 1);
+
+			try {
+				storeBatch(batch);
+			} finally {
+				// The observations are either stored now or they will never be
+				pending.removeAll(batch);
+			}
+		}
+	}
+
+	/**
+	 * Store a batch of observations. If that fails, the batch is retried (at most maxRetries times). If it still fails, each of its observations is stored on its own so only the observations that
+	 * can't be stored at all are lost. Each of these is logged.
+	 *
+	 * @param batch The observations to store
+	 */
+	private void storeBatch(Vector<PendingObservation> batch) {
+
+		// Try to store the whole batch ...
+		long delay = retryDelayMillis;
+		for (int attempt = 0; attempt <= maxRetries; attempt++) {
+			try {
+				storeInTransaction(batch);
+				return;
+			} catch (Exception e) {
+				Logger.dumpExceptionToFile(errorLogFile, e);
+			}
+
+			// Give the database some time to recover (e.g. from a deadlock or a restart) before the next attempt
+			if (attempt < maxRetries) {
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException e) {
+					// Retry right away
+				}
+				delay *= 2;
+			}
+		}
+
+		// ... and if that doesn't work: Store the observations one by one
+		for (PendingObservation observation : batch) {
+			Vector<PendingObservation> single = new Vector<PendingObservation>();
+			single.add(observation);
+
+			try {
+				storeInTransaction(single);
+			} catch (Exception e) {
+				Logger.dumpExceptionToFile(errorLogFile, new Exception("Dropped the observation of certificate " + observation.certSHA256 + " for " + observation.serverHostPort + " (by "
+						+ observation.observerType + " at " + observation.timeOfObservation + ")", e));
+			}
+		}
+	}
+
+	/**
+	 * Store a batch of observations using a database connection of its own. The certificate chains are stored first (storing them again does no harm). Then the observations are inserted in a single
+	 * transaction so either all of them are stored or none is. This keeps the transaction short and makes sure that retrying a batch doesn't duplicate observations.
+	 *
+	 * @param batch The observations to store
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws KeyStoreException
+	 * @throws NoSuchAlgorithmException
+	 * @throws CertificateException
+	 * @throws SQLException
+	 * @throws UnsupportedEncodingException
+	 * @throws NoSuchProviderException
+	 * @throws ClassNotFoundException
+	 */
+	private void storeInTransaction(Vector<PendingObservation> batch) throws InvalidAlgorithmParameterException, KeyStoreException, NoSuchAlgorithmException, CertificateException, SQLException,
+			UnsupportedEncodingException, NoSuchProviderException, ClassNotFoundException {
+
+		Database db = new Database(properties);
+		try {
+			Long[] certIDs = storeCertChains(batch, db);
+
+			db.setAutoCommit(false);
+			CertificateManager.rememberCertObservations(getObservationRows(batch, certIDs), db);
+			db.commit();
+		} finally {
+			// If the transaction has not been committed it is rolled back
+			db.close();
+		}
+	}
+
+	/**
+	 * Store a batch of observations: First all of their certificate chains and then all of the observations themselves
+	 *
+	 * @param batch The observations to store
+	 * @param db The database connection to use
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws KeyStoreException
+	 * @throws NoSuchAlgorithmException
+	 * @throws CertificateException
+	 * @throws SQLException
+	 * @throws UnsupportedEncodingException
+	 * @throws NoSuchProviderException
+	 */
+	private void storeObservations(Vector<PendingObservation> batch, Database db) throws InvalidAlgorithmParameterException, KeyStoreException, NoSuchAlgorithmException, CertificateException,
+			SQLException, UnsupportedEncodingException, NoSuchProviderException {
+
+		// Store all certificate chains (if not already stored) and remember the observations in the CertObservations table
+		Long[] certIDs = storeCertChains(batch, db);
+		CertificateManager.rememberCertObservations(getObservationRows(batch, certIDs), db);
+	}
+
+	/**
+	 * Store the certificate chains of a batch of observations (if not already stored)
+	 *
+	 * @param batch The observations whose chains should be stored
+	 * @param db The database connection to use
+	 * @return The IDs of the server certificates in the ServerCerts-table (in the same order as "batch")
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws KeyStoreException
+	 * @throws NoSuchAlgorithmException
+	 * @throws CertificateException
+	 * @throws SQLException
+	 * @throws UnsupportedEncodingException
+	 * @throws NoSuchProviderException
+	 */
+	private Long[] storeCertChains(Vector<PendingObservation> batch, Database db) throws InvalidAlgorithmParameterException, KeyStoreException, NoSuchAlgorithmException, CertificateException,
+			SQLException, UnsupportedEncodingException, NoSuchProviderException {
+
+		Vector<X509Certificate[]> chains = new Vector<X509Certificate[]>();
+		for (PendingObservation observation : batch) {
+			chains.add(observation.certChain);
+		}
+		return cm.storeCertChains(chains, db);
+	}
+
+	/**
+	 * Convert a batch of observations into rows of the CertObservations table (cf. CertificateManager.rememberCertObservations)
+	 *
+	 * @param batch The observations to convert
+	 * @param certIDs The IDs of the server certificates in the ServerCerts-table (in the same order as "batch")
+	 * @return The rows
+	 */
+	private static Vector<Object[]> getObservationRows(Vector<PendingObservation> batch, Long[] certIDs) {
+		Vector<Object[]> observations = new Vector<Object[]>();
+		for (int i = 0; i < batch.size(); i++) {
+			PendingObservation observation = batch.get(i);
+			Object[] params = { certIDs[i], observation.serverHostPort, observation.serverIP, observation.timeOfObservation, observation.observerType, observation.observerIP };
+			observations.add(params);
+		}
+		return observations;
+	}
+
+}
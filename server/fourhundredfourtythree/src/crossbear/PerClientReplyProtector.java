@@ -0,0 +1,173 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package crossbear;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import crossbear.messaging.Message;
+
+/**
+ * The PerClientReplyProtector protects the per-client part of a hunting task list that was requested with "signature=split" (cf. getHuntingTaskList.jsp). Only the hunting tasks themselves are covered
+ * by the (cached) signature of such a reply. The PublicIPNotification- and CurrentServerTime-messages that follow it are different for each client and are therefore integrity protected in the same
+ * way getPublicIP.jsp protects its PublicIPNotifications (cf. PublicIPNotifProcessor):
+ *
+ * The client sends a RSA-encrypted AES256 key (in form of a PublicIPNotifRequest-message) and a random nonce. The per-client part is prepended with the nonce, concatenated with the SHA256-hash of the
+ * result and then AES-encrypted with the client's key.
+ *
+ * Decrypting the client's key requires a RSA operation, which is as expensive as creating a signature. Since the client sends the same encrypted key with all of its requests, the decrypted keys are
+ * cached. Thus only the first request of each client costs a RSA operation while the nonce still makes sure that an old reply can't be replayed.
+ *
+ * @author Thomas Riedmaier
+ *
+ */
+public class PerClientReplyProtector {
+
+	// The length of the RSA-encrypted key of a PublicIPNotifRequest-message (the server's key has 2048 bits)
+	private static final int encryptedKeyLength = 2048 / 8;
+
+	// The maximal length of a nonce sent by a client
+	private static final int maxNonceLength = 64;
+
+	// The time in milliseconds for which a decrypted client key is remembered
+	private static final long keyValidity = 24 * 60 * 60 * 1000;
+
+	// The decrypted AES keys of the clients (the key of the cache is the hex-encoded SHA256-hash of the RSA-encrypted key)
+	private static final BoundedCache<String, byte[]> clientKeys = new BoundedCache<String, byte[]>("Client reply keys", 10000);
+
+	// Generator for the IVs of the AES encryption
+	private static final SecureRandom random = new SecureRandom();
+
+	/**
+	 * Get the current status of the cache of client keys
+	 *
+	 * @return A status text containing the number of cached keys and the hit rate
+	 */
+	public static String getCacheStatus() {
+		return clientKeys.getStatus();
+	}
+
+	/**
+	 * Read the RSA-encrypted AES key of a client from a PublicIPNotifRequest-message
+	 *
+	 * @param in The InputStream to read the message from (e.g. "request.getInputStream()" in a jsp)
+	 * @return The RSA-encrypted key
+	 * @throws IOException
+	 */
+	public static byte[] readEncryptedKey(InputStream in) throws IOException {
+		DataInputStream din = new DataInputStream(in);
+
+		// Assert message type is MESSAGE_TYPE_PUBLIC_IP_NOTIFICATION_REQUEST
+		int messageType = din.read();
+		if (messageType != Message.MESSAGE_TYPE_PUBLIC_IP_NOTIFICATION_REQUEST) {
+			throw new IllegalArgumentException("The provided messageType " + messageType + " was not expected");
+		}
+
+		// Assert the message length to be the length of a RSA-encrypted key + 3 byte header
+		int messageLength = din.readUnsignedShort();
+		if (messageLength - 3 != encryptedKeyLength) {
+			throw new IllegalArgumentException("Read message length \"" + messageLength + "\" but expected was \"" + (encryptedKeyLength + 3) + "\"");
+		}
+
+		byte[] re = new byte[encryptedKeyLength];
+		din.readFully(re);
+		return re;
+	}
+
+	// The service holding the server's private key
+	private final SigningService signer;
+
+	/**
+	 * Create a new PerClientReplyProtector
+	 *
+	 * @param signer The SigningService holding the server's private key (which is required to decrypt the keys of the clients)
+	 */
+	public PerClientReplyProtector(SigningService signer) {
+		this.signer = signer;
+	}
+
+	/**
+	 * Get the AES key of a client. If it has been used recently it will be read from cache, else it will be decrypted using the server's private key.
+	 *
+	 * @param rsaEncryptedKey The RSA-encrypted AES key sent by the client
+	 * @return The decrypted AES256 key
+	 * @throws GeneralSecurityException
+	 */
+	private byte[] getClientKey(byte[] rsaEncryptedKey) throws GeneralSecurityException {
+		String cacheKey = Message.byteArrayToHexString(MessageDigest.getInstance("SHA-256").digest(rsaEncryptedKey));
+
+		byte[] key = clientKeys.get(cacheKey);
+		if (key == null) {
+			key = signer.decrypt(rsaEncryptedKey);
+
+			// Only AES256 keys are accepted
+			if (key.length != 256 / 8) {
+				throw new GeneralSecurityException("The client sent a key of invalid length: " + key.length);
+			}
+			clientKeys.put(cacheKey, key, keyValidity);
+		}
+
+		return key;
+	}
+
+	/**
+	 * Protect the per-client part of a reply: Prepend it with the client's nonce, concatenate the result with its SHA256-hash and AES-encrypt everything with the client's key.
+	 *
+	 * @param rsaEncryptedKey The RSA-encrypted AES key sent by the client
+	 * @param nonce The nonce sent by the client
+	 * @param cleartext The per-client part of the reply
+	 * @return The IV of the encryption followed by the AES/CBC/PKCS7Padding-encrypted data
+	 * @throws GeneralSecurityException
+	 */
+	public byte[] protect(byte[] rsaEncryptedKey, byte[] nonce, byte[] cleartext) throws GeneralSecurityException {
+		if (nonce.length == 0 || nonce.length > maxNonceLength) {
+			throw new IllegalArgumentException("The client sent a nonce of invalid length: " + nonce.length);
+		}
+
+		// nonce || cleartext || SHA256(nonce || cleartext)
+		byte[] plaintext = new byte[nonce.length + cleartext.length + 32];
+		System.arraycopy(nonce, 0, plaintext, 0, nonce.length);
+		System.arraycopy(cleartext, 0, plaintext, nonce.length, cleartext.length);
+		MessageDigest md = MessageDigest.getInstance("SHA-256");
+		md.update(plaintext, 0, nonce.length + cleartext.length);
+		System.arraycopy(md.digest(), 0, plaintext, nonce.length + cleartext.length, 32);
+
+		// CBC-mode requires an IV
+		byte[] iv = new byte[16];
+		random.nextBytes(iv);
+
+		// "AES/CBC/PKCS7Padding" requires the Bouncy-Castle Crypto-Provider to be installed!
+		Cipher cipher = Cipher.getInstance("AES/CBC/PKCS7Padding", "BC");
+		cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(getClientKey(rsaEncryptedKey), "AES"), new IvParameterSpec(iv));
+		byte[] encrypted = cipher.doFinal(plaintext);
+
+		byte[] re = new byte[iv.length + encrypted.length];
+		System.arraycopy(iv, 0, re, 0, iv.length);
+		System.arraycopy(encrypted, 0, re, iv.length, encrypted.length);
+		return re;
+	}
+
+}
@@ -0,0 +1,108 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package crossbear;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The PipelineExecutor runs the stages of request processing that can be performed concurrently to each other (e.g. contacting a server to get its certificate while the certificate that the client
+ * sent is judged, cf. CVRProcessor.process).
+ *
+ * There is one PipelineExecutor per Crossbear server. It is bounded in both the number of its threads and the number of stages that may wait for a thread. If it is saturated, submitting a stage
+ * throws a RejectedExecutionException. Running the stage in the submitting thread instead would make that thread ignore its deadline, so the callers handle the rejection themselves (e.g. by treating
+ * the stage as still pending or as having exceeded its time budget). Threads that are idle for a while are terminated.
+ *
+ * Please note: Stages that access the database must use a database connection of their own since Database-objects must not be shared between threads.
+ *
+ * @author Thomas Riedmaier
+ *
+ */
+public class PipelineExecutor {
+
+	// The PipelineExecutor of the Crossbear server (created on first use)
+	private static PipelineExecutor instance = null;
+
+	/**
+	 * Get the PipelineExecutor of the Crossbear server. It is created on the first call using the settings pipeline.threads and pipeline.queueSize.
+	 *
+	 * @param properties The Properties and settings of the Crossbear server
+	 * @return The PipelineExecutor
+	 */
+	public static synchronized PipelineExecutor getInstance(Properties properties) {
+		if (instance == null) {
+			instance = new PipelineExecutor(properties.getIntProperty("pipeline.threads", 32), properties.getIntProperty("pipeline.queueSize", 64));
+		}
+		return instance;
+	}
+
+	/**
+	 * Get the current status of the PipelineExecutor of the Crossbear server
+	 *
+	 * @return A status text containing the number of threads and of waiting and completed stages
+	 */
+	public static synchronized String getStatusOfInstance() {
+		return (instance == null) ? "Pipeline: not started" : instance.getStatus();
+	}
+
+	// The executor that runs the stages
+	private final ThreadPoolExecutor executor;
+
+	/**
+	 * Create a new PipelineExecutor
+	 *
+	 * @param threads The maximal number of stages that are run at the same time
+	 * @param queueSize The maximal number of stages that may wait for a thread
+	 */
+	private PipelineExecutor(int threads, int queueSize) {
+
+		final AtomicInteger threadCount = new AtomicInteger(0);
+		ThreadFactory threadFactory = new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "crossbear-pipeline-" + threadCount.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		};
+
+		executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * @return The executor that runs the stages (if it is saturated, it rejects stages with a RejectedExecutionException)
+	 */
+	public ThreadPoolExecutor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Get the current status of the PipelineExecutor
+	 *
+	 * @return A status text containing the number of threads and of waiting and completed stages
+	 */
+	public String getStatus() {
+		return "Pipeline: " + executor.getActiveCount() + " of " + executor.getPoolSize() + " threads active, " + executor.getQueue().size() + " stages waiting, " + executor.getCompletedTaskCount()
+				+ " stages completed";
+	}
+
+}
@@ -32,6 +32,9 @@ public class Properties {
 
 	private java.util.Properties properties;
 
+	// The filename of the properties-file this object was initialized with
+	private final String propertyFileName;
+
 	/**
 	 * Create a new Properties-object and initialize it with the content of a properties file.
 	 * 
@@ -42,6 +45,7 @@ public class Properties {
 		
 		// Create a new Properties-object
 		this.properties =  new java.util.Properties();
+		this.propertyFileName = propertyFileName;
 		
 		// Open the properties-file
 		InputStream is = new FileInputStream(propertyFileName);
@@ -54,6 +58,13 @@ public class Properties {
 		
 	}
 	
+	/**
+	 * @return The filename of the properties-file this object was initialized with (e.g. to check if it has been modified in the meantime)
+	 */
+	public String getFileName(){
+		return propertyFileName;
+	}
+	
 	/* (non-Javadoc)
 	 * @see java.util.Properties.getProperty(java.lang.String)
 	 */
@@ -61,6 +72,41 @@ public class Properties {
 		return properties.getProperty(key);
 	}
 	
+	/**
+	 * Get a numeric property. If the property is not set, the default value is returned.
+	 * 
+	 * @param key The name of the property
+	 * @param defaultValue The value to return if the property is not set
+	 * @return The value of the property as integer or defaultValue if it is not set
+	 * @throws NumberFormatException
+	 */
+	public int getIntProperty(String key, int defaultValue){
+		String value = properties.getProperty(key);
+		
+		if(value == null){
+			return defaultValue;
+		}
+		
+		return Integer.parseInt(value.trim());
+	}
+	
+	/**
+	 * Get a boolean property ("true" or "false"). If the property is not set, the default value is returned.
+	 * 
+	 * @param key The name of the property
+	 * @param defaultValue The value to return if the property is not set
+	 * @return The value of the property as boolean or defaultValue if it is not set
+	 */
+	public boolean getBooleanProperty(String key, boolean defaultValue){
+		String value = properties.getProperty(key);
+		
+		if(value == null){
+			return defaultValue;
+		}
+		
+		return Boolean.parseBoolean(value.trim());
+	}
+	
 	/* (non-Javadoc)
 	 * @see java.util.Properties.setProperty(java.lang.String, java.lang.String)
 	 */
@@ -0,0 +1,243 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package crossbear;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.security.InvalidKeyException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.UnrecoverableEntryException;
+import java.security.cert.CertificateException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+
+/**
+ * The SigningService signs the replies of the Crossbear server (cf. SignatureMessage). It loads the server's private key once from the keystore that is configured in the properties
+ * (pkey.keyStoreFile, pkey.keyStorePassword, pkey.alias and pkey.password) and keeps it in memory. Each thread gets its own Signature-object that is initialized with that key, so signing a reply only
+ * requires the actual RSA operation.
+ *
+ * The SigningService also keeps track of how many signatures it created and how long that took.
+ *
+ * @author Thomas Riedmaier
+ *
+ */
+public class SigningService {
+
+	// The algorithm that is used for all signatures
+	private static final String algorithm = "SHA256withRSA";
+
+	// All SigningServices that have been created so far (one for each keystore file and alias)
+	private static final Map<String, SigningService> services = new HashMap<String, SigningService>();
+
+	/**
+	 * Get the SigningService for the key that is configured in the properties. If there is no such SigningService yet, it will be created (which requires loading the keystore).
+	 *
+	 * @param properties The Properties and settings of the Crossbear server
+	 * @return The SigningService for the configured key
+	 * @throws IOException
+	 * @throws KeyStoreException
+	 * @throws NoSuchAlgorithmException
+	 * @throws CertificateException
+	 * @throws UnrecoverableEntryException
+	 */
+	public static synchronized SigningService getInstance(Properties properties) throws IOException, KeyStoreException, NoSuchAlgorithmException, CertificateException, UnrecoverableEntryException {
+
+		String key = properties.getProperty("pkey.keyStoreFile") + "|" + properties.getProperty("pkey.alias");
+
+		SigningService service = services.get(key);
+		if (service == null) {
+			service = new SigningService(properties.getProperty("pkey.keyStoreFile"), properties.getProperty("pkey.keyStorePassword"), properties.getProperty("pkey.alias"),
+					properties.getProperty("pkey.password"));
+			services.put(key, service);
+		}
+
+		return service;
+	}
+
+	/**
+	 * Get the current status of all SigningServices
+	 *
+	 * @return A status text containing the number of signatures and the time it took to create them for each SigningService
+	 */
+	public static synchronized String getStatusOfAll() {
+		StringBuilder re = new StringBuilder();
+		for (SigningService service : services.values()) {
+			re.append(re.length() == 0 ? "" : "<br>\r\n").append(service.getStatus());
+		}
+		return (re.length() == 0) ? "Signatures: signing service not initialized" : re.toString();
+	}
+
+	// The alias of the key (used for status reports)
+	private final String alias;
+
+	// The server's private key
+	private final PrivateKey privateKey;
+
+	// The Signature-objects (one for each thread, initialized with privateKey)
+	private final ThreadLocal<Signature> signatures = new ThreadLocal<Signature>();
+
+	// Statistics
+	private final AtomicLong numberOfSignatures = new AtomicLong();
+	private final AtomicLong totalSigningNanos = new AtomicLong();
+	private final AtomicLong maxSigningNanos = new AtomicLong();
+
+	/**
+	 * Create a new SigningService by loading a private key from a keystore
+	 *
+	 * @param keystoreFile The filename of the keystore
+	 * @param keystorePass The password of the keystore
+	 * @param pkeyAlias The alias of the private key inside the keystore
+	 * @param pkeyPassword The password of the private key
+	 * @throws IOException
+	 * @throws KeyStoreException
+	 * @throws NoSuchAlgorithmException
+	 * @throws CertificateException
+	 * @throws UnrecoverableEntryException
+	 */
+	private SigningService(String keystoreFile, String keystorePass, String pkeyAlias, String pkeyPassword) throws IOException, KeyStoreException, NoSuchAlgorithmException, CertificateException,
+			UnrecoverableEntryException {
+
+		this.alias = pkeyAlias;
+
+		// Load the keystore (and make sure its file is closed afterwards)
+		KeyStore keystore = KeyStore.getInstance(KeyStore.getDefaultType());
+		FileInputStream fis = new FileInputStream(keystoreFile);
+		try {
+			keystore.load(fis, keystorePass.toCharArray());
+		} finally {
+			fis.close();
+		}
+
+		// Extract the private key
+		KeyStore.ProtectionParameter protParam = new KeyStore.PasswordProtection(pkeyPassword.toCharArray());
+		KeyStore.Entry entry = keystore.getEntry(pkeyAlias, protParam);
+		if (!(entry instanceof KeyStore.PrivateKeyEntry)) {
+			throw new KeyStoreException("The keystore " + keystoreFile + " does not contain a private key with alias " + pkeyAlias);
+		}
+		this.privateKey = ((KeyStore.PrivateKeyEntry) entry).getPrivateKey();
+	}
+
+	/**
+	 * Sign data using the server's private key
+	 *
+	 * @param data The data to sign
+	 * @return The signature of data
+	 * @throws NoSuchAlgorithmException
+	 * @throws InvalidKeyException
+	 * @throws SignatureException
+	 */
+	public byte[] sign(byte[] data) throws NoSuchAlgorithmException, InvalidKeyException, SignatureException {
+
+		long start = System.nanoTime();
+
+		// Get the Signature-object of the current thread (and create it if this is the thread's first signature)
+		Signature sig = signatures.get();
+		if (sig == null) {
+			sig = Signature.getInstance(algorithm);
+			sig.initSign(privateKey);
+			signatures.set(sig);
+		}
+
+		// Sign the data (sign() resets the Signature-object so it can be used again)
+		byte[] re;
+		try {
+			sig.update(data);
+			re = sig.sign();
+		} catch (SignatureException e) {
+			// The state of the Signature-object is unknown -> don't use it again
+			signatures.remove();
+			throw e;
+		}
+
+		// Update the statistics
+		long duration = System.nanoTime() - start;
+		numberOfSignatures.incrementAndGet();
+		totalSigningNanos.addAndGet(duration);
+		long max;
+		while ((max = maxSigningNanos.get()) < duration && !maxSigningNanos.compareAndSet(max, duration)) {
+		}
+
+		return re;
+	}
+
+	/**
+	 * Perform a RSA decryption in RSA/None/OAEPWithSHA1AndMGF1Padding-Mode using the server's private key (cf. PublicIPNotifProcessor.RSADecrypt)
+	 * 
+	 * Please Note: "RSA/None/OAEPWithSHA1AndMGF1Padding" requires the Bouncy-Castle Crypto-Provider to be installed!
+	 *
+	 * @param cryptText The crypto text to decrypt
+	 * @return The cleartext of the crypto text
+	 * @throws NoSuchAlgorithmException
+	 * @throws NoSuchProviderException
+	 * @throws NoSuchPaddingException
+	 * @throws InvalidKeyException
+	 * @throws IllegalBlockSizeException
+	 * @throws BadPaddingException
+	 */
+	public byte[] decrypt(byte[] cryptText) throws NoSuchAlgorithmException, NoSuchProviderException, NoSuchPaddingException, InvalidKeyException, IllegalBlockSizeException,
+			BadPaddingException {
+
+		Cipher rsaOAEPCipher = Cipher.getInstance("RSA/None/OAEPWithSHA1AndMGF1Padding", "BC");
+		rsaOAEPCipher.init(Cipher.DECRYPT_MODE, privateKey);
+		return rsaOAEPCipher.doFinal(cryptText);
+	}
+
+	/**
+	 * @return The number of signatures that have been created so far
+	 */
+	public long getNumberOfSignatures() {
+		return numberOfSignatures.get();
+	}
+
+	/**
+	 * @return The average time in microseconds that creating a signature took
+	 */
+	public long getAverageSigningMicros() {
+		long num = numberOfSignatures.get();
+		return (num == 0) ? 0 : totalSigningNanos.get() / num / 1000;
+	}
+
+	/**
+	 * @return The maximal time in microseconds that creating a signature took
+	 */
+	public long getMaxSigningMicros() {
+		return maxSigningNanos.get() / 1000;
+	}
+
+	/**
+	 * Get the current status of the SigningService
+	 *
+	 * @return A status text containing the number of signatures and the time it took to create them
+	 */
+	public String getStatus() {
+		return "Signatures (" + alias + "): " + getNumberOfSignatures() + " created, average " + getAverageSigningMicros() + "us, max " + getMaxSigningMicros() + "us";
+	}
+
+}
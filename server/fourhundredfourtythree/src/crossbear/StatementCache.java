@@ -0,0 +1,167 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package crossbear;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A StatementCache keeps the PreparedStatements of a single connection open so they can be reused. The KEY of the cache is the SQL-text of the statement. Reusing a PreparedStatement allows the
+ * PostgreSQL driver to switch to a server-side prepared statement, so the query is not parsed and planned on every execution.
+ *
+ * The cache is bounded: If it is full, the least recently used statement is closed and removed. Statements whose most recent ResultSet is still open are never removed (closing them would close the
+ * ResultSet while it is being read). If all cached statements are in use, the cache grows beyond its bound until some of them are released.
+ *
+ * Please Note: A StatementCache belongs to exactly one connection and is therefore not thread-safe (connections are never used by more than one thread at the same time).
+ *
+ * @author Thomas Riedmaier
+ *
+ */
+public class StatementCache {
+
+	// The connection whose statements are cached
+	private final Connection con;
+
+	// The cached statements in least-recently-used order
+	private final LinkedHashMap<String, PreparedStatement> statements;
+
+	// The ResultSet that has most recently been returned by each cached statement (null if it hasn't returned one yet)
+	private final HashMap<PreparedStatement, ResultSet> resultSets = new HashMap<PreparedStatement, ResultSet>();
+
+	/**
+	 * Create a new StatementCache for a connection
+	 *
+	 * @param con The connection whose statements should be cached
+	 * @param maxSize The maximal number of statements to keep open
+	 */
+	public StatementCache(Connection con, final int maxSize) {
+		this.con = con;
+		this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+
+				// Remove the least recently used statements that are not in use until the cache is small enough again (the map is modified directly, so false has to be returned). The statement
+				// that has just been added is the last one and is never removed.
+				Iterator<PreparedStatement> itr = values().iterator();
+				int candidates = size() - 1;
+				while (size() > maxSize && candidates-- > 0) {
+					PreparedStatement ps = itr.next();
+					if (!isInUse(ps)) {
+						itr.remove();
+						resultSets.remove(ps);
+						closeQuietly(ps);
+					}
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Get a PreparedStatement for a SQL-statement. If there is one in the cache it is returned (with its parameters cleared). If not a new one is created and added to the cache.
+	 *
+	 * @param sqlstmt The SQL-text of the statement
+	 * @param returnGeneratedKeys Should the statement return the keys it generated (required for INSERT-statements whose ID is needed)?
+	 * @return A PreparedStatement for sqlstmt
+	 * @throws SQLException
+	 */
+	public PreparedStatement prepare(String sqlstmt, boolean returnGeneratedKeys) throws SQLException {
+
+		// The same SQL-text with and without generated keys results in different statements
+		String key = (returnGeneratedKeys ? "K:" : "Q:") + sqlstmt;
+
+		PreparedStatement ps = statements.get(key);
+		if (ps != null) {
+			ps.clearParameters();
+			return ps;
+		}
+
+		ps = returnGeneratedKeys ? con.prepareStatement(sqlstmt, PreparedStatement.RETURN_GENERATED_KEYS) : con.prepareStatement(sqlstmt);
+		resultSets.put(ps, null);
+		statements.put(key, ps);
+
+		return ps;
+	}
+
+	/**
+	 * Remember the ResultSet that has been returned by executing a statement. As long as it is open the statement is neither removed from the cache nor handed out again (cf. isInUse). Statements
+	 * that are not part of the cache are ignored.
+	 *
+	 * @param ps The statement that has been executed
+	 * @param rs The ResultSet it returned
+	 */
+	public void setResultSet(PreparedStatement ps, ResultSet rs) {
+		if (resultSets.containsKey(ps)) {
+			resultSets.put(ps, rs);
+		}
+	}
+
+	/**
+	 * Check if the ResultSet that has most recently been returned by a cached statement is still open. Executing the statement again (or closing it) would close that ResultSet.
+	 *
+	 * @param ps The cached statement
+	 * @return True if the statement's most recent ResultSet is still open
+	 */
+	public boolean isInUse(PreparedStatement ps) {
+		ResultSet rs = resultSets.get(ps);
+		if (rs == null) {
+			return false;
+		}
+
+		try {
+			return !rs.isClosed();
+		} catch (SQLException e) {
+			// The ResultSet can't be used anymore anyway
+			return false;
+		}
+	}
+
+	/**
+	 * Close all cached statements and empty the cache
+	 */
+	public void clear() {
+		Iterator<PreparedStatement> itr = statements.values().iterator();
+		while (itr.hasNext()) {
+			closeQuietly(itr.next());
+		}
+		statements.clear();
+		resultSets.clear();
+	}
+
+	/**
+	 * Close a statement without reporting errors (it is being discarded anyway)
+	 *
+	 * @param ps The statement to close
+	 */
+	private static void closeQuietly(PreparedStatement ps) {
+		try {
+			ps.close();
+		} catch (SQLException e) {
+			// The statement is discarded anyway
+		}
+	}
+
+}
@@ -93,6 +93,30 @@ public class SystemStatus {
 		
 		re += getActiveHunters(db) + "<br>\r\n";
 		
+		re += CertificateManager.getCertCacheStatus() + "<br>\r\n";
+		
+		re += CertFingerprints.getCacheStatus() + "<br>\r\n";
+		
+		re += CertificateManager.getStoredCertsStatus() + "<br>\r\n";
+		
+		re += CVRProcessor.getCacheStatus() + "<br>\r\n";
+		
+		re += CertificateManager.getUnreachableServersStatus() + "<br>\r\n";
+		
+		re += TLSChainFetcher.getStatusOfInstance() + "<br>\r\n";
+		
+		re += TLSChainFetcher.getWorkingHandshakesStatus() + "<br>\r\n";
+		
+		re += SigningService.getStatusOfAll() + "<br>\r\n";
+		
+		re += PerClientReplyProtector.getCacheStatus() + "<br>\r\n";
+		
+		re += PipelineExecutor.getStatusOfInstance() + "<br>\r\n";
+		
+		re += JudgeRegistry.getStatusOfInstance() + "<br>\r\n";
+		
+		re += CVRBatchProcessor.getStatusOfExecutor() + "<br>\r\n";
+		
 		return re;
 	}
 }
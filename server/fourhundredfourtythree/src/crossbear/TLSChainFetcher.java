@@ -0,0 +1,1158 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package crossbear;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.NoRouteToHostException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509ExtendedTrustManager;
+
+/**
+ * The TLSChainFetcher downloads the certificate chains of SSL-enabled servers without blocking a thread per server. All connections are non-blocking SocketChannels that are served by a single
+ * selector thread. This way thousands of servers can be contacted at the same time using only a few threads.
+ *
+ * A fetch is complete as soon as the server's Certificate message has been received and the connection is closed right away instead of finishing the handshake. There are two kinds of Probes:
+ * TruncatingProbes send a ClientHello of their own and parse the server's replies without JSSE (cf. TruncatedHandshake). EngineProbes drive a SSLEngine through the handshake and take the chain from
+ * the TrustManager's checkServerTrusted-call. The computations their SSLEngines delegate are performed by a small pool of worker threads so they don't stall the other connections. Since the
+ * TrustManager is a X509ExtendedTrustManager, JSSE does not check the chain against jdk.certpath.disabledAlgorithms.
+ *
+ * There is only one TLSChainFetcher per JVM. It is shared by the CertificateManager of the server and the JavaHunter (both use CertificateManager.getCertChainFromServer). Its threads are daemon
+ * threads and it uses a single SSLContext (and therefore a single SecureRandom) for all connections.
+ *
+ * @author Thomas Riedmaier
+ *
+ */
+public class TLSChainFetcher {
+
+	/**
+	 * A ChainFuture is the result of a fetch. It is completed by the TLSChainFetcher's threads once the server's certificate chain has been received or the fetch failed. Cancelling it closes the
+	 * connection to the server.
+	 *
+	 * @author Thomas Riedmaier
+	 *
+	 */
+	public static class ChainFuture implements Future<CertificateChainContainer> {
+
+		// Released once the ChainFuture has been completed
+		private final CountDownLatch done = new CountDownLatch(1);
+
+		// The certificate chain of the server (if it has been received)
+		private CertificateChainContainer result = null;
+
+		// The reason why the fetch failed (if it did)
+		private Exception exception = null;
+
+		// Flag indicating whether the ChainFuture has been cancelled
+		private boolean cancelled = false;
+
+		// The TLSChainFetcher that performs the fetch
+		private final TLSChainFetcher fetcher;
+
+		// The queue into which the ChainFuture is put once it has been completed (null if nobody waits for it that way)
+		private BlockingQueue<ChainFuture> completionQueue = null;
+
+		private ChainFuture(TLSChainFetcher fetcher) {
+			this.fetcher = fetcher;
+		}
+
+		/**
+		 * Complete the ChainFuture unless it has already been completed
+		 *
+		 * @param result The certificate chain of the server (null if the fetch failed)
+		 * @param exception The reason why the fetch failed (null if it succeeded)
+		 * @param cancel Flag indicating whether the fetch has been cancelled
+		 * @return True if the ChainFuture has been completed by this call, false if it had already been completed before
+		 */
+		private synchronized boolean complete(CertificateChainContainer result, Exception exception, boolean cancel) {
+			if (isDone()) {
+				return false;
+			}
+
+			this.result = result;
+			this.exception = exception;
+			this.cancelled = cancel;
+			done.countDown();
+
+			if (completionQueue != null) {
+				completionQueue.add(this);
+			}
+			return true;
+		}
+
+		/**
+		 * Put the ChainFuture into a queue once it has been completed. This allows to wait for the first of several ChainFutures to complete.
+		 *
+		 * @param queue The queue to put the ChainFuture into (immediately if it has already been completed)
+		 */
+		private synchronized void notifyOnCompletion(BlockingQueue<ChainFuture> queue) {
+			if (isDone()) {
+				queue.add(this);
+			} else {
+				completionQueue = queue;
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.concurrent.Future#cancel(boolean)
+		 */
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			if (!complete(null, null, true)) {
+				return false;
+			}
+
+			// The selector thread closes the connection when it sees that the ChainFuture is done
+			fetcher.selector.wakeup();
+			return true;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.concurrent.Future#isCancelled()
+		 */
+		@Override
+		public synchronized boolean isCancelled() {
+			return cancelled;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.concurrent.Future#isDone()
+		 */
+		@Override
+		public boolean isDone() {
+			return done.getCount() == 0;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.concurrent.Future#get()
+		 */
+		@Override
+		public CertificateChainContainer get() throws InterruptedException, ExecutionException {
+			done.await();
+			return report();
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see java.util.concurrent.Future#get(long, java.util.concurrent.TimeUnit)
+		 */
+		@Override
+		public CertificateChainContainer get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+			if (!done.await(timeout, unit)) {
+				throw new TimeoutException();
+			}
+			return report();
+		}
+
+		/**
+		 * @return The certificate chain of the server
+		 * @throws ExecutionException If the fetch failed
+		 * @throws CancellationException If the fetch has been cancelled
+		 */
+		private synchronized CertificateChainContainer report() throws ExecutionException {
+			if (cancelled) {
+				throw new CancellationException();
+			}
+			if (exception != null) {
+				throw new ExecutionException(exception);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * The variants of the handshake that a Probe can perform
+	 */
+	public enum Handshake {
+
+		// Send a ClientHello and read the server's replies up to its Certificate message without using JSSE (cf. TruncatedHandshake)
+		TRUNCATED,
+
+		// Perform the beginning of the handshake using JSSE with TLS/SNI
+		JSSE,
+
+		// Perform the beginning of the handshake using JSSE with SSLv2Hello enabled and without SNI (required for some older systems)
+		JSSE_SSLV2HELLO
+	}
+
+	/**
+	 * A Probe is a single connection to a server. Apart from receiving the certificate chain (which might happen on a worker thread) all of its methods are called by the selector thread only.
+	 *
+	 * @author Thomas Riedmaier
+	 *
+	 */
+	private abstract class Probe {
+
+		// The address the Probe connects to
+		protected final InetSocketAddress address;
+
+		// The variant of the handshake the Probe performs
+		protected final Handshake handshake;
+
+		// The value of System.nanoTime() by which the certificate chain must have been received
+		protected final long deadlineNanos;
+
+		// The result of the Probe
+		protected final ChainFuture future = new ChainFuture(TLSChainFetcher.this);
+
+		protected final SocketChannel channel;
+
+		// Data that has not been sent to the server yet (in write mode)
+		protected final ByteBuffer netOut;
+
+		protected SelectionKey key = null;
+
+		// The IP of the server (set once the connection has been established)
+		private volatile InetAddress serverAddress = null;
+
+		// Flag indicating whether the connection has been closed
+		private boolean closed = false;
+
+		/**
+		 * Create a new Probe and open its (not yet connected) SocketChannel
+		 *
+		 * @param address The address the Probe connects to
+		 * @param handshake The variant of the handshake the Probe performs
+		 * @param timeoutMillis The time in milliseconds that connecting to the server and receiving its certificate chain may take
+		 * @param netOutSize The size of the buffer for data that has not been sent to the server yet
+		 * @throws IOException
+		 */
+		protected Probe(InetSocketAddress address, Handshake handshake, long timeoutMillis, int netOutSize) throws IOException {
+			this.address = address;
+			this.handshake = handshake;
+			this.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+			this.netOut = ByteBuffer.allocate(netOutSize);
+
+			channel = SocketChannel.open();
+			channel.configureBlocking(false);
+			openConnections.incrementAndGet();
+		}
+
+		/**
+		 * Start connecting to the server and register the connection with the selector
+		 */
+		private void register() {
+			try {
+				if (channel.connect(address)) {
+					key = channel.register(selector, 0, this);
+					connected();
+				} else {
+					key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+				}
+			} catch (Exception e) {
+				fail(e);
+			}
+		}
+
+		/**
+		 * Called by the selector thread whenever the connection is ready
+		 */
+		private void handle() {
+			try {
+				if (key.isConnectable()) {
+					if (channel.finishConnect()) {
+						connected();
+					}
+				} else {
+					step();
+				}
+			} catch (Exception e) {
+				fail(e);
+			}
+		}
+
+		/**
+		 * Start the handshake once the connection has been established
+		 *
+		 * @throws IOException
+		 */
+		private void connected() throws IOException {
+			serverAddress = ((InetSocketAddress) channel.socket().getRemoteSocketAddress()).getAddress();
+			startHandshake();
+			step();
+		}
+
+		/**
+		 * Prepare the handshake after the connection has been established
+		 *
+		 * @throws IOException
+		 */
+		protected abstract void startHandshake() throws IOException;
+
+		/**
+		 * Drive the handshake as far as possible without blocking. If the Probe needs data from the server, needs to send data that doesn't fit into the socket's buffer or waits for a worker
+		 * thread, it waits for this function to be called again.
+		 *
+		 * @throws IOException
+		 */
+		protected abstract void step() throws IOException;
+
+		/**
+		 * Continue the handshake after a worker thread has finished
+		 */
+		protected void resume() {
+			try {
+				step();
+			} catch (Exception e) {
+				fail(e);
+			}
+		}
+
+		/**
+		 * Send the data in netOut to the server
+		 *
+		 * @return True if all data has been sent, false if the socket's buffer is full
+		 * @throws IOException
+		 */
+		protected boolean flush() throws IOException {
+			netOut.flip();
+			try {
+				while (netOut.hasRemaining()) {
+					if (channel.write(netOut) == 0) {
+						return false;
+					}
+				}
+				return true;
+			} finally {
+				netOut.compact();
+			}
+		}
+
+		/**
+		 * Complete the Probe with the server's certificate chain
+		 *
+		 * @param chain The server's certificate chain
+		 */
+		protected void chainReceived(X509Certificate[] chain) {
+			if (future.complete(new CertificateChainContainer(chain, serverAddress), null, false)) {
+				chainsReceived.incrementAndGet(handshake.ordinal());
+			}
+		}
+
+		/**
+		 * Complete the Probe with an exception and close the connection
+		 *
+		 * @param e The reason why the Probe failed
+		 */
+		protected void fail(Exception e) {
+			if (future.complete(null, e, false)) {
+				if (e instanceof SocketTimeoutException) {
+					timeouts.incrementAndGet();
+				} else {
+					failures.incrementAndGet();
+				}
+			}
+
+			// Connections are only closed by the selector thread
+			if (Thread.currentThread() == selectorThread) {
+				close();
+			}
+		}
+
+		/**
+		 * Close the connection to the server (may be called more than once)
+		 */
+		protected void close() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			openConnections.decrementAndGet();
+
+			if (key != null) {
+				key.cancel();
+			}
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// The connection is discarded anyway
+			}
+		}
+	}
+
+	/**
+	 * A TruncatingProbe sends a ClientHello and parses the server's replies until its Certificate message is complete (cf. TruncatedHandshake).
+	 *
+	 * @author Thomas Riedmaier
+	 *
+	 */
+	private class TruncatingProbe extends Probe {
+
+		// The parser of the server's replies
+		private final TruncatedHandshake truncatedHandshake = new TruncatedHandshake();
+
+		// Data received from the server (in write mode)
+		private final ByteBuffer netIn = ByteBuffer.allocate(8192);
+
+		private TruncatingProbe(InetSocketAddress address, byte[] clientHello, long timeoutMillis) throws IOException {
+			super(address, Handshake.TRUNCATED, timeoutMillis, clientHello.length);
+			netOut.put(clientHello);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see crossbear.TLSChainFetcher.Probe#startHandshake()
+		 */
+		@Override
+		protected void startHandshake() {
+			// The ClientHello is already waiting in netOut
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see crossbear.TLSChainFetcher.Probe#step()
+		 */
+		@Override
+		protected void step() throws IOException {
+			while (true) {
+
+				// The certificate chain has been received (or the fetch was cancelled) -> The connection is not needed anymore
+				if (future.isDone()) {
+					close();
+					return;
+				}
+
+				if (!flush()) {
+					key.interestOps(SelectionKey.OP_WRITE);
+					return;
+				}
+
+				int read = channel.read(netIn);
+				if (read < 0) {
+					throw new SSLException("The server closed the connection before sending its certificate");
+				} else if (read == 0) {
+					key.interestOps(SelectionKey.OP_READ);
+					return;
+				}
+
+				netIn.flip();
+				try {
+					X509Certificate[] chain = truncatedHandshake.consume(netIn);
+					if (chain != null) {
+						chainReceived(chain);
+					}
+				} catch (CertificateException e) {
+					throw new SSLException("The server's certificate could not be decoded", e);
+				} finally {
+					netIn.clear();
+				}
+			}
+		}
+	}
+
+	/**
+	 * An EngineProbe performs the beginning of the handshake using a SSLEngine. It is complete as soon as the engine asked the TrustManager whether to trust the server's certificate chain.
+	 *
+	 * @author Thomas Riedmaier
+	 *
+	 */
+	private class EngineProbe extends Probe {
+
+		private final SSLEngine engine;
+
+		// Data received from the server that has not been processed by the engine yet (in write mode)
+		private final ByteBuffer netIn;
+
+		// Application data is not expected during the handshake but the engine requires a buffer for it
+		private final ByteBuffer appIn;
+
+		private EngineProbe(InetSocketAddress address, SSLEngine engine, Handshake handshake, long timeoutMillis) throws IOException {
+			super(address, handshake, timeoutMillis, engine.getSession().getPacketBufferSize());
+			this.engine = engine;
+
+			netIn = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+			appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see crossbear.TLSChainFetcher.Probe#startHandshake()
+		 */
+		@Override
+		protected void startHandshake() throws IOException {
+			engine.beginHandshake();
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see crossbear.TLSChainFetcher.Probe#step()
+		 */
+		@Override
+		protected void step() throws IOException {
+			while (true) {
+
+				// The certificate chain has been received (or the fetch was cancelled) -> The connection is not needed anymore
+				if (future.isDone()) {
+					close();
+					return;
+				}
+
+				// Send what is left from the last wrap before producing anything else
+				if (!flush()) {
+					key.interestOps(SelectionKey.OP_WRITE);
+					return;
+				}
+
+				SSLEngineResult result;
+				switch (engine.getHandshakeStatus()) {
+				case NEED_WRAP:
+					result = engine.wrap(emptyBuffer, netOut);
+					if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+						throw new SSLException("The handshake was aborted");
+					}
+					break;
+
+				case NEED_UNWRAP:
+					netIn.flip();
+					result = engine.unwrap(netIn, appIn);
+					netIn.compact();
+
+					if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+						int read = channel.read(netIn);
+						if (read < 0) {
+							throw new SSLException("The server closed the connection during the handshake");
+						} else if (read == 0) {
+							key.interestOps(SelectionKey.OP_READ);
+							return;
+						}
+					} else if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+						appIn.clear();
+					} else if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+						throw new SSLException("The server closed the connection during the handshake");
+					}
+					break;
+
+				case NEED_TASK:
+
+					// Run the delegated tasks on a worker thread and continue once they are done. The connection is not watched in the meantime.
+					key.interestOps(0);
+					workers.execute(new Runnable() {
+						@Override
+						public void run() {
+							try {
+								Runnable task;
+								while (!future.isDone() && (task = engine.getDelegatedTask()) != null) {
+									task.run();
+								}
+							} catch (Exception e) {
+								fail(e);
+							}
+							resumedProbes.add(EngineProbe.this);
+							selector.wakeup();
+						}
+					});
+					return;
+
+				default:
+
+					// The handshake finished without the TrustManager being asked about the chain (should not happen but the session knows the chain anyway)
+					Certificate[] certs = engine.getSession().getPeerCertificates();
+					chainReceived((certs instanceof X509Certificate[]) ? (X509Certificate[]) certs : null);
+				}
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see crossbear.TLSChainFetcher.Probe#close()
+		 */
+		@Override
+		protected void close() {
+			activeProbes.remove(engine);
+			super.close();
+		}
+	}
+
+	/**
+	 * The TrustManager of all connections. It accepts every certificate chain and passes it to the Probe whose engine received it.
+	 *
+	 * @author Thomas Riedmaier
+	 *
+	 */
+	private class ChainCapturingTM extends X509ExtendedTrustManager {
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see javax.net.ssl.X509ExtendedTrustManager#checkServerTrusted(java.security.cert.X509Certificate[], java.lang.String, javax.net.ssl.SSLEngine)
+		 */
+		@Override
+		public void checkServerTrusted(X509Certificate[] chain, String authType, SSLEngine engine) throws CertificateException {
+			Probe probe = activeProbes.get(engine);
+			if (probe != null) {
+				probe.chainReceived(chain);
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see javax.net.ssl.X509ExtendedTrustManager#checkClientTrusted(java.security.cert.X509Certificate[], java.lang.String, javax.net.ssl.SSLEngine)
+		 */
+		@Override
+		public void checkClientTrusted(X509Certificate[] chain, String authType, SSLEngine engine) throws CertificateException {
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see javax.net.ssl.X509ExtendedTrustManager#checkServerTrusted(java.security.cert.X509Certificate[], java.lang.String, java.net.Socket)
+		 */
+		@Override
+		public void checkServerTrusted(X509Certificate[] chain, String authType, Socket socket) throws CertificateException {
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see javax.net.ssl.X509ExtendedTrustManager#checkClientTrusted(java.security.cert.X509Certificate[], java.lang.String, java.net.Socket)
+		 */
+		@Override
+		public void checkClientTrusted(X509Certificate[] chain, String authType, Socket socket) throws CertificateException {
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see javax.net.ssl.X509TrustManager#checkServerTrusted(java.security.cert.X509Certificate[], java.lang.String)
+		 */
+		@Override
+		public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see javax.net.ssl.X509TrustManager#checkClientTrusted(java.security.cert.X509Certificate[], java.lang.String)
+		 */
+		@Override
+		public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException {
+		}
+
+		/*
+		 * (non-Javadoc)
+		 *
+		 * @see javax.net.ssl.X509TrustManager#getAcceptedIssuers()
+		 */
+		@Override
+		public X509Certificate[] getAcceptedIssuers() {
+			return new X509Certificate[0];
+		}
+	}
+
+	// The time in milliseconds that connecting to a server and receiving its certificate chain may take (per attempt)
+	private static final int defaultTimeout = 3000;
+
+	// The interval in milliseconds in which the selector thread looks for Probes that exceeded their timeout
+	private static final long timeoutCheckInterval = 100;
+
+	// The wrap-calls during the handshake don't send application data
+	private static final ByteBuffer emptyBuffer = ByteBuffer.allocate(0);
+
+	// The time in milliseconds that the variant of the handshake which worked for a server is remembered
+	private static final long handshakeMemoryValidity = 24 * 60 * 60 * 1000;
+
+	// The variants of the handshake that worked for servers recently. Their KEY is the HostPort of the server.
+	private static final BoundedCache<String, Handshake> workingHandshakes = new BoundedCache<String, Handshake>("Working handshake variants", 10000);
+
+	// The time in milliseconds after which the next variant of the handshake is attempted if the previous one has neither succeeded nor failed (cf. getCertChain)
+	private static volatile long hedgeDelayMillis = 500;
+
+	// The directory to write the exceptions of the selector loop to (null if they should not be logged)
+	private static volatile String logDir = null;
+
+	// The only instance of the TLSChainFetcher (created on first use)
+	private static TLSChainFetcher instance = null;
+
+	/**
+	 * Set the time after which the next variant of the handshake is attempted if the previous one has neither succeeded nor failed (cf. getCertChain)
+	 *
+	 * @param millis The hedge delay in milliseconds (0 attempts all variants at once)
+	 */
+	public static void setHedgeDelayMillis(long millis) {
+		hedgeDelayMillis = Math.max(0, millis);
+	}
+
+	/**
+	 * Set the directory to write the exceptions of the selector loop to
+	 *
+	 * @param dir The logging directory of the Crossbear server (null if the exceptions should not be logged)
+	 */
+	public static void setLogDir(String dir) {
+		logDir = dir;
+	}
+
+	/**
+	 * Write an exception of the selector loop to the logging directory (if one has been set)
+	 *
+	 * @param e The exception to log
+	 */
+	private static void log(Exception e) {
+		String dir = logDir;
+		if (dir != null) {
+			Logger.dumpExceptionToFile(dir + "/fourhundredfourtythree.tlsChainFetcher.error", e);
+		}
+	}
+
+	/**
+	 * Get the current status of the memory of the variants of the handshake that worked for servers recently
+	 *
+	 * @return A status text containing the number of remembered servers and the memory's hit rate
+	 */
+	public static String getWorkingHandshakesStatus() {
+		return workingHandshakes.getStatus();
+	}
+
+	/**
+	 * Get the TLSChainFetcher of this JVM. It is created and started on the first call.
+	 *
+	 * @return The TLSChainFetcher
+	 * @throws NoSuchAlgorithmException
+	 * @throws KeyManagementException
+	 * @throws IOException
+	 */
+	public static synchronized TLSChainFetcher getInstance() throws NoSuchAlgorithmException, KeyManagementException, IOException {
+		if (instance == null) {
+			instance = new TLSChainFetcher();
+		}
+		return instance;
+	}
+
+	/**
+	 * Get the current status of the TLSChainFetcher
+	 *
+	 * @return A status text containing the number of open connections and the number of received chains, failures and timeouts
+	 */
+	public static synchronized String getStatusOfInstance() {
+		if (instance == null) {
+			return "TLS chain fetcher: not used yet";
+		}
+		StringBuilder re = new StringBuilder("TLS chain fetcher: " + instance.openConnections.get() + " connections open, " + instance.probesStarted.get() + " started, chains received");
+		for (Handshake handshake : Handshake.values()) {
+			re.append((handshake.ordinal() == 0 ? ": " : ", ") + instance.chainsReceived.get(handshake.ordinal()) + " " + handshake);
+		}
+		re.append(", " + instance.failures.get() + " failed, " + instance.timeouts.get() + " timed out, " + instance.hedgedAttempts.get() + " hedged attempts");
+		return re.toString();
+	}
+
+	// The SSLContext that creates the engines of all connections
+	private final SSLContext sslContext;
+
+	// The source of the random values of the ClientHellos sent by TruncatingProbes
+	private final SecureRandom random = new SecureRandom();
+
+	// The selector that watches all connections
+	private final Selector selector;
+
+	// The thread that runs the selector loop (replaced if the loop dies, cf. startSelectorThread)
+	private volatile Thread selectorThread;
+
+	// The threads that run the engines' delegated tasks
+	private final ExecutorService workers;
+
+	// The Probes that have been started but not yet registered with the selector
+	private final ConcurrentLinkedQueue<Probe> newProbes = new ConcurrentLinkedQueue<Probe>();
+
+	// The Probes whose delegated tasks have been run
+	private final ConcurrentLinkedQueue<Probe> resumedProbes = new ConcurrentLinkedQueue<Probe>();
+
+	// The EngineProbes whose connections are currently open. Their KEY is their engine (required to find the Probe that belongs to a checkServerTrusted-call).
+	private final ConcurrentHashMap<SSLEngine, Probe> activeProbes = new ConcurrentHashMap<SSLEngine, Probe>();
+
+	// Counters for the status page (chainsReceived counts per Handshake-variant)
+	private final AtomicInteger openConnections = new AtomicInteger(0);
+	private final AtomicLong probesStarted = new AtomicLong(0);
+	private final AtomicLongArray chainsReceived = new AtomicLongArray(Handshake.values().length);
+	private final AtomicLong failures = new AtomicLong(0);
+	private final AtomicLong timeouts = new AtomicLong(0);
+	private final AtomicLong hedgedAttempts = new AtomicLong(0);
+
+	/**
+	 * Create and start a new TLSChainFetcher
+	 *
+	 * @throws NoSuchAlgorithmException
+	 * @throws KeyManagementException
+	 * @throws IOException
+	 */
+	private TLSChainFetcher() throws NoSuchAlgorithmException, KeyManagementException, IOException {
+
+		// Force the connection even if the certificate is untrusted
+		sslContext = SSLContext.getInstance("SSL");
+		sslContext.init(null, new TrustManager[] { new ChainCapturingTM() }, random);
+
+		selector = Selector.open();
+
+		final AtomicInteger threadCount = new AtomicInteger(0);
+		workers = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "crossbear-tls-worker-" + threadCount.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+		startSelectorThread();
+	}
+
+	/**
+	 * Start the thread that runs the selector loop. If the loop dies (which only happens if it throws an Error or if the selector has been closed), all open Probes are failed and a new thread is
+	 * started (unless the selector has been closed).
+	 */
+	private void startSelectorThread() {
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					selectorLoop();
+				} catch (Throwable t) {
+					log((t instanceof Exception) ? (Exception) t : new Exception("The selector loop died", t));
+				} finally {
+					failAllProbes(new IOException("The selector loop of the TLSChainFetcher stopped"));
+					if (selector.isOpen()) {
+						startSelectorThread();
+					}
+				}
+			}
+		}, "crossbear-tls-selector");
+		thread.setDaemon(true);
+		selectorThread = thread;
+		thread.start();
+	}
+
+	/**
+	 * Fail all Probes that have been started but not completed yet (called by the selector thread when its loop died)
+	 *
+	 * @param e The reason why the Probes failed
+	 */
+	private void failAllProbes(IOException e) {
+		Probe probe;
+		while ((probe = newProbes.poll()) != null) {
+			probe.fail(e);
+		}
+		while ((probe = resumedProbes.poll()) != null) {
+			probe.fail(e);
+		}
+		try {
+			for (SelectionKey key : selector.keys()) {
+				((Probe) key.attachment()).fail(e);
+			}
+		} catch (ClosedSelectorException ex) {
+			// The remaining Probes have been closed along with the selector
+		}
+	}
+
+	/**
+	 * Start downloading the certificate chain of a SSL-enabled server
+	 *
+	 * @param host The Hostname of the server e.g. "encrypted.google.com"
+	 * @param port The port of the server e.g. 443
+	 * @param timeoutMillis The time in milliseconds that connecting to the server and receiving its certificate chain may take
+	 * @param handshake The variant of the handshake to perform
+	 * @return The ChainFuture that will be completed once the certificate chain has been received or the fetch failed
+	 */
+	public ChainFuture fetch(String host, int port, long timeoutMillis, Handshake handshake) {
+		probesStarted.incrementAndGet();
+
+		try {
+			// Resolve the server's name (this is the only part of the fetch that blocks the calling thread)
+			InetSocketAddress address = new InetSocketAddress(host, port);
+			if (address.isUnresolved()) {
+				throw new UnknownHostException(host);
+			}
+
+			Probe probe;
+			if (handshake == Handshake.TRUNCATED) {
+				probe = new TruncatingProbe(address, TruncatedHandshake.createClientHello(host, random), timeoutMillis);
+			} else {
+
+				// The hostname has to be passed to the engine or else SNI will not work
+				SSLEngine engine = (handshake == Handshake.JSSE_SSLV2HELLO) ? sslContext.createSSLEngine() : sslContext.createSSLEngine(host, port);
+				engine.setUseClientMode(true);
+				if (handshake == Handshake.JSSE_SSLV2HELLO) {
+					enableSSLv2Hello(engine);
+				}
+
+				probe = new EngineProbe(address, engine, handshake, timeoutMillis);
+				activeProbes.put(engine, probe);
+			}
+			newProbes.add(probe);
+			selector.wakeup();
+			return probe.future;
+
+		} catch (IOException e) {
+			ChainFuture future = new ChainFuture(this);
+			future.complete(null, e, false);
+			failures.incrementAndGet();
+			return future;
+		}
+	}
+
+	/**
+	 * Download the certificate chain of a SSL-enabled server and wait for it. The variants of the handshake are attempted until one of them succeeds: The TRUNCATED handshake first (since it is the
+	 * cheapest and works with the most cipher suites), then JSSE with TLS/SNI and finally JSSE with SSLv2Hello enabled (required for some older systems). If the server needed a different variant
+	 * recently, that variant is attempted first.
+	 *
+	 * The attempts are hedged: The next variant is started as soon as the previous one failed or if it didn't succeed within the hedge delay (cf. setHedgeDelayMillis). The chain of whichever attempt
+	 * succeeds first is returned and the other attempts are cancelled. This way the worst-case latency is close to a single timeout instead of the sum of all attempts' timeouts. If the server can't
+	 * be reached at all the remaining variants are not attempted.
+	 *
+	 * The wait is bounded even if the selector thread fails to complete the attempts: After the timeout of the last attempt (i.e. the timeout plus the hedge delays used) getCertChain gives up.
+	 *
+	 * @param host The Hostname of the server e.g. "encrypted.google.com"
+	 * @param port The port of the server e.g. 443
+	 * @return The certificate chain of that server starting with the server's certificate and continuing with it's chain certificates (if any are sent) along with the IP from which this chain was
+	 *         received
+	 * @throws IOException If no attempt succeeded
+	 */
+	public CertificateChainContainer getCertChain(String host, int port) throws IOException {
+		String hostPort = host + ":" + port;
+
+		// The variants that have not been attempted yet (the one that worked for the server recently comes first)
+		LinkedList<Handshake> pendingHandshakes = new LinkedList<Handshake>(Arrays.asList(Handshake.values()));
+		Handshake knownHandshake = workingHandshakes.get(hostPort);
+		if (knownHandshake != null) {
+			pendingHandshakes.remove(knownHandshake);
+			pendingHandshakes.addFirst(knownHandshake);
+		}
+
+		// The attempts that are still running and the queue in which they are put once they are done
+		HashMap<ChainFuture, Handshake> runningAttempts = new HashMap<ChainFuture, Handshake>();
+		LinkedBlockingQueue<ChainFuture> completedAttempts = new LinkedBlockingQueue<ChainFuture>();
+
+		IOException lastCaughtException = null;
+		long nextAttemptNanos = System.nanoTime();
+
+		// The time at which the last attempt exceeds its timeout (plus one timeout check of the selector thread)
+		long giveUpNanos = nextAttemptNanos;
+
+		try {
+			while (true) {
+
+				// Start the next variant if the previous one failed or didn't succeed within the hedge delay
+				if (!pendingHandshakes.isEmpty() && (runningAttempts.isEmpty() || System.nanoTime() - nextAttemptNanos >= 0)) {
+					if (!runningAttempts.isEmpty()) {
+						hedgedAttempts.incrementAndGet();
+					}
+
+					Handshake handshake = pendingHandshakes.removeFirst();
+					ChainFuture attempt = fetch(host, port, defaultTimeout, handshake);
+					runningAttempts.put(attempt, handshake);
+					attempt.notifyOnCompletion(completedAttempts);
+
+					nextAttemptNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(hedgeDelayMillis);
+					giveUpNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(defaultTimeout + timeoutCheckInterval);
+					continue;
+				}
+
+				if (runningAttempts.isEmpty()) {
+					throw lastCaughtException;
+				}
+
+				// Wait for the next attempt to complete (or until it is time to start the next variant or to give up)
+				ChainFuture attempt = completedAttempts.poll((pendingHandshakes.isEmpty() ? giveUpNanos : nextAttemptNanos) - System.nanoTime(), TimeUnit.NANOSECONDS);
+				if (attempt == null) {
+					if (pendingHandshakes.isEmpty()) {
+						throw new SocketTimeoutException("No certificate chain received from " + hostPort + " within the timeout");
+					}
+					continue;
+				}
+
+				Handshake handshake = runningAttempts.remove(attempt);
+				try {
+					CertificateChainContainer re = waitFor(attempt);
+					workingHandshakes.put(hostPort, handshake, handshakeMemoryValidity);
+					return re;
+				} catch (IOException e) {
+					if (isUnreachable(e)) {
+						throw e;
+					}
+					lastCaughtException = e;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the certificate chain");
+		} finally {
+
+			// The attempts that are still running are not needed anymore
+			for (ChainFuture attempt : runningAttempts.keySet()) {
+				attempt.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * Check if a fetch failed because the server could not be reached (in which case a different variant of the handshake won't help)
+	 *
+	 * @param e The reason why the fetch failed
+	 * @return True if the server's name could not be resolved or the connection could not be established
+	 */
+	private static boolean isUnreachable(IOException e) {
+		return (e instanceof UnknownHostException) || (e instanceof ConnectException) || (e instanceof NoRouteToHostException);
+	}
+
+	/**
+	 * Wait for a ChainFuture
+	 *
+	 * @param future The ChainFuture to wait for
+	 * @return The certificate chain of the server
+	 * @throws IOException If the fetch failed (or the waiting thread has been interrupted)
+	 */
+	private static CertificateChainContainer waitFor(ChainFuture future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the certificate chain");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * Enable the SSLv2Hello-handshake in addition to the protocols the engine supports by default
+	 *
+	 * @param engine The engine to enable SSLv2Hello for
+	 */
+	private static void enableSSLv2Hello(SSLEngine engine) {
+		LinkedList<String> protocols = new LinkedList<String>(Arrays.asList(engine.getEnabledProtocols()));
+		if (!protocols.contains("SSLv2Hello")) {
+			protocols.add("SSLv2Hello");
+		}
+
+		try {
+			engine.setEnabledProtocols(protocols.toArray(new String[0]));
+		} catch (IllegalArgumentException e) {
+			// The JRE doesn't support SSLv2Hello -> try with its default protocols
+		}
+	}
+
+	/**
+	 * The selector loop: Register new Probes, continue Probes whose delegated tasks have been run, serve the connections that are ready and close the connections that exceeded their timeout.
+	 */
+	private void selectorLoop() {
+		long lastTimeoutCheck = System.nanoTime();
+
+		while (true) {
+			try {
+				selector.select(timeoutCheckInterval);
+
+				Probe probe;
+				while ((probe = newProbes.poll()) != null) {
+					probe.register();
+				}
+				while ((probe = resumedProbes.poll()) != null) {
+					probe.resume();
+				}
+
+				Iterator<SelectionKey> readyKeys = selector.selectedKeys().iterator();
+				while (readyKeys.hasNext()) {
+					SelectionKey key = readyKeys.next();
+					readyKeys.remove();
+					if (key.isValid()) {
+						((Probe) key.attachment()).handle();
+					}
+				}
+
+				long now = System.nanoTime();
+				if (now - lastTimeoutCheck >= TimeUnit.MILLISECONDS.toNanos(timeoutCheckInterval)) {
+					lastTimeoutCheck = now;
+					for (SelectionKey key : selector.keys()) {
+						probe = (Probe) key.attachment();
+						if (probe.future.isDone()) {
+							probe.close();
+						} else if (now - probe.deadlineNanos >= 0) {
+							probe.fail(new SocketTimeoutException("No certificate chain received from " + probe.address + " within the timeout"));
+						}
+					}
+				}
+			} catch (Exception e) {
+
+				// Failures of single Probes are handled by the Probes themselves, so this is a problem of the selector: Log it and go on (a Probe that is affected is failed once it exceeds its
+				// timeout). If the selector has been closed there is nothing to go on with.
+				log(e);
+				if (!selector.isOpen()) {
+					return;
+				}
+			}
+		}
+	}
+
+}
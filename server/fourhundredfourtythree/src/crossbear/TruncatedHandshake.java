@@ -0,0 +1,305 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package crossbear;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Vector;
+
+import javax.net.ssl.SSLException;
+
+/**
+ * A TruncatedHandshake is the client's side of the beginning of a TLS-handshake. It ends as soon as the server has sent its Certificate message: Neither side performs a key exchange, which saves CPU
+ * time on both sides, and the handshake can't fail because of a cipher suite that the JRE doesn't support after the server already sent its certificate chain.
+ *
+ * The ClientHello offers TLS 1.2 (without the supported_versions-extension, so servers won't choose TLS 1.3 in which the Certificate message would be encrypted) and a long list of cipher suites
+ * including outdated ones, since the goal is to make the server send its certificate chain and not to establish a secure connection. The server's replies are parsed record by record until the
+ * Certificate message is complete.
+ *
+ * A TruncatedHandshake is not thread-safe. It is used by a single Probe of the TLSChainFetcher.
+ *
+ * @author Thomas Riedmaier
+ *
+ */
+public class TruncatedHandshake {
+
+	// TLS content types
+	private static final int CONTENT_TYPE_ALERT = 21;
+	private static final int CONTENT_TYPE_HANDSHAKE = 22;
+
+	// TLS handshake message types
+	private static final int HANDSHAKE_TYPE_CLIENT_HELLO = 1;
+	private static final int HANDSHAKE_TYPE_SERVER_HELLO = 2;
+	private static final int HANDSHAKE_TYPE_CERTIFICATE = 11;
+
+	// The size of the header of a TLS record (type, version, length) and of a handshake message (type, length)
+	private static final int RECORD_HEADER_LENGTH = 5;
+	private static final int HANDSHAKE_HEADER_LENGTH = 4;
+
+	// The maximum length of a TLS record's fragment (2^14 plus the expansion that RFC 5246 allows)
+	private static final int MAX_RECORD_LENGTH = (1 << 14) + 2048;
+
+	// The maximum number of bytes that will be buffered before the Certificate message is complete (certificate chains are much shorter but a handshake message may be up to 16MB long)
+	private static final int MAX_BUFFERED_BYTES = 1 << 20;
+
+	// The cipher suites offered in the ClientHello. Since the connection is never used they include suites that the JRE refuses to use. The last one is TLS_EMPTY_RENEGOTIATION_INFO_SCSV.
+	private static final int[] cipherSuites = {
+			0xc02b, 0xc02f, 0xc02c, 0xc030, 0xcca9, 0xcca8, // ECDHE with AES-GCM and ChaCha20
+			0xc023, 0xc027, 0xc024, 0xc028, 0xc009, 0xc013, 0xc00a, 0xc014, // ECDHE with AES-CBC
+			0x009e, 0x009f, 0x0067, 0x006b, 0x0033, 0x0039, 0x0032, 0x0038, // DHE with AES
+			0x009c, 0x009d, 0x003c, 0x003d, 0x002f, 0x0035, // RSA with AES
+			0x0041, 0x0084, 0x0045, 0x0088, // Camellia
+			0xc012, 0x0016, 0x0013, 0x000a, // 3DES
+			0xc011, 0xc007, 0x0005, 0x0004, // RC4
+			0x0009, 0x0015, 0x0012, 0x0003, 0x0006, 0x0008, 0x0014, 0x0011, // DES and export suites
+			0x00ff };
+
+	// The elliptic curves offered in the supported_groups-extension (secp256r1, secp384r1, secp521r1 and x25519)
+	private static final int[] supportedGroups = { 0x0017, 0x0018, 0x0019, 0x001d };
+
+	// The signature algorithms offered in the signature_algorithms-extension (RSA, ECDSA and RSA-PSS with SHA256, SHA384 and SHA512 as well as RSA, DSA and ECDSA with SHA1)
+	private static final int[] signatureAlgorithms = { 0x0401, 0x0501, 0x0601, 0x0403, 0x0503, 0x0603, 0x0804, 0x0805, 0x0806, 0x0201, 0x0202, 0x0203 };
+
+	/**
+	 * Create a ClientHello record
+	 *
+	 * @param host The Hostname of the server (sent in the server_name-extension unless it is an IP-address)
+	 * @param random The source of the ClientHello's random value
+	 * @return The bytes of the record containing the ClientHello
+	 */
+	public static byte[] createClientHello(String host, SecureRandom random) {
+		ByteArrayOutputStream extensions = new ByteArrayOutputStream();
+
+		// server_name: Required by servers hosting more than one certificate on the same IP
+		if (host != null && !isIPAddress(host)) {
+			byte[] hostBytes = host.getBytes();
+			writeInt(extensions, 0x0000, 2);
+			writeInt(extensions, hostBytes.length + 5, 2);
+			writeInt(extensions, hostBytes.length + 3, 2);
+			writeInt(extensions, 0, 1);
+			writeInt(extensions, hostBytes.length, 2);
+			extensions.write(hostBytes, 0, hostBytes.length);
+		}
+
+		// supported_groups and ec_point_formats: Required by servers that only offer ECDHE-suites
+		writeInt(extensions, 0x000a, 2);
+		writeInt(extensions, supportedGroups.length * 2 + 2, 2);
+		writeInt(extensions, supportedGroups.length * 2, 2);
+		for (int group : supportedGroups) {
+			writeInt(extensions, group, 2);
+		}
+		writeInt(extensions, 0x000b, 2);
+		writeInt(extensions, 2, 2);
+		writeInt(extensions, 1, 1);
+		writeInt(extensions, 0, 1);
+
+		// signature_algorithms: Servers choose their certificate based on this extension
+		writeInt(extensions, 0x000d, 2);
+		writeInt(extensions, signatureAlgorithms.length * 2 + 2, 2);
+		writeInt(extensions, signatureAlgorithms.length * 2, 2);
+		for (int algorithm : signatureAlgorithms) {
+			writeInt(extensions, algorithm, 2);
+		}
+
+		// The body of the ClientHello: version (TLS 1.2), random, empty session id, cipher suites, "null"-compression and extensions
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		writeInt(body, 0x0303, 2);
+		byte[] clientRandom = new byte[32];
+		random.nextBytes(clientRandom);
+		body.write(clientRandom, 0, clientRandom.length);
+		writeInt(body, 0, 1);
+		writeInt(body, cipherSuites.length * 2, 2);
+		for (int suite : cipherSuites) {
+			writeInt(body, suite, 2);
+		}
+		writeInt(body, 1, 1);
+		writeInt(body, 0, 1);
+		writeInt(body, extensions.size(), 2);
+		body.write(extensions.toByteArray(), 0, extensions.size());
+
+		// Wrap the body in a handshake message and the handshake message in a record. The record's version is TLS 1.0 for compatibility with old servers.
+		ByteArrayOutputStream record = new ByteArrayOutputStream();
+		writeInt(record, CONTENT_TYPE_HANDSHAKE, 1);
+		writeInt(record, 0x0301, 2);
+		writeInt(record, body.size() + HANDSHAKE_HEADER_LENGTH, 2);
+		writeInt(record, HANDSHAKE_TYPE_CLIENT_HELLO, 1);
+		writeInt(record, body.size(), 3);
+		record.write(body.toByteArray(), 0, body.size());
+
+		return record.toByteArray();
+	}
+
+	/**
+	 * Check if a host is given as IP-address (in which case it must not be sent in the server_name-extension)
+	 *
+	 * @param host The Hostname or IP of the server
+	 * @return True if host is an IPv4- or IPv6-address
+	 */
+	private static boolean isIPAddress(String host) {
+		return host.indexOf(':') >= 0 || host.matches("[0-9.]+");
+	}
+
+	/**
+	 * Write the lowest bytes of an integer in network byte order
+	 *
+	 * @param out The stream to write to
+	 * @param value The integer to write
+	 * @param numberOfBytes The number of bytes to write
+	 */
+	private static void writeInt(ByteArrayOutputStream out, int value, int numberOfBytes) {
+		for (int i = numberOfBytes - 1; i >= 0; i--) {
+			out.write((value >>> (8 * i)) & 0xff);
+		}
+	}
+
+	/**
+	 * Read an unsigned integer in network byte order
+	 *
+	 * @param data The array to read from
+	 * @param offset The position of the integer's first byte
+	 * @param numberOfBytes The length of the integer
+	 * @return The integer
+	 */
+	private static int readInt(byte[] data, int offset, int numberOfBytes) {
+		int re = 0;
+		for (int i = 0; i < numberOfBytes; i++) {
+			re = (re << 8) | (data[offset + i] & 0xff);
+		}
+		return re;
+	}
+
+	// Bytes received from the server that don't form a complete record yet
+	private final ByteArrayOutputStream records = new ByteArrayOutputStream();
+
+	// The content of the handshake records received from the server that doesn't form a complete handshake message yet
+	private final ByteArrayOutputStream handshakeMessages = new ByteArrayOutputStream();
+
+	/**
+	 * Process data received from the server
+	 *
+	 * @param in The data received from the server (will be consumed completely)
+	 * @return The certificate chain sent by the server or null if the Certificate message is not complete yet
+	 * @throws SSLException If the server sent something other than the beginning of a TLS-handshake (e.g. an alert)
+	 * @throws CertificateException If the server's certificates could not be decoded
+	 */
+	public X509Certificate[] consume(ByteBuffer in) throws SSLException, CertificateException {
+		byte[] received = new byte[in.remaining()];
+		in.get(received);
+		records.write(received, 0, received.length);
+
+		if (records.size() + handshakeMessages.size() > MAX_BUFFERED_BYTES) {
+			throw new SSLException("The server sent more than " + MAX_BUFFERED_BYTES + " bytes without a Certificate message");
+		}
+
+		// Extract all complete records ...
+		byte[] data = records.toByteArray();
+		int offset = 0;
+		while (data.length - offset >= RECORD_HEADER_LENGTH) {
+			int contentType = data[offset] & 0xff;
+			int majorVersion = data[offset + 1] & 0xff;
+			int length = readInt(data, offset + 3, 2);
+
+			if (majorVersion != 3 || length > MAX_RECORD_LENGTH) {
+				throw new SSLException("The server's reply is not a TLS record");
+			}
+			if (data.length - offset < RECORD_HEADER_LENGTH + length) {
+				break;
+			}
+
+			if (contentType == CONTENT_TYPE_ALERT) {
+				throw new SSLException("The server sent alert " + ((length >= 2) ? (data[offset + RECORD_HEADER_LENGTH + 1] & 0xff) : -1) + " instead of its certificate");
+			} else if (contentType != CONTENT_TYPE_HANDSHAKE) {
+				throw new SSLException("The server sent a record of type " + contentType + " before its certificate");
+			}
+
+			handshakeMessages.write(data, offset + RECORD_HEADER_LENGTH, length);
+			offset += RECORD_HEADER_LENGTH + length;
+		}
+		records.reset();
+		records.write(data, offset, data.length - offset);
+
+		// ... and look for the Certificate message among the complete handshake messages
+		data = handshakeMessages.toByteArray();
+		offset = 0;
+		while (data.length - offset >= HANDSHAKE_HEADER_LENGTH) {
+			int messageType = data[offset] & 0xff;
+			int length = readInt(data, offset + 1, 3);
+			if (data.length - offset < HANDSHAKE_HEADER_LENGTH + length) {
+				break;
+			}
+
+			if (messageType == HANDSHAKE_TYPE_CERTIFICATE) {
+				return decodeCertificateMessage(data, offset + HANDSHAKE_HEADER_LENGTH, length);
+			} else if (messageType != HANDSHAKE_TYPE_SERVER_HELLO) {
+				throw new SSLException("The server sent handshake message " + messageType + " instead of its certificate");
+			}
+
+			offset += HANDSHAKE_HEADER_LENGTH + length;
+		}
+		handshakeMessages.reset();
+		handshakeMessages.write(data, offset, data.length - offset);
+
+		return null;
+	}
+
+	/**
+	 * Decode the certificate chain contained in a Certificate message
+	 *
+	 * @param data The array containing the message
+	 * @param offset The position of the message's body
+	 * @param length The length of the message's body
+	 * @return The certificate chain starting with the server's certificate
+	 * @throws SSLException If the message is malformed or empty
+	 * @throws CertificateException If a certificate could not be decoded
+	 */
+	private static X509Certificate[] decodeCertificateMessage(byte[] data, int offset, int length) throws SSLException, CertificateException {
+		if (length < 3 || readInt(data, offset, 3) != length - 3) {
+			throw new SSLException("The server's Certificate message is malformed");
+		}
+
+		CertificateFactory cf = CertificateFactory.getInstance("X.509");
+		Vector<X509Certificate> chain = new Vector<X509Certificate>();
+
+		int end = offset + length;
+		offset += 3;
+		while (offset < end) {
+			if (end - offset < 3) {
+				throw new SSLException("The server's Certificate message is malformed");
+			}
+			int certLength = readInt(data, offset, 3);
+			offset += 3;
+			if (end - offset < certLength) {
+				throw new SSLException("The server's Certificate message is malformed");
+			}
+
+			chain.add((X509Certificate) cf.generateCertificate(new ByteArrayInputStream(data, offset, certLength)));
+			offset += certLength;
+		}
+
+		if (chain.isEmpty()) {
+			throw new SSLException("The server sent an empty Certificate message");
+		}
+		return chain.toArray(new X509Certificate[0]);
+	}
+
+}
@@ -0,0 +1,153 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package crossbear;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509Certificate;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Vector;
+
+/**
+ * A TrustAnchorIndex contains the root-CA certificates trusted by the local system (i.e. the content of a KeyStore like JAVA's cacerts) in a form that can directly be used for chain building and
+ * validation: The certificates are indexed by subject and key identifier (cf. CertIndex) and the TrustAnchor for each of them is created only once.
+ *
+ * A TrustAnchorIndex is immutable. If the KeyStore file changes, a new TrustAnchorIndex is loaded and replaces the old one as a whole (cf. CertificateManager.getChainBuilder). Validations that are
+ * running at that time keep using the old one.
+ *
+ * @author Thomas Riedmaier
+ *
+ */
+public class TrustAnchorIndex {
+
+	/**
+	 * Load a TrustAnchorIndex from a KeyStore file
+	 *
+	 * @param keystoreFile The filename of the KeyStore (e.g. JAVA's cacerts)
+	 * @param password The password of the KeyStore
+	 * @return A new TrustAnchorIndex containing all certificates of the KeyStore
+	 * @throws NoSuchAlgorithmException
+	 * @throws CertificateException
+	 * @throws IOException
+	 * @throws KeyStoreException
+	 */
+	public static TrustAnchorIndex load(String keystoreFile, String password) throws NoSuchAlgorithmException, CertificateException, IOException, KeyStoreException {
+
+		// Remember when the file was modified before reading it (if it is modified while it is read, the next check will reload it again)
+		long lastModified = new File(keystoreFile).lastModified();
+
+		// Open and load the KeyStore
+		KeyStore keystore = KeyStore.getInstance(KeyStore.getDefaultType());
+		FileInputStream is = new FileInputStream(keystoreFile);
+		try {
+			keystore.load(is, password.toCharArray());
+		} finally {
+			is.close();
+		}
+
+		// Get the certificates of all entries
+		Vector<X509Certificate> certs = new Vector<X509Certificate>();
+		Enumeration<String> allKeyAliases = keystore.aliases();
+		while (allKeyAliases.hasMoreElements()) {
+			Certificate cert = keystore.getCertificate(allKeyAliases.nextElement());
+			if (cert instanceof X509Certificate) {
+				certs.add((X509Certificate) cert);
+			}
+		}
+
+		return new TrustAnchorIndex(keystoreFile, lastModified, certs);
+	}
+
+	// The filename of the KeyStore the index was loaded from
+	private final String keystoreFile;
+
+	// The modification time of the KeyStore file at the time the index was loaded
+	private final long lastModified;
+
+	// The trusted certificates indexed by subject and key identifier
+	private final CertIndex certs;
+
+	// The TrustAnchor for each of the trusted certificates
+	private final HashMap<X509Certificate, TrustAnchor> trustAnchors = new HashMap<X509Certificate, TrustAnchor>();
+
+	/**
+	 * Create a new TrustAnchorIndex
+	 *
+	 * @param keystoreFile The filename of the KeyStore the certificates were loaded from
+	 * @param lastModified The modification time of the KeyStore file at the time the certificates were loaded
+	 * @param certs The trusted certificates
+	 */
+	private TrustAnchorIndex(String keystoreFile, long lastModified, Vector<X509Certificate> certs) {
+		this.keystoreFile = keystoreFile;
+		this.lastModified = lastModified;
+		this.certs = new CertIndex(certs);
+
+		for (X509Certificate cert : this.certs.getCerts()) {
+			trustAnchors.put(cert, new TrustAnchor(cert, null));
+		}
+	}
+
+	/**
+	 * Check if the KeyStore file has been modified since the index was loaded
+	 *
+	 * @return True if the file's modification time differs from the one at the time the index was loaded else false
+	 */
+	public boolean isOutdated() {
+		return new File(keystoreFile).lastModified() != lastModified;
+	}
+
+	/**
+	 * @return The filename of the KeyStore the index was loaded from
+	 */
+	public String getKeystoreFile() {
+		return keystoreFile;
+	}
+
+	/**
+	 * @return The trusted certificates indexed by subject and key identifier
+	 */
+	public CertIndex getCerts() {
+		return certs;
+	}
+
+	/**
+	 * Get the TrustAnchor for a trusted certificate
+	 *
+	 * @param cert The certificate
+	 * @return The TrustAnchor for cert or null if cert is not trusted
+	 */
+	public TrustAnchor getTrustAnchor(X509Certificate cert) {
+		return trustAnchors.get(cert);
+	}
+
+	/**
+	 * @return The number of trusted certificates
+	 */
+	public int size() {
+		return certs.size();
+	}
+
+}
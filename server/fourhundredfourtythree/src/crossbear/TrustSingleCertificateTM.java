@@ -24,7 +24,6 @@ import java.util.Arrays;
 
 import javax.net.ssl.X509TrustManager;
 
-import crossbear.messaging.Message;
 
 /**
  * A TrustSingleCertificateTM is a X509TrustManager that is used for SSL-connections that should trust a single certificate only. If a contacted server sends any certificate but the trusted one an
@@ -66,10 +65,11 @@ public class TrustSingleCertificateTM implements X509TrustManager {
 
 		try {
 			// Check if the server's certificate's SHA256Hash matches the hash passed in the constructor
-			if (!Arrays.equals(TrustedCertSHA256Hash, CertificateManager.SHA256(certs[0].getEncoded()))) {
+			CertFingerprints fingerprints = CertFingerprints.of(certs[0]);
+			if (!Arrays.equals(TrustedCertSHA256Hash, fingerprints.getSHA256())) {
 
 				// If not throw an exception
-				throw new CertificateException("An untrusted certificate was sent by the server: " + Message.byteArrayToHexString(CertificateManager.SHA256(certs[0].getEncoded())));
+				throw new CertificateException("An untrusted certificate was sent by the server: " + fingerprints.getSHA256Hex());
 			}
 
 		} catch (NoSuchAlgorithmException e) {
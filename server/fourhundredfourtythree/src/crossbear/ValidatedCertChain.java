@@ -0,0 +1,83 @@
+/*
+    This file is part of Crossbear.
+
+    Crossbear is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Crossbear is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Crossbear.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package crossbear;
+
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.LinkedList;
+
+/**
+ * Container class for the result of a certificate chain validation (cf. CertChainBuilder.getValidatedChain). Since the same chains are validated again and again, these results are kept in memory.
+ * A ValidatedCertChain is immutable.
+ *
+ * @author Thomas Riedmaier
+ *
+ */
+public class ValidatedCertChain {
+
+	// The validated and reordered chain (null if the chain could not be validated)
+	private final X509Certificate[] chain;
+
+	// The CertChainMD5 of the chain as it is stored in the ServerCerts-table (null if the chain could not be validated)
+	private final String certChainMD5;
+
+	// The SHA256ChainHash of the chain as it is stored in the ServerCerts-table (null if the chain could not be validated)
+	private final String sha256ChainHash;
+
+	/**
+	 * Create a new ValidatedCertChain
+	 *
+	 * @param chain The validated and reordered chain or null if the chain could not be validated
+	 * @param certChainMD5 The CertChainMD5 of the chain or null if the chain could not be validated
+	 * @param sha256ChainHash The SHA256ChainHash of the chain or null if the chain could not be validated
+	 */
+	public ValidatedCertChain(X509Certificate[] chain, String certChainMD5, String sha256ChainHash) {
+		this.chain = chain;
+		this.certChainMD5 = certChainMD5;
+		this.sha256ChainHash = sha256ChainHash;
+	}
+
+	/**
+	 * @return True if the chain could be validated else false
+	 */
+	public boolean isValid() {
+		return chain != null;
+	}
+
+	/**
+	 * @return A copy of the validated and reordered chain or null if the chain could not be validated
+	 */
+	public LinkedList<X509Certificate> getChain() {
+		return (chain == null) ? null : new LinkedList<X509Certificate>(Arrays.asList(chain));
+	}
+
+	/**
+	 * @return The CertChainMD5 of the chain as it is stored in the ServerCerts-table or null if the chain could not be validated
+	 */
+	public String getCertChainMD5() {
+		return certChainMD5;
+	}
+
+	/**
+	 * @return The SHA256ChainHash of the chain as it is stored in the ServerCerts-table or null if the chain could not be validated
+	 */
+	public String getSHA256ChainHash() {
+		return sha256ChainHash;
+	}
+
+}
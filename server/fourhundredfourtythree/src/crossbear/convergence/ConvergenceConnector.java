@@ -43,8 +43,8 @@ import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
+import crossbear.CertFingerprints;
 import crossbear.CertJudgment;
-import crossbear.CertificateManager;
 import crossbear.Database;
 import crossbear.TrustSingleCertificateTM;
 import crossbear.messaging.Message;
@@ -331,7 +331,7 @@ public class ConvergenceConnector {
 	public CertJudgment getJudgmentOfObservationPeriod(X509Certificate cert, String hostPort) throws SQLException, CertificateEncodingException, NoSuchAlgorithmException {
 
 		// Calculate the certificate's SHA1-hash. It will be used as the certificate's identifier in all Convergence-related functions and SQL-tables
-		String certSHA1 = Message.byteArrayToHexString(CertificateManager.SHA1(cert.getEncoded()));
+		String certSHA1 = CertFingerprints.of(cert).getSHA1Hex();
 
 		// Try to get the information about when Convergence observed "cert" for "hostPort" from the local cache (i.e. the ConvergenceCertObservations-table)
 		ConvergenceCertObservation cco = getCCOFromCache(hostPort, certSHA1);
@@ -398,41 +398,10 @@ public class ConvergenceConnector {
 	 */
 	private void storeCCOInCache(ConvergenceCertObservation cco) throws SQLException {
 
-		SQLException lastSQLException = null;
-
-		/*
-		 * "Update-or-Insert" requires two SQL statements. Since the state of the database might change in between the two statements transactions are used. Transactions might fail on commit. The only
-		 * legal reason for that is that the entry that should be inserted has already been inserted in the meantime. In that case try updating that entry and if that succeeded go on. If that failed
-		 * again then there is a real problem and an exception is thrown.
-		 */
-		db.setAutoCommit(false);
-		for (int i = 0; i < 2; i++) {
-			try {
-
-				// First: Try to update an existing entry
-				Object[] params = { cco.getFirstObservation(), cco.getLastObservation(), cco.getLastUpdate(), cco.getHostPort(), cco.getCertHash() };
-				int updatedRows = db
-						.executeUpdate("UPDATE ConvergenceCertObservations SET FirstObservation = ?, LastObservation = ?, LastUpdate = ? WHERE ServerHostPort = ? AND SHA1Hash = ?", params);
-
-				// If there isn't any try to insert a new one.
-				if (updatedRows == 0) {
-					db.executeInsert("INSERT INTO ConvergenceCertObservations (FirstObservation,LastObservation,LastUpdate,ServerHostPort,SHA1Hash) VALUES (?,?,?,?,?)", params);
-				}
-
-				// Try to commit the changes
-				db.commit();
-
-				// Reenable auto-commit
-				db.setAutoCommit(true);
-				return;
-			} catch (SQLException e) {
-
-				// Commit failed. If that was the first time: Try again
-				db.rollback();
-				lastSQLException = e;
-			}
-		}
-		throw lastSQLException;
+		// Insert the entry or update it if there already is one for that server and certificate (a single statement, i.e. no transaction and no retry is required)
+		Object[] params = { cco.getHostPort(), cco.getCertHash(), cco.getFirstObservation(), cco.getLastObservation(), cco.getLastUpdate() };
+		db.executeUpdate("INSERT INTO ConvergenceCertObservations (ServerHostPort,SHA1Hash,FirstObservation,LastObservation,LastUpdate) VALUES (?,?,?,?,?) "
+				+ "ON CONFLICT (ServerHostPort, SHA1Hash) DO UPDATE SET FirstObservation = EXCLUDED.FirstObservation, LastObservation = EXCLUDED.LastObservation, LastUpdate = EXCLUDED.LastUpdate", params);
 
 	}
 
@@ -180,8 +180,8 @@ public class CertVerifyRequest extends Message {
     }
 
     /**
-     * Under certain circumstances the client sends duplicate CertVerifyRequest-messages. Therefore CertVerifyResults are cached and resent on duplicate CertVerifyRequest-messages. The KEY of the
-     * CertVerifyResultCache-table is the hash of the CertVerifyRequest. This hash is calculated here.
+     * Under certain circumstances the client sends duplicate CertVerifyRequest-messages. The observations of the certificates of duplicate requests should not be stored again. Therefore requests
+     * are recognized by the hash of the CertVerifyRequest including the IPs of the client and of the server that received it. This hash is calculated here.
      * 
      * @return The hash of the CertVerifyRequest-Object
      * @throws MessageSerializationException
@@ -204,6 +204,26 @@ public class CertVerifyRequest extends Message {
 		
     }
 	
+    /**
+     * The judgments about a certificate don't depend on the client that sent it. Therefore the KEY of the CertVerifyResultCache-table is the hash of the CertVerifyRequest without the IPs of the
+     * client and of the server that received it (i.e. the hash of the options, the certificate chain and the server's Hostname, IP and port). This hash is calculated here.
+     * 
+     * @return The hash of the CertVerifyRequest-Object's content
+     * @throws MessageSerializationException
+     * @throws NoSuchAlgorithmException
+     */
+    public byte[] getJudgmentHash() throws MessageSerializationException, NoSuchAlgorithmException {
+		
+	ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		
+	// Write all elements of the CertVerifyRequest-message to the buffer
+	writeContent(buffer);
+		
+	// Calculate the SHA256-hash of that buffer and return it
+	return CertificateManager.SHA256(buffer.toByteArray());
+		
+    }
+	
     /**
      * @return The IP of the Host from which the certificate has been received
      */
@@ -250,8 +250,8 @@ public class HuntingTask extends Message {
 	Vector<byte[]> re = new Vector<byte[]>();
 
 	// Get the SHA256ChainHash of all certificates that have ever been observed for the scan-target. Order them by their most recent observation.
-	Object[] params = { targetHostName + ":" + String.valueOf(targetPort) };
-	ResultSet rs = db.executeQuery("SELECT sc.SHA256ChainHash , Max(co.TimeOfObservation) as LastSeen FROM CertObservations AS co JOIN ServerCerts AS sc ON sc.Id = co.CertID WHERE ServerHostPort = ? AND sc.SHA256ChainHash IS NOT NULL GROUP BY sc.SHA256ChainHash ORDER BY LastSeen DESC LIMIT "+String.valueOf(max), params);
+	Object[] params = { targetHostName + ":" + String.valueOf(targetPort), Integer.valueOf(max) };
+	ResultSet rs = db.executeQuery("SELECT sc.SHA256ChainHash , Max(co.TimeOfObservation) as LastSeen FROM CertObservations AS co JOIN ServerCerts AS sc ON sc.Id = co.CertID WHERE ServerHostPort = ? AND sc.SHA256ChainHash IS NOT NULL GROUP BY sc.SHA256ChainHash ORDER BY LastSeen DESC LIMIT ?", params);
 
 	// Store up to "max" hashes in the result vector (number of results generated by the SQL-Query is limited)
 	while(rs.next()) {
@@ -29,12 +29,14 @@ import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.Arrays;
 import java.util.Vector;
 
+import crossbear.CertificateManager;
 import crossbear.Database;
 
 /**
@@ -161,6 +163,76 @@ public abstract class HuntingTaskReply extends Message {
 	 * @throws SQLException
 	 */
 	public abstract void storeInDatabase(Database db) throws InvalidAlgorithmParameterException, KeyStoreException, NoSuchAlgorithmException, CertificateException, UnsupportedEncodingException, NoSuchProviderException, SQLException;
+	
+	/**
+	 * Store several HuntingTaskReplies in the database (cf. storeInDatabase(Database)). Instead of storing them one-by-one all new certificate chains, all certificate observations and all
+	 * HuntingTaskResults are stored at once. This way the number of round trips to the database does not depend on the number of replies.
+	 * 
+	 * Replies that belong to inactive HuntingTasks are skipped.
+	 * 
+	 * @param replies The HuntingTaskReplies to store (all of them must have been created without an exception being thrown)
+	 * @param cm The CertificateManager to use for storing new certificate chains
+	 * @param db The Database Connection to use for storing the data
+	 * @throws InvalidAlgorithmParameterException
+	 * @throws KeyStoreException
+	 * @throws NoSuchAlgorithmException
+	 * @throws CertificateException
+	 * @throws UnsupportedEncodingException
+	 * @throws NoSuchProviderException
+	 * @throws SQLException
+	 */
+	public static void storeInDatabase(Vector<HuntingTaskReply> replies, CertificateManager cm, Database db) throws InvalidAlgorithmParameterException, KeyStoreException, NoSuchAlgorithmException, CertificateException, UnsupportedEncodingException, NoSuchProviderException, SQLException {
+		
+		// The HuntingTask might have been deactivated recently. This doesn't throw an exception but replies to those tasks will not be stored in the database anyway.
+		Vector<HuntingTaskReply> activeReplies = new Vector<HuntingTaskReply>();
+		for (HuntingTaskReply reply : replies) {
+			if (reply.taskIsActive) {
+				activeReplies.add(reply);
+			}
+		}
+		
+		// Store all newly observed chains in the database
+		Vector<X509Certificate[]> newChains = new Vector<X509Certificate[]>();
+		for (HuntingTaskReply reply : activeReplies) {
+			if (reply.getNewCertChain() != null) {
+				newChains.add(reply.getNewCertChain());
+			}
+		}
+		Long[] newServerCertIDs = cm.storeCertChains(newChains, db);
+		
+		// Store the observations that were made by the clients in the database
+		Vector<Object[]> observations = new Vector<Object[]>();
+		int newChainIndex = 0;
+		for (HuntingTaskReply reply : activeReplies) {
+			Long serverCertID = (reply.getNewCertChain() != null) ? newServerCertIDs[newChainIndex++] : reply.getKnownServerCertID();
+			
+			Object[] observation = { serverCertID, reply.serverHostPort, reply.serverIP, reply.serverTimeOfExecution, "CrossbearHunter", reply.observerIP };
+			observations.add(observation);
+		}
+		Long[] observIDs = CertificateManager.rememberCertObservations(observations, db);
+		
+		// Store the HuntingTaskResults in the database
+		Vector<Object[]> results = new Vector<Object[]>();
+		for (int i = 0; i < activeReplies.size(); i++) {
+			Object[] result = { activeReplies.get(i).taskID, activeReplies.get(i).trace, observIDs[i] };
+			results.add(result);
+		}
+		CertificateManager.storeHuntingTaskResults(results, db);
+	}
+	
+	/**
+	 * Get the certificate chain that the client observed in case it was not yet known for the HuntingTask's target.
+	 * 
+	 * @return The certificate chain that has to be stored before the observation can be stored or null if the chain is already known (in that case getKnownServerCertID() returns its ID)
+	 */
+	protected abstract X509Certificate[] getNewCertChain();
+	
+	/**
+	 * Get the ID of the server certificate that the client observed in case it was already known for the HuntingTask's target.
+	 * 
+	 * @return The value of the Id-column of the observed certificate in the ServerCerts-table or null if the certificate chain is new (in that case getNewCertChain() returns it)
+	 */
+	protected abstract Long getKnownServerCertID();
 
 	/**
 	 * Each HuntingTaskReply contains the result of the traceroute that the client executed for the scan-target. This result has to fulfill several constraints:
@@ -28,6 +28,7 @@ import java.security.InvalidParameterException;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
@@ -209,6 +210,22 @@ public class HuntingTaskReplyKnownCertChain extends HuntingTaskReply {
 
     }
 	
+    /* (non-Javadoc)
+     * @see crossbear.messaging.HuntingTaskReply#getNewCertChain()
+     */
+    @Override
+	protected X509Certificate[] getNewCertChain() {
+	return null;
+    }
+
+    /* (non-Javadoc)
+     * @see crossbear.messaging.HuntingTaskReply#getKnownServerCertID()
+     */
+    @Override
+	protected Long getKnownServerCertID() {
+	return this.serverCertID;
+    }
+
     /* (non-Javadoc)
      * @see crossbear.Message#writeContent(java.io.OutputStream)
      */
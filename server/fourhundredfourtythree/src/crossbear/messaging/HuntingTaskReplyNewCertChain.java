@@ -154,7 +154,7 @@ public class HuntingTaskReplyNewCertChain extends HuntingTaskReply {
 	validateTrace(trace, pubIPHmac, InetAddress.getByName(taskDetails.getString("TargetIP")),db);
 
 	// Third: check if the certificate chain is valid within itself (i.e. can it be ordered in a way that it is sane?)
-	LinkedList<X509Certificate> validatedChain = cm.makeCertChainValid(certChain,50,false);
+	LinkedList<X509Certificate> validatedChain = cm.makeCertChainValid(certChain,false);
 	if (validatedChain == null) {
 	    throw new IllegalArgumentException("The certificate chain could not be validated!");
 	} else{
@@ -211,6 +211,22 @@ public class HuntingTaskReplyNewCertChain extends HuntingTaskReply {
 
     }
 
+    /* (non-Javadoc)
+     * @see crossbear.messaging.HuntingTaskReply#getNewCertChain()
+     */
+    @Override
+	protected X509Certificate[] getNewCertChain() {
+	return this.certChain;
+    }
+
+    /* (non-Javadoc)
+     * @see crossbear.messaging.HuntingTaskReply#getKnownServerCertID()
+     */
+    @Override
+	protected Long getKnownServerCertID() {
+	return null;
+    }
+
     /* (non-Javadoc)
      * @see crossbear.Message#writeContent(java.io.OutputStream)
      */
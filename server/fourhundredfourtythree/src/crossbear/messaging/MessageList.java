@@ -24,14 +24,17 @@ import java.net.InetAddress;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
+import java.security.SignatureException;
 import java.security.cert.CertificateEncodingException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Vector;
 
 import crossbear.Database;
+import crossbear.SigningService;
 
 /**
  * A MessageList is a collection of Messages. On several occasions the Crossbear server send's more than one message to the client at the same time. These messages should be added to a MessageList
@@ -52,7 +55,7 @@ public class MessageList {
 	private static byte[] getHTLFromDBCache(Database db) throws SQLException{
 		
 		Object[] params = { };
-		ResultSet rs = db.executeQuery("SELECT * FROM HuntingTaskListCache LIMIT 1", params);
+		ResultSet rs = db.executeQuery("SELECT * FROM HuntingTaskListCache WHERE Id = 1", params);
 
 		// If the result is empty then there is no cache entry to return
 		if (!rs.next()) {
@@ -68,6 +71,33 @@ public class MessageList {
 		return rs.getBytes("Data");
 	}
 
+	// The HuntingTaskList that has been signed most recently and its signature (cf. getHTLSignature)
+	private static byte[] lastSignedHTL = null;
+	private static SignatureMessage lastHTLSignature = null;
+
+	/**
+	 * Get a SignatureMessage for the byte[]-representation of a HuntingTaskList. The HuntingTaskList only changes when the HuntingTaskListCache-table is refreshed. Therefore the signature of the
+	 * most recently signed HuntingTaskList is kept in memory and reused as long as the HuntingTaskList doesn't change. That way the RSA-signature is calculated only once per refresh rather than once
+	 * per request.
+	 * 
+	 * @param htlBytes The byte[]-representation of the HuntingTaskList (as returned by getCurrentHuntingTaskList(...).getBytes())
+	 * @param signer The SigningService to use if the HuntingTaskList has not been signed yet
+	 * @return A SignatureMessage containing the signature of htlBytes
+	 * @throws InvalidKeyException
+	 * @throws NoSuchAlgorithmException
+	 * @throws SignatureException
+	 */
+	public static synchronized SignatureMessage getHTLSignature(byte[] htlBytes, SigningService signer) throws InvalidKeyException, NoSuchAlgorithmException, SignatureException {
+
+		// Comparing the bytes is much cheaper than calculating a new signature
+		if (lastSignedHTL == null || !Arrays.equals(lastSignedHTL, htlBytes)) {
+			lastHTLSignature = new SignatureMessage(htlBytes, signer);
+			lastSignedHTL = htlBytes;
+		}
+
+		return lastHTLSignature;
+	}
+
 	/**
 	 * Get the current HuntingTaskList and return it as MessageList. This function first attempts to load the HTL from the local cache and if that fails it generates a new one and stores it in the cache. Additionally it stores the IP of the requester in the database for statistical analysis.
 	 * 
@@ -127,40 +157,9 @@ public class MessageList {
 	 */
 	private static void storeHTLInDBCache(byte[] messageBytes, long validity, Database db) throws SQLException {
 
-		SQLException lastSQLException = null;
-
-		/*
-		 * "Update-or-Insert" requires two SQL statements. Since the state of the database might change in between the two statements transactions are used. Transactions might fail on commit. The only
-		 * legal reason for that is that the entry that should be inserted has already been inserted in the meantime. In that case try updating that entry and if that succeeded go on. If that failed
-		 * again then there is a real problem and an exception is thrown.
-		 */
-		db.setAutoCommit(false);
-		for (int i = 0; i < 2; i++) {
-			try {
-				
-				// First: Try to update an existing entry
-				Object[] params = { messageBytes, new Timestamp(System.currentTimeMillis() + validity) };
-				int updatedRows = db.executeUpdate("UPDATE HuntingTaskListCache SET Data = ?, ValidUntil = ?", params);
-
-				// If there isn't any try to insert a new one.
-				if (updatedRows == 0) {
-					db.executeInsert("INSERT INTO HuntingTaskListCache (Data,ValidUntil) VALUES (?,?)", params);
-				}
-
-				// Try to commit the changes
-				db.commit();
-				
-				// Reenable auto-commit
-				db.setAutoCommit(true);
-				return;
-			} catch (SQLException e) {
-				
-				// Commit failed. If that was the first time: Try again
-				db.rollback();
-				lastSQLException = e;
-			}
-		}
-		throw lastSQLException;
+		// The cache contains at most one HuntingTaskList which is always stored with the Id 1: Insert it or replace the current one (a single statement, i.e. no transaction and no retry is required)
+		Object[] params = { messageBytes, new Timestamp(System.currentTimeMillis() + validity) };
+		db.executeUpdate("INSERT INTO HuntingTaskListCache (Id,Data,ValidUntil) VALUES (1,?,?) ON CONFLICT (Id) DO UPDATE SET Data = EXCLUDED.Data, ValidUntil = EXCLUDED.ValidUntil", params);
 
 	}
 
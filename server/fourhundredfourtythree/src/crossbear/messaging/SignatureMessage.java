@@ -30,6 +30,7 @@ import java.security.cert.CertificateException;
 import org.bouncycastle.openssl.PEMReader;
 
 import crossbear.CertificateManager;
+import crossbear.SigningService;
 
 
 public class SignatureMessage extends Message {
@@ -45,7 +46,11 @@ public class SignatureMessage extends Message {
 		KeyStore.ProtectionParameter protParam = new KeyStore.PasswordProtection(pkeyPassword.toCharArray());
 		FileInputStream fis = new FileInputStream(keystoreFile);
 		KeyStore keystore = KeyStore.getInstance(KeyStore.getDefaultType());
-		keystore.load(fis, keystorePass.toCharArray());
+		try {
+			keystore.load(fis, keystorePass.toCharArray());
+		} finally {
+			fis.close();
+		}
 		
 		PrivateKey pk = ((KeyStore.PrivateKeyEntry)keystore.getEntry(pkeyAlias, protParam)).getPrivateKey();
 		Signature sig = Signature.getInstance("SHA256withRSA");
@@ -55,6 +60,20 @@ public class SignatureMessage extends Message {
 		signatureBytes = sig.sign();
 	}
 
+	/**
+	 * Create a new SignatureMessage using the preloaded key of a SigningService (this avoids loading the keystore for each message)
+	 * 
+	 * @param data The data to sign
+	 * @param signer The SigningService holding the server's private key
+	 * @throws NoSuchAlgorithmException
+	 * @throws SignatureException
+	 * @throws InvalidKeyException
+	 */
+	public SignatureMessage(byte[] data, SigningService signer) throws NoSuchAlgorithmException, SignatureException, InvalidKeyException {
+		super(Message.MESSAGE_TYPE_SIGNATURE);
+		signatureBytes = signer.sign(data);
+	}
+
 	protected void writeContent(OutputStream out) throws MessageSerializationException {
 		try {
 			out.write(signatureBytes);